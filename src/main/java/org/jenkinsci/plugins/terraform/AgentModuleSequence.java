@@ -0,0 +1,366 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+
+import hudson.model.TaskListener;
+
+import hudson.util.ArgumentListBuilder;
+
+import jenkins.security.MasterToSlaveCallable;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+
+/**
+ * The whole workspace, init, get, plan and apply sequence of a root module, resolved on the
+ * controller and sent to the build node in a single call.
+ *
+ * The commands run locally on the node and their output is streamed back through the build
+ * listener. Everything the controller needs afterwards (phase durations, resource timings,
+ * plan outcome and failure) is returned at once, instead of a remote call per file check
+ * and per launched process.
+ */
+class AgentModuleSequence extends MasterToSlaveCallable<AgentModuleSequence.Result, Exception> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TaskListener listener;
+    private final String module;
+    private final String workspacePath;
+    private final String workingDirectory;
+    private final String[] envs;
+    private final boolean useJsonOutput;
+    private final List<Step> workspaceSteps = new ArrayList<>();
+    private final List<Step> initSteps = new ArrayList<>();
+    private String fingerprintExtra;
+    private ProviderPluginCache providerCache;
+    private int providerCacheQuota;
+    private ProviderPluginCache.RemoteLock providerCacheLock;
+    private ModuleSourceCache moduleCache;
+    private boolean updateModules;
+    private boolean detectThrottling;
+    private boolean compactOutput;
+    private Step plan;
+    private Step apply;
+
+
+    AgentModuleSequence(TaskListener listener, RootModule module, String[] envs, boolean useJsonOutput) {
+        this.listener = listener;
+        this.module = module.getName();
+        this.workspacePath = module.getWorkspacePath().getRemote();
+        this.workingDirectory = module.getWorkingDirectory().getRemote();
+        this.envs = envs;
+        this.useJsonOutput = useJsonOutput;
+    }
+
+
+    /**
+     * Adds a workspace command, run first and whose exit code is ignored.
+     */
+    void addWorkspaceStep(ArgumentListBuilder args) {
+        workspaceSteps.add(new Step(TerraformMetricsAction.WORKSPACE, args));
+    }
+
+
+    void addInitStep(String phase, ArgumentListBuilder args) {
+        initSteps.add(new Step(phase, args));
+    }
+
+
+    boolean hasInitSteps() {
+        return !initSteps.isEmpty();
+    }
+
+
+    /**
+     * Skips the init steps when the root module matches the fingerprint saved by the last init.
+     */
+    void setIncrementalInit(String fingerprintExtra) {
+        this.fingerprintExtra = fingerprintExtra;
+    }
+
+
+    void setProviderCache(ProviderPluginCache providerCache, int providerCacheQuota) {
+        this.providerCache = providerCache;
+        this.providerCacheQuota = providerCacheQuota;
+    }
+
+
+    /**
+     * Holds the provider cache lock of the node while the init steps run, see {@link ProviderPluginCache#export}.
+     */
+    void setProviderCacheLock(ProviderPluginCache.RemoteLock providerCacheLock) {
+        this.providerCacheLock = providerCacheLock;
+    }
+
+
+    void setModuleCache(ModuleSourceCache moduleCache, boolean updateModules) {
+        this.moduleCache = moduleCache;
+        this.updateModules = updateModules;
+    }
+
+
+    /**
+     * Counts the throttling errors reported in the output of all commands.
+     */
+    void setDetectThrottling(boolean detectThrottling) {
+        this.detectThrottling = detectThrottling;
+    }
+
+
+    /**
+     * Logs plan and apply in the compact format, see {@link CompactLogOutputStream}. The full
+     * output is compressed on the node and never sent to the controller.
+     */
+    void setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
+    }
+
+
+    void setPlan(ArgumentListBuilder args) {
+        this.plan = new Step(TerraformMetricsAction.PLAN, args);
+    }
+
+
+    void setApply(ArgumentListBuilder args) {
+        this.apply = new Step(TerraformMetricsAction.APPLY, args);
+    }
+
+
+    /**
+     * Refreshes the state instead of planning and applying changes.
+     */
+    void setRefresh(ArgumentListBuilder args) {
+        this.apply = new Step(TerraformMetricsAction.REFRESH, args);
+    }
+
+
+    public Result call() throws Exception {
+        Launcher launcher = new Launcher.LocalLauncher(listener);
+        TerraformTimingAction timings = new TerraformTimingAction();
+        Result result = new Result();
+
+        try {
+            for (Step step : workspaceSteps) {
+                launch(launcher, step, false, timings, result);
+            }
+
+            if (!initAndGet(launcher, timings, result)) {
+                return result;
+            }
+
+            boolean hasChanges = true;
+            if (plan != null) {
+                new File(workingDirectory).mkdirs();
+                int exitCode = launch(launcher, plan, useJsonOutput, timings, result);
+                // -detailed-exitcode: 0 = no changes, 1 = error, 2 = changes present
+                if (exitCode != 0 && exitCode != 2) {
+                    result.failure = "Terraform plan failed: " + exitCode;
+                    return result;
+                }
+                result.planned = true;
+                hasChanges = exitCode == 2;
+                result.changes = hasChanges;
+                if (!hasChanges) {
+                    listener.getLogger().println(Messages.PlanNoChanges());
+                }
+            }
+
+            if (apply != null && hasChanges) {
+                int exitCode = launch(launcher, apply, useJsonOutput, timings, result);
+                if (exitCode != 0) {
+                    result.failure = "Terraform " + apply.phase + " failed: " + exitCode;
+                }
+            }
+        } finally {
+            result.timings = timings.getTimeline();
+        }
+
+        return result;
+    }
+
+
+    private boolean initAndGet(Launcher launcher, TerraformTimingAction timings, Result result) throws IOException, InterruptedException {
+        if (initSteps.isEmpty()) {
+            return true;
+        }
+
+        InitFingerprint fingerprint = null;
+        if (fingerprintExtra != null) {
+            fingerprint = new InitFingerprint(new FilePath(new File(workspacePath)), new FilePath(new File(workingDirectory)), fingerprintExtra);
+            if (fingerprint.isUpToDate()) {
+                listener.getLogger().println(Messages.InitSkipped(Util.getTimeSpanString(fingerprint.getSavedDuration())));
+                return true;
+            }
+            fingerprint.invalidate();
+        }
+
+        long start = System.currentTimeMillis();
+
+        FilePath workspace = new FilePath(new File(workspacePath));
+        if (moduleCache != null) {
+            try {
+                moduleCache.restore(workspace, updateModules, listener);
+            } catch (IOException ex) {
+                result.failure = ex.getMessage();
+                return false;
+            }
+        }
+
+        if (providerCacheLock != null) {
+            providerCacheLock.lock();
+        }
+        try {
+            for (Step step : initSteps) {
+                int exitCode = launch(launcher, step, false, timings, result);
+                if (exitCode != 0) {
+                    result.failure = "Terraform " + step.phase + " failed: " + exitCode;
+                    return false;
+                }
+
+                if (providerCache != null && step.phase.equals(TerraformMetricsAction.INIT)) {
+                    int evicted = providerCache.touchAndEvict(new FilePath(new File(workspacePath, ProviderPluginCache.LOCK_FILE_NAME)));
+                    if (evicted > 0) {
+                        listener.getLogger().println(Messages.ProviderCacheEvicted(evicted, providerCacheQuota));
+                    }
+                }
+            }
+        } finally {
+            if (providerCacheLock != null) {
+                providerCacheLock.unlock();
+            }
+        }
+
+        if (moduleCache != null) {
+            moduleCache.store(workspace, updateModules, listener);
+        }
+
+        if (fingerprint != null) {
+            fingerprint.save(System.currentTimeMillis() - start);
+        }
+        return true;
+    }
+
+
+    private int launch(Launcher launcher, Step step, boolean json, TerraformTimingAction timings, Result result) throws IOException, InterruptedException {
+        OutputStream stdout = listener.getLogger();
+        if (compactOutput && (step == plan || step == apply)) {
+            OutputStream fullLog = CompactLogOutputStream.openFullLog(new FilePath(new File(workingDirectory)), step.phase);
+            stdout = new CompactLogOutputStream(listener.getLogger(), fullLog, step.phase);
+        }
+        if (json) {
+            stdout = stdout == listener.getLogger() ? new JsonLogOutputStream(listener.getLogger(), module, timings)
+                    : new JsonLogOutputStream(new PrintStream(stdout, false, "UTF-8"), module, timings, true);
+        }
+        ThrottleDetectingOutputStream throttling = null;
+        if (detectThrottling) {
+            throttling = new ThrottleDetectingOutputStream(stdout);
+        }
+
+        long start = System.currentTimeMillis();
+        int exitCode;
+        long startOverhead;
+        try {
+            Proc proc = launcher.launch()
+                    .pwd(workspacePath)
+                    .cmds(step.args)
+                    .stdout(throttling != null ? throttling : stdout)
+                    .envs(envs)
+                    .start();
+            startOverhead = System.currentTimeMillis() - start;
+            exitCode = proc.join();
+        } finally {
+            if (throttling != null) {
+                throttling.close();
+                result.throttled += throttling.getThrottled();
+            }
+            if (stdout != listener.getLogger()) {
+                stdout.close();
+            }
+        }
+
+        result.metrics.add(new TerraformMetricsAction.PhaseMetric(module, step.phase, System.currentTimeMillis() - start, startOverhead, exitCode));
+        return exitCode;
+    }
+
+
+    private static final class Step implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String phase;
+        private final ArgumentListBuilder args;
+
+
+        Step(String phase, ArgumentListBuilder args) {
+            this.phase = phase;
+            this.args = args;
+        }
+    }
+
+
+    static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<TerraformMetricsAction.PhaseMetric> metrics = new ArrayList<>();
+        private List<TerraformTimingAction.ResourceTiming> timings;
+        private boolean planned;
+        private boolean changes;
+        private String failure;
+        private int throttled;
+
+
+        List<TerraformMetricsAction.PhaseMetric> getMetrics() {
+            return this.metrics;
+        }
+
+
+        List<TerraformTimingAction.ResourceTiming> getTimings() {
+            return this.timings;
+        }
+
+
+        /**
+         * Returns true if a plan was saved for the root module.
+         */
+        boolean isPlanned() {
+            return this.planned;
+        }
+
+
+        /**
+         * Returns true if the saved plan contains changes.
+         */
+        boolean hasChanges() {
+            return this.changes;
+        }
+
+
+        /**
+         * Number of throttling errors reported by the commands, if detected.
+         */
+        int getThrottled() {
+            return this.throttled;
+        }
+
+
+        /**
+         * Returns the reason the sequence stopped, or null if it completed.
+         */
+        String getFailure() {
+            return this.failure;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+import hudson.Launcher;
+
+import hudson.console.LineTransformationOutputStream;
+
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+
+import java.util.Map;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import java.util.zip.GZIPOutputStream;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Compact console output of a Terraform command. The per-resource progress lines
+ * ("Creating...", "Still creating...", "Creation complete after", "Refreshing state...", ...)
+ * are counted instead of logged, and the counters are logged at most once per interval and
+ * when the command ends. Every other line, including errors and warnings, is logged as is.
+ *
+ * The full output is written gzip-compressed to a file in the working directory, archived as
+ * a build artifact once the root module is done, see {@link #openFullLog} and {@link #archiveFullLogs}.
+ */
+class CompactLogOutputStream extends LineTransformationOutputStream {
+
+    static final String LOG_DIR_NAME = "logs";
+    static final String ARTIFACT_DIR = "terraform-log";
+
+    private static final long INTERVAL = Long.getLong(CompactLogOutputStream.class.getName() + ".interval", 30) * 1000;
+
+    private static final Pattern COLORS = Pattern.compile("\u001B\\[[0-9;]*m");
+    private static final Pattern PROGRESS = Pattern.compile(
+            "^\\S.*?: (Refreshing state|Reading|Creating|Modifying|Destroying|Still [a-z]+)\\.\\.\\.");
+    private static final Pattern COMPLETE = Pattern.compile(
+            "^\\S.*?: (Read|Creation|Modifications|Destruction) complete after");
+
+    private final PrintStream logger;
+    private final OutputStream fullLog;
+    private final String phase;
+    private int refreshed;
+    private int started;
+    private int created;
+    private int updated;
+    private int destroyed;
+    private boolean changed;
+    private long logged = System.currentTimeMillis();
+
+
+    /**
+     * @param fullLog stream receiving every line, closed with this stream
+     */
+    CompactLogOutputStream(PrintStream logger, OutputStream fullLog, String phase) {
+        this.logger = logger;
+        this.fullLog = fullLog;
+        this.phase = phase;
+    }
+
+
+    /**
+     * Opens the compressed full log of the next command of a root module.
+     */
+    static OutputStream openFullLog(FilePath workingDirectory, String phase) throws IOException, InterruptedException {
+        FilePath directory = new FilePath(workingDirectory, LOG_DIR_NAME);
+        directory.mkdirs();
+        FilePath file = new FilePath(directory, String.format("%02d-%s.log.gz", directory.list().size() + 1, phase));
+        return new GZIPOutputStream(file.write(), 64 * 1024);
+    }
+
+
+    /**
+     * Archives the full logs of a root module as build artifacts, under terraform-log/, and
+     * removes them from the working directory.
+     */
+    static void archiveFullLogs(AbstractBuild build, Launcher launcher, BuildListener listener, RootModule module) throws IOException, InterruptedException {
+        FilePath directory = new FilePath(module.getWorkingDirectory(), LOG_DIR_NAME);
+        List<FilePath> files = directory.exists() ? directory.list() : null;
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+
+        String name = module.getName();
+        String path = name.isEmpty() ? ARTIFACT_DIR : ARTIFACT_DIR + "/" + name.replaceAll("[^A-Za-z0-9._-]", "_");
+        Map<String, String> artifacts = new TreeMap<>();
+        for (FilePath file : files) {
+            artifacts.put(path + "/" + file.getName(), file.getName());
+        }
+        build.getArtifactManager().archive(directory, launcher, listener, artifacts);
+        directory.deleteRecursive();
+
+        listener.getLogger().println(Messages.CompactFullLog(path));
+    }
+
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        fullLog.write(b, 0, len);
+
+        String line = COLORS.matcher(new String(b, 0, len, StandardCharsets.UTF_8)).replaceAll("");
+        if (!count(line)) {
+            logger.write(b, 0, len);
+            return;
+        }
+
+        changed = true;
+        long now = System.currentTimeMillis();
+        if (now - logged >= INTERVAL) {
+            logProgress();
+            logged = now;
+        }
+    }
+
+
+    /**
+     * @return true if the line reports the progress of a resource
+     */
+    private boolean count(String line) {
+        Matcher progress = PROGRESS.matcher(line);
+        if (progress.find()) {
+            String event = progress.group(1);
+            if (event.equals("Refreshing state")) {
+                ++refreshed;
+            } else if (!event.equals("Reading") && !event.startsWith("Still")) {
+                ++started;
+            }
+            return true;
+        }
+
+        Matcher complete = COMPLETE.matcher(line);
+        if (complete.find()) {
+            switch (complete.group(1)) {
+                case "Read":
+                    ++refreshed;
+                    break;
+                case "Creation":
+                    ++created;
+                    break;
+                case "Modifications":
+                    ++updated;
+                    break;
+                default:
+                    ++destroyed;
+                    break;
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    private void logProgress() {
+        int done = created + updated + destroyed;
+        logger.println(Messages.CompactProgress(phase, refreshed, created, updated, destroyed, Math.max(0, started - done)));
+        changed = false;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+            if (changed) {
+                logProgress();
+            }
+            logger.flush();
+        } finally {
+            fullLog.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.terraform;
 
 
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 
@@ -12,8 +13,12 @@ public class Configuration {
     private final String inlineConfig;
     private final String terraformWorkspace;
     private final boolean useTerraformWorkspace;
+    private Integer maxParallelModules;
+    private String terraformWorkspaces;
     private Mode mode;
 
+    private static final int DEFAULT_MAX_PARALLEL_MODULES = 4;
+
     public enum Mode {
         INLINE, FILE
     }
@@ -59,6 +64,34 @@ public class Configuration {
     }
 
 
+    /**
+     * Maximum number of root modules run at the same time when the configuration path lists several modules.
+     */
+    public int getMaxParallelModules() {
+        return this.maxParallelModules == null ? DEFAULT_MAX_PARALLEL_MODULES : this.maxParallelModules;
+    }
+
+
+    @DataBoundSetter
+    public void setMaxParallelModules(int maxParallelModules) {
+        this.maxParallelModules = maxParallelModules;
+    }
+
+
+    /**
+     * Terraform workspaces to run the configuration in at the same time, see {@link WorkspaceMatrix}.
+     */
+    public String getTerraformWorkspaces() {
+        return this.terraformWorkspaces == null ? "" : this.terraformWorkspaces;
+    }
+
+
+    @DataBoundSetter
+    public void setTerraformWorkspaces(String terraformWorkspaces) {
+        this.terraformWorkspaces = terraformWorkspaces;
+    }
+
+
     public String getValue() {
         return this.value;
     } 
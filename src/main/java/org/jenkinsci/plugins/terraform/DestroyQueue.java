@@ -0,0 +1,403 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.FilePath;
+import hudson.Launcher;
+
+import hudson.model.Run;
+import hudson.model.Node;
+import hudson.model.Computer;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+
+import hudson.remoting.VirtualChannel;
+
+import hudson.util.ArgumentListBuilder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.FileOutputStream;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+
+
+/**
+ * Runs destroy on build completion in the background, so the build's executor is freed as
+ * soon as the build itself is done.
+ *
+ * When a build completes, its root modules are copied to a snapshot directory on the build
+ * node and the destroy commands are resolved against it: the snapshot holds the configuration
+ * and the local modules it calls, the initialized data directory, the selected workspace, the
+ * variables file and the local state, so later builds reusing the workspace do not interfere.
+ * The rest of the workspace, saved plans and the installed provider binaries are not copied;
+ * the providers are linked from the workspace instead. A bounded pool of worker threads then
+ * runs the commands on the node, with the output going to a log shown by the build's
+ * {@link TerraformDestroyAction}. The snapshot is removed once destroy succeeded and kept
+ * otherwise, without the variables file, so the resources can still be destroyed by hand.
+ *
+ * Queued destroys are kept in memory, and a restart of Jenkins drops them.
+ */
+final class DestroyQueue {
+
+    static final String SNAPSHOT_DIR_NAME = "terraform-plugin-cache/destroy";
+
+    /**
+     * Data directory entries holding the installed providers, and their pre-0.13 location.
+     */
+    private static final String[] PROVIDER_ENTRIES = { "providers", "plugins" };
+    private static final String SNAPSHOT_EXCLUDES = "**/" + RootModule.DATA_DIR_NAME + "/providers/**,**/"
+            + RootModule.DATA_DIR_NAME + "/plugins/**,**/*.tfplan";
+
+    private static final int MAX_CONCURRENT = Integer.getInteger(DestroyQueue.class.getName() + ".maxConcurrent", 2);
+    private static final Logger LOGGER = Logger.getLogger(DestroyQueue.class.getName());
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(1, MAX_CONCURRENT),
+            new NamingThreadFactory(new DaemonThreadFactory(), "TerraformDestroy"));
+    private static final Set<String> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+    private DestroyQueue() {
+    }
+
+
+    /**
+     * Returns the snapshot directory of a build on its node.
+     */
+    static FilePath getSnapshot(Node node, Run<?, ?> run) {
+        FilePath root = node == null ? null : node.getRootPath();
+        if (root == null) {
+            return null;
+        }
+        return new FilePath(root, SNAPSHOT_DIR_NAME + "/" + run.getExternalizableId().replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+
+    /**
+     * Copies what destroy needs from the build workspace to the snapshot: the given
+     * directories, relative to the workspace, and the local modules called by the root
+     * modules among them. Provider binaries are linked rather than copied.
+     */
+    static void snapshot(FilePath workspace, List<String> directories, FilePath snapshot) throws IOException, InterruptedException {
+        snapshot.deleteRecursive();
+        List<String> includes = workspace.act(new ListIncludes(directories));
+        workspace.copyRecursiveTo(Util.join(includes, ","), SNAPSHOT_EXCLUDES, snapshot);
+        snapshot.act(new LinkProviders(workspace.getRemote(), directories));
+    }
+
+
+    /**
+     * Queues the destroy of a build, whose {@link TerraformDestroyAction} is added.
+     */
+    static void submit(Run<?, ?> run, final Request request) {
+        TerraformDestroyAction action = new TerraformDestroyAction(request.snapshot);
+        run.addAction(action);
+
+        final String id = run.getExternalizableId();
+        PENDING.add(id);
+        EXECUTOR.submit(new Runnable() {
+            public void run() {
+                try {
+                    request.run(id);
+                } finally {
+                    PENDING.remove(id);
+                    StateLockManager.releaseDestroy(id);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Returns true if the destroy of the build is queued or running.
+     */
+    static boolean isPending(String run) {
+        return PENDING.contains(run);
+    }
+
+
+    /**
+     * Destroy commands of one build, resolved against its snapshot.
+     */
+    static final class Request {
+
+        private final String node;
+        private final String snapshot;
+        private final String variablesFile;
+        private final String[] envs;
+        private final int maxParallel;
+        private final List<ModuleDestroy> modules = new ArrayList<>();
+
+
+        /**
+         * @param variablesFile variables file in the snapshot, removed if the snapshot is kept
+         */
+        Request(String node, String snapshot, String variablesFile, String[] envs, int maxParallel) {
+            this.node = node;
+            this.snapshot = snapshot;
+            this.variablesFile = variablesFile;
+            this.envs = envs;
+            this.maxParallel = maxParallel;
+        }
+
+
+        /**
+         * @param workspaceDelete command deleting the Terraform workspace after destroy, or null
+         */
+        void addModule(RootModule module, ArgumentListBuilder destroy, ArgumentListBuilder workspaceDelete) {
+            modules.add(new ModuleDestroy(module.getName(), module.getWorkspacePath().getRemote(), module.getDependencies(),
+                    module.getDataDir() == null ? null : module.getDataDir().getRemote(), destroy, workspaceDelete));
+        }
+
+
+        private void run(String id) {
+            long start = System.currentTimeMillis();
+            update(id, TerraformDestroyAction.Status.RUNNING);
+
+            boolean success = false;
+            try (OutputStream log = new FileOutputStream(getLogFile(id), true)) {
+                final BuildListener listener = new StreamBuildListener(log, StandardCharsets.UTF_8);
+                try {
+                    success = destroy(listener);
+                    if (success) {
+                        node().createPath(snapshot).deleteRecursive();
+                    } else {
+                        keep(listener);
+                    }
+                } catch (Exception ex) {
+                    listener.fatalError(ex.toString());
+                    keep(listener);
+                } finally {
+                    listener.getLogger().println(Messages.DestroyFinished(success ? "SUCCESS" : "FAILURE",
+                            Util.getTimeSpanString(System.currentTimeMillis() - start)));
+                }
+            } catch (Exception ex) {
+                LOGGER.warning("Destroy of " + id + " failed: " + ex);
+            }
+
+            update(id, success ? TerraformDestroyAction.Status.SUCCESS : TerraformDestroyAction.Status.FAILURE);
+        }
+
+
+        /**
+         * Keeps the snapshot of a failed destroy, but not the expanded variables, which may
+         * hold secrets.
+         */
+        private void keep(BuildListener listener) {
+            Node target = node();
+            try {
+                if (target != null && variablesFile != null) {
+                    target.createPath(variablesFile).delete();
+                }
+            } catch (IOException | InterruptedException ex) {
+                LOGGER.warning("Could not delete " + variablesFile + ": " + ex);
+            }
+            listener.getLogger().println(Messages.DestroySnapshotKept(snapshot));
+        }
+
+
+        private boolean destroy(final BuildListener listener) throws Exception {
+            Node target = node();
+            final Computer computer = target == null ? null : target.toComputer();
+            if (computer == null || computer.isOffline()) {
+                throw new Exception(Messages.NodeOffline(node));
+            }
+
+            final Launcher launcher = target.createLauncher(listener);
+            final Map<RootModule, ModuleDestroy> byModule = new HashMap<>();
+            List<RootModule> rootModules = new ArrayList<>();
+            for (ModuleDestroy module : modules) {
+                FilePath directory = target.createPath(module.directory);
+                RootModule rootModule = new RootModule(module.name, directory, directory, true, module.dependencies);
+                byModule.put(rootModule, module);
+                rootModules.add(rootModule);
+            }
+
+            RootModuleScheduler scheduler = new RootModuleScheduler(rootModules, maxParallel, true);
+            Map<RootModule, RootModuleScheduler.Status> result = scheduler.run(new RootModuleScheduler.Task() {
+                public void run(RootModule module) throws Exception {
+                    BuildListener moduleListener = byModule.size() == 1 ? listener : new StreamBuildListener(
+                            new ModuleLogOutputStream(listener.getLogger(), module.getName()), StandardCharsets.UTF_8);
+                    try {
+                        ModuleDestroy destroy = byModule.get(module);
+                        String[] moduleEnvs = WorkspaceMatrix.withDataDir(envs, destroy.dataDir);
+                        launch(launcher, module, "destroy", destroy.destroy, moduleEnvs, moduleListener);
+                        if (destroy.workspaceDelete != null) {
+                            launch(launcher, module, "workspace delete", destroy.workspaceDelete, moduleEnvs, moduleListener);
+                        }
+                    } catch (Exception ex) {
+                        moduleListener.fatalError(ex.getMessage());
+                        throw ex;
+                    } finally {
+                        moduleListener.getLogger().flush();
+                    }
+                }
+            });
+
+            boolean success = true;
+            for (Map.Entry<RootModule, RootModuleScheduler.Status> entry : result.entrySet()) {
+                if (byModule.size() > 1) {
+                    listener.getLogger().println(Messages.ModuleResult(entry.getKey().getName(), entry.getValue(),
+                            Util.getTimeSpanString(scheduler.getDuration(entry.getKey()))));
+                }
+                success &= entry.getValue() == RootModuleScheduler.Status.SUCCESS;
+            }
+            return success;
+        }
+
+
+        private void launch(Launcher launcher, RootModule module, String command, ArgumentListBuilder args, String[] envs, BuildListener listener) throws Exception {
+            LOGGER.info("Launching queued Terraform " + command + ": " + args.toString());
+            int result = launcher.launch()
+                    .pwd(module.getWorkspacePath())
+                    .cmds(args)
+                    .stdout(listener.getLogger())
+                    .envs(envs)
+                    .join();
+            if (result != 0) {
+                throw new Exception("Terraform " + command + " failed: " + result);
+            }
+        }
+
+
+        private Node node() {
+            return node.isEmpty() ? Jenkins.getInstance() : Jenkins.getInstance().getNode(node);
+        }
+    }
+
+
+    private static final class ModuleDestroy {
+
+        private final String name;
+        private final String directory;
+        private final List<String> dependencies;
+        private final String dataDir;
+        private final ArgumentListBuilder destroy;
+        private final ArgumentListBuilder workspaceDelete;
+
+
+        ModuleDestroy(String name, String directory, List<String> dependencies, String dataDir, ArgumentListBuilder destroy, ArgumentListBuilder workspaceDelete) {
+            this.name = name;
+            this.directory = directory;
+            this.dependencies = dependencies;
+            this.dataDir = dataDir;
+            this.destroy = destroy;
+            this.workspaceDelete = workspaceDelete;
+        }
+    }
+
+
+    /**
+     * Returns the include patterns of the snapshot: the given directories and the local
+     * modules their module manifests record, as long as they are in the workspace.
+     */
+    private static final class ListIncludes extends MasterToSlaveFileCallable<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> directories;
+
+
+        ListIncludes(List<String> directories) {
+            this.directories = directories;
+        }
+
+
+        public List<String> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            Path root = workspace.toPath().toAbsolutePath().normalize();
+            Set<String> result = new LinkedHashSet<>();
+            for (String directory : directories) {
+                result.add(directory.isEmpty() ? "**" : directory + "/**");
+                Path modulePath = root.resolve(directory);
+                for (String local : ModuleSourceCache.getLocalModuleDirs(modulePath.toFile())) {
+                    Path localPath = modulePath.resolve(local).normalize();
+                    if (localPath.startsWith(root) && !localPath.equals(root)) {
+                        result.add(root.relativize(localPath).toString().replace(File.separatorChar, '/') + "/**");
+                    }
+                }
+            }
+            return new ArrayList<>(result);
+        }
+    }
+
+
+    /**
+     * Links the provider directories of the snapshot to those installed in the workspace,
+     * like the data directories of a {@link WorkspaceMatrix}.
+     */
+    private static final class LinkProviders extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String workspace;
+        private final List<String> directories;
+
+
+        LinkProviders(String workspace, List<String> directories) {
+            this.workspace = workspace;
+            this.directories = directories;
+        }
+
+
+        public Void invoke(File snapshot, VirtualChannel channel) throws IOException, InterruptedException {
+            for (String directory : directories) {
+                for (String name : PROVIDER_ENTRIES) {
+                    String path = (directory.isEmpty() ? "" : directory + "/") + RootModule.DATA_DIR_NAME + "/" + name;
+                    Path source = new File(workspace, path).toPath().toAbsolutePath();
+                    Path link = new File(snapshot, path).toPath();
+                    if (!Files.isDirectory(source) || Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                        continue;
+                    }
+                    Files.createDirectories(link.getParent());
+                    try {
+                        Files.createSymbolicLink(link, source);
+                    } catch (IOException | UnsupportedOperationException ex) {
+                        new FilePath(source.toFile()).copyRecursiveTo(new FilePath(link.toFile()));
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+
+    private static File getLogFile(String id) {
+        Run<?, ?> run = Run.fromExternalizableId(id);
+        TerraformDestroyAction action = run == null ? null : run.getAction(TerraformDestroyAction.class);
+        if (action == null) {
+            throw new IllegalStateException("Build " + id + " not found");
+        }
+        return action.getLogFile();
+    }
+
+
+    private static void update(String id, TerraformDestroyAction.Status status) {
+        Run<?, ?> run = Run.fromExternalizableId(id);
+        TerraformDestroyAction action = run == null ? null : run.getAction(TerraformDestroyAction.class);
+        if (action != null) {
+            action.setStatus(status);
+        }
+    }
+}
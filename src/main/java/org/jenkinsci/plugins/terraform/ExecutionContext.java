@@ -0,0 +1,186 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+
+import hudson.model.Run;
+
+import java.util.List;
+
+
+/**
+ * Everything a build resolves once and shares between all the Terraform commands it runs,
+ * including destroy on build completion: the root modules and working directory, the
+ * executable on the build node, the process environment, the expanded variables and their
+ * file, the expanded workspace name, the parallelism and whether to refresh the state, and
+ * the caches, saved plan and provider log used by the build.
+ *
+ * A context belongs to a single build. It is created by setUp and kept by the environment
+ * it returns, never by the build wrapper, which is shared by the concurrent builds of a job.
+ */
+class ExecutionContext {
+
+    private final FilePath workingDirectory;
+    private final List<RootModule> modules;
+    private final List<RootModule> sharedModules;
+    private final String executable;
+    private final String[] envs;
+    private final String variables;
+    private final FilePath variablesFile;
+    private final String workspace;
+    private final int parallelism;
+    private final boolean refresh;
+    private ProviderPluginCache providerCache;
+    private ModuleSourceCache moduleCache;
+    private FilePath providerLog;
+    private Run<?, ?> savedPlanBuild;
+
+
+    ExecutionContext(FilePath workingDirectory, List<RootModule> modules, List<RootModule> sharedModules, String executable,
+                     String[] envs, String variables, FilePath variablesFile, String workspace, int parallelism, boolean refresh) {
+        this.workingDirectory = workingDirectory;
+        this.modules = modules;
+        this.sharedModules = sharedModules;
+        this.executable = executable;
+        this.envs = envs;
+        this.variables = variables;
+        this.variablesFile = variablesFile;
+        this.workspace = workspace;
+        this.parallelism = parallelism;
+        this.refresh = refresh;
+    }
+
+
+    /**
+     * Directory of the files the plugin writes for the build.
+     */
+    FilePath getWorkingDirectory() {
+        return this.workingDirectory;
+    }
+
+
+    /**
+     * Root modules the commands run for, one per workspace and root module for a workspace matrix.
+     */
+    List<RootModule> getModules() {
+        return this.modules;
+    }
+
+
+    /**
+     * Root modules initialized once for all the runs of a workspace matrix, or null.
+     */
+    List<RootModule> getSharedModules() {
+        return this.sharedModules;
+    }
+
+
+    String getExecutable() {
+        return this.executable;
+    }
+
+
+    /**
+     * Environment of the launched commands, in name=value form.
+     */
+    String[] getEnvs() {
+        return this.envs;
+    }
+
+
+    /**
+     * Resource variables with build macros expanded.
+     */
+    String getVariables() {
+        return this.variables;
+    }
+
+
+    boolean hasVariables() {
+        return !this.variables.trim().isEmpty();
+    }
+
+
+    /**
+     * File holding the expanded resource variables (TF_VAR).
+     */
+    FilePath getVariablesFile() {
+        return this.variablesFile;
+    }
+
+
+    /**
+     * Terraform workspace name with build macros expanded, empty if not configured.
+     */
+    String getWorkspace() {
+        return this.workspace;
+    }
+
+
+    /**
+     * Value of -parallelism for plan, apply and destroy, or 0 to use Terraform's default.
+     */
+    int getParallelism() {
+        return this.parallelism;
+    }
+
+
+    /**
+     * Returns false if plan and apply run with -refresh=false.
+     */
+    boolean isRefresh() {
+        return this.refresh;
+    }
+
+
+    /**
+     * Provider plugin cache of the build node, or null if not used.
+     */
+    ProviderPluginCache getProviderCache() {
+        return this.providerCache;
+    }
+
+
+    void setProviderCache(ProviderPluginCache providerCache) {
+        this.providerCache = providerCache;
+    }
+
+
+    /**
+     * Module cache of the build node, or null if not used.
+     */
+    ModuleSourceCache getModuleCache() {
+        return this.moduleCache;
+    }
+
+
+    void setModuleCache(ModuleSourceCache moduleCache) {
+        this.moduleCache = moduleCache;
+    }
+
+
+    /**
+     * Provider log the API calls are recorded from, or null if not recorded.
+     */
+    FilePath getProviderLog() {
+        return this.providerLog;
+    }
+
+
+    void setProviderLog(FilePath providerLog) {
+        this.providerLog = providerLog;
+    }
+
+
+    /**
+     * Build of the plan job whose saved plans are applied, or null to plan as usual.
+     */
+    Run<?, ?> getSavedPlanBuild() {
+        return this.savedPlanBuild;
+    }
+
+
+    void setSavedPlanBuild(Run<?, ?> savedPlanBuild) {
+        this.savedPlanBuild = savedPlanBuild;
+    }
+}
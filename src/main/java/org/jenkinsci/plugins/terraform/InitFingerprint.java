@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+import hudson.Util;
+
+import hudson.remoting.VirtualChannel;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Fingerprint of everything that influences terraform init and get for a root module:
+ * configuration files, dependency lock file, local module sources and backend configuration,
+ * plus the executable and execution environment.
+ *
+ * The fingerprint is only computed for a healthy data directory, i.e. an existing
+ * .terraform directory whose installed providers still resolve.
+ */
+class InitFingerprint {
+
+    static final String FINGERPRINT_FILE_NAME = "init.fingerprint";
+
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String DURATION = "duration";
+
+    private final FilePath workspacePath;
+    private final FilePath fingerprintFile;
+    private final String extra;
+    private long savedDuration;
+
+
+    InitFingerprint(FilePath workspacePath, FilePath workingDirectory, String extra) {
+        this.workspacePath = workspacePath;
+        this.fingerprintFile = new FilePath(workingDirectory, FINGERPRINT_FILE_NAME);
+        this.extra = extra;
+    }
+
+
+    /**
+     * Returns true if the root module and its data directory match the fingerprint saved by the last init.
+     */
+    boolean isUpToDate() throws IOException, InterruptedException {
+        if (!fingerprintFile.exists()) {
+            return false;
+        }
+
+        Properties saved = new Properties();
+        saved.load(new StringReader(fingerprintFile.readToString()));
+        try {
+            savedDuration = Long.parseLong(saved.getProperty(DURATION, "0"));
+        } catch (NumberFormatException ex) {
+            savedDuration = 0;
+        }
+
+        String current = workspacePath.act(new Digest(extra));
+        return current != null && current.equals(saved.getProperty(FINGERPRINT));
+    }
+
+
+    /**
+     * Duration of the init and get run which produced the saved fingerprint, in milliseconds.
+     */
+    long getSavedDuration() {
+        return this.savedDuration;
+    }
+
+
+    void invalidate() throws IOException, InterruptedException {
+        fingerprintFile.delete();
+    }
+
+
+    void save(long duration) throws IOException, InterruptedException {
+        String current = workspacePath.act(new Digest(extra));
+        if (current == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT, current);
+        properties.setProperty(DURATION, Long.toString(duration));
+        StringWriter writer = new StringWriter();
+        properties.store(writer, null);
+        fingerprintFile.getParent().mkdirs();
+        fingerprintFile.write(writer.toString(), "UTF-8");
+    }
+
+
+    /**
+     * Returns the SHA-256 of the extra settings and of the configuration files, lock file,
+     * local module sources and backend configuration under the root module directory. Runs
+     * on the node holding the directory.
+     */
+    static String digest(File root, String extra) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        digest.update(extra.getBytes(StandardCharsets.UTF_8));
+
+        List<String> files = new ArrayList<>();
+        collect(root, "", files);
+        Collections.sort(files);
+
+        byte[] buffer = new byte[8192];
+        for (String path : files) {
+            digest.update((path + "\0").getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = new DigestInputStream(Files.newInputStream(new File(root, path).toPath()), digest)) {
+                while (in.read(buffer) != -1) {
+                    // digest is updated as the stream is read
+                }
+            }
+        }
+
+        return Util.toHexString(digest.digest());
+    }
+
+
+    private static void collect(File dir, String prefix, List<String> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isDirectory()) {
+                // Skip the data directory, VCS metadata and other hidden directories.
+                if (!name.startsWith(".")) {
+                    collect(child, prefix + name + "/", files);
+                }
+            } else if (isInitInput(name)) {
+                files.add(prefix + name);
+            }
+        }
+    }
+
+
+    private static boolean isInitInput(String name) {
+        return name.endsWith(".tf") || name.endsWith(".tf.json") ||
+               name.endsWith(".hcl") || name.endsWith(".tfbackend");
+    }
+
+
+    private static final class Digest extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String extra;
+
+
+        Digest(String extra) {
+            this.extra = extra;
+        }
+
+
+        public String invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!isHealthy(new File(root, RootModule.DATA_DIR_NAME))) {
+                return null;
+            }
+            return digest(root, extra);
+        }
+
+
+        /**
+         * A data directory is healthy if it exists and none of its installed providers are dangling
+         * links, e.g. into a provider cache entry that has since been evicted.
+         */
+        private static boolean isHealthy(File dataDir) {
+            if (!dataDir.isDirectory()) {
+                return false;
+            }
+            return resolves(new File(dataDir, "providers")) && resolves(new File(dataDir, "plugins"));
+        }
+
+
+        private static boolean resolves(File file) {
+            if (!file.exists()) {
+                return !Files.isSymbolicLink(file.toPath());
+            }
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (!resolves(child)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.console.LineTransformationOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+
+/**
+ * Parses the machine-readable (-json) output of terraform plan, apply and destroy line by line
+ * as it arrives. The human-readable message of each event is written to the build log, and the
+ * start and completion events of each resource are recorded in a {@link TerraformTimingAction}.
+ *
+ * Only one line and the resources still in progress are held in memory, whatever the size of the run.
+ */
+class JsonLogOutputStream extends LineTransformationOutputStream {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final PrintStream logger;
+    private final String module;
+    private final TerraformTimingAction timings;
+    private final Map<String, Long> started = new HashMap<>();
+    private final boolean closeLogger;
+
+
+    JsonLogOutputStream(PrintStream logger, String module, TerraformTimingAction timings) {
+        this(logger, module, timings, false);
+    }
+
+
+    /**
+     * @param closeLogger whether the logger is closed with this stream, e.g. a {@link CompactLogOutputStream}
+     */
+    JsonLogOutputStream(PrintStream logger, String module, TerraformTimingAction timings, boolean closeLogger) {
+        this.logger = logger;
+        this.module = module;
+        this.timings = timings;
+        this.closeLogger = closeLogger;
+    }
+
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        Event event;
+        try {
+            event = parse(b, len);
+        } catch (IOException ex) {
+            event = null;
+        }
+
+        if (event == null) {
+            // Not an event, e.g. a crash report written to stderr.
+            logger.write(b, 0, len);
+            return;
+        }
+
+        if (event.message != null) {
+            logger.println(event.message);
+        }
+        if (event.detail != null && !event.detail.isEmpty()) {
+            logger.println(event.detail);
+        }
+
+        record(event);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (closeLogger) {
+            logger.close();
+        } else {
+            logger.flush();
+        }
+    }
+
+
+    private void record(Event event) {
+        if (event.type == null || event.address == null) {
+            return;
+        }
+
+        String phase;
+        boolean complete;
+        boolean failed = false;
+        switch (event.type) {
+            case "refresh_start":
+                phase = TerraformTimingAction.REFRESH;
+                complete = false;
+                break;
+            case "refresh_complete":
+                phase = TerraformTimingAction.REFRESH;
+                complete = true;
+                break;
+            case "apply_start":
+                phase = TerraformTimingAction.APPLY;
+                complete = false;
+                break;
+            case "apply_errored":
+                failed = true;
+                // fall through
+            case "apply_complete":
+                phase = TerraformTimingAction.APPLY;
+                complete = true;
+                break;
+            default:
+                return;
+        }
+
+        String key = phase + " " + event.address;
+        if (!complete) {
+            started.put(key, event.timestamp);
+            return;
+        }
+
+        Long start = started.remove(key);
+        if (start == null) {
+            start = event.elapsed >= 0 ? event.timestamp - Math.round(event.elapsed * 1000) : event.timestamp;
+        }
+        timings.add(new TerraformTimingAction.ResourceTiming(
+                module, event.address, phase, event.action, start, event.timestamp, failed));
+    }
+
+
+    /**
+     * Extracts the fields used by the plugin from a single JSON event, skipping everything else.
+     *
+     * @return the event or null if the line is not a JSON object
+     */
+    private static Event parse(byte[] b, int len) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(b, 0, len)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            Event event = new Event();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT && field.equals("hook")) {
+                    parseHook(parser, event);
+                } else if (value == JsonToken.START_OBJECT && field.equals("diagnostic")) {
+                    parseDiagnostic(parser, event);
+                } else if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                } else if (field.equals("@message")) {
+                    event.message = parser.getText();
+                } else if (field.equals("@timestamp")) {
+                    event.timestamp = parseTimestamp(parser.getText());
+                } else if (field.equals("type")) {
+                    event.type = parser.getText();
+                }
+            }
+            return event;
+        }
+    }
+
+
+    private static void parseHook(JsonParser parser, Event event) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT && field.equals("resource")) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String resourceField = parser.getCurrentName();
+                    JsonToken resourceValue = parser.nextToken();
+                    if (resourceField.equals("addr") && resourceValue == JsonToken.VALUE_STRING) {
+                        event.address = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+            } else if (field.equals("action")) {
+                event.action = parser.getText();
+            } else if (field.equals("elapsed_seconds") && value.isNumeric()) {
+                event.elapsed = parser.getDoubleValue();
+            }
+        }
+    }
+
+
+    private static void parseDiagnostic(JsonParser parser, Event event) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("detail") && value == JsonToken.VALUE_STRING) {
+                event.detail = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+
+    private static long parseTimestamp(String timestamp) {
+        try {
+            return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return System.currentTimeMillis();
+        }
+    }
+
+
+    private static final class Event {
+        private String type;
+        private String message;
+        private String detail;
+        private String address;
+        private String action;
+        private double elapsed = -1;
+        private long timestamp = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Prefixes each line written by a root module with the module name, so that the
+ * output of modules running at the same time can be told apart in the build log.
+ */
+class ModuleLogOutputStream extends LineTransformationOutputStream {
+
+    private final OutputStream out;
+    private final byte[] prefix;
+
+
+    ModuleLogOutputStream(OutputStream out, String name) {
+        this.out = out;
+        this.prefix = ("[" + name + "] ").getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        // Whole lines are written at once so that concurrent modules never interleave within a line.
+        synchronized (out) {
+            out.write(prefix);
+            out.write(b, 0, len);
+            out.flush();
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        out.flush();
+    }
+}
@@ -0,0 +1,552 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+import hudson.Util;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+
+import hudson.remoting.VirtualChannel;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Per-node cache of remote module sources shared by all builds and jobs running on that node.
+ *
+ * Entries are keyed by the source address and version of a module call as written in the
+ * root module, so only pinned calls are cached: a registry module with an exact version
+ * (not a constraint such as "~> 3.0"), or a source whose ref argument is a full commit hash
+ * (not a branch or tag). Each entry holds the installed module with its nested
+ * modules, plus their records from the Terraform module manifest (.terraform/modules/modules.json).
+ *
+ * Before init and get, cached modules are copied into the working directory and recorded in
+ * its manifest, so Terraform considers them installed and only downloads the others. After
+ * get, newly downloaded pinned modules are added to the cache.
+ */
+class ModuleSourceCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String MODULES_DIR_NAME = "modules";
+
+    private static final String MODULES_PATH = ".terraform/modules/";
+    private static final String MANIFEST_FILE_NAME = "modules.json";
+    private static final String ENTRY_MANIFEST_FILE_NAME = "manifest.json";
+    private static final String ENTRY_MODULE_PREFIX = "module";
+    private static final String MARKER_FILE_NAME = ".terraform-plugin-cache";
+
+    private static final Pattern MODULE_CALL = Pattern.compile("(?m)^\\s*module\\s+\"([^\"]+)\"\\s*\\{");
+    private static final Pattern SOURCE = Pattern.compile("(?m)^\\s*source\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern VERSION = Pattern.compile("(?m)^\\s*version\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern EXACT_VERSION = Pattern.compile("^=?\\s*v?\\d+\\.\\d+\\.\\d+(?:[-+][0-9A-Za-z.+-]*)?$");
+    private static final Pattern COMMIT_REF = Pattern.compile("[?&]ref=(?:[0-9a-fA-F]{40}|[0-9a-fA-F]{64})(?:&|$)");
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final FilePath directory;
+    private final boolean offline;
+
+
+    ModuleSourceCache(FilePath directory, boolean offline) {
+        this.directory = directory;
+        this.offline = offline;
+    }
+
+
+    /**
+     * Returns the cache located under the node root directory, or null if the node is offline.
+     */
+    static ModuleSourceCache forNode(Node node, boolean offline) {
+        FilePath root = node == null ? null : node.getRootPath();
+        if (root == null) {
+            return null;
+        }
+        return new ModuleSourceCache(root.child(ProviderPluginCache.CACHE_DIR_NAME).child(MODULES_DIR_NAME), offline);
+    }
+
+
+    FilePath getDirectory() {
+        return this.directory;
+    }
+
+
+    /**
+     * Returns true if builds must not download modules which are not cached.
+     */
+    boolean isOffline() {
+        return this.offline;
+    }
+
+
+    /**
+     * Installs the cached modules called by the root module before init and get. In offline
+     * mode, fails if a remote module is neither cached nor already installed.
+     *
+     * @param update true if modules are updated, in which case nothing is restored
+     */
+    void restore(FilePath workspacePath, boolean update, TaskListener listener) throws IOException, InterruptedException {
+        Restored restored = workspacePath.act(new Restore(directory.getRemote(), update));
+        if (restored.count > 0) {
+            listener.getLogger().println(Messages.ModuleCacheRestored(restored.count, directory.getRemote()));
+        }
+        if (offline && !restored.missing.isEmpty()) {
+            throw new IOException(Messages.ModuleCacheMissing(Util.join(restored.missing, ", ")));
+        }
+    }
+
+
+    /**
+     * Adds the pinned modules installed by get to the cache.
+     *
+     * @param update true if modules were updated, in which case cached entries are replaced
+     */
+    void store(FilePath workspacePath, boolean update, TaskListener listener) throws IOException, InterruptedException {
+        int stored = workspacePath.act(new Store(directory.getRemote(), update));
+        if (stored > 0) {
+            listener.getLogger().println(Messages.ModuleCacheStored(stored));
+        }
+    }
+
+
+    /**
+     * Returns the module calls of a root module configuration file.
+     */
+    static List<ModuleCall> parseCalls(String config) {
+        List<ModuleCall> result = new ArrayList<>();
+        Matcher call = MODULE_CALL.matcher(config);
+        while (call.find()) {
+            String body = config.substring(call.end(), blockEnd(config, call.end()));
+            Matcher source = SOURCE.matcher(body);
+            if (source.find()) {
+                Matcher version = VERSION.matcher(body);
+                result.add(new ModuleCall(call.group(1), source.group(1), version.find() ? version.group(1) : ""));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Index of the brace closing the block which starts at the given index.
+     */
+    private static int blockEnd(String config, int start) {
+        int depth = 1;
+        boolean quoted = false;
+        for (int i = start; i < config.length(); ++i) {
+            char c = config.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    ++i;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '{') {
+                ++depth;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return config.length();
+    }
+
+
+    private static List<ModuleCall> readCalls(File workspace) throws IOException {
+        List<ModuleCall> result = new ArrayList<>();
+        File[] files = workspace.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".tf")) {
+                    result.addAll(parseCalls(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)));
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the directories of the local modules a root module calls, relative to the root
+     * module, as recorded in its module manifest by init or get.
+     */
+    static List<String> getLocalModuleDirs(File workspacePath) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (Record record : readManifest(new File(workspacePath, MODULES_PATH + MANIFEST_FILE_NAME)).values()) {
+            if (record.dir != null && !record.dir.equals(".") && !record.dir.startsWith(MODULES_PATH)) {
+                result.add(record.dir);
+            }
+        }
+        return result;
+    }
+
+
+    private static Map<String, Record> readManifest(File file) throws IOException {
+        Map<String, Record> result = new LinkedHashMap<>();
+        if (!file.isFile()) {
+            return result;
+        }
+
+        try (JsonParser parser = JSON.createParser(file)) {
+            Record record = null;
+            for (JsonToken token; (token = parser.nextToken()) != null; ) {
+                if (token == JsonToken.START_OBJECT && parser.getParsingContext().getParent().inArray()) {
+                    record = new Record();
+                } else if (token == JsonToken.END_OBJECT && record != null) {
+                    result.put(record.key, record);
+                    record = null;
+                } else if (token == JsonToken.VALUE_STRING && record != null) {
+                    String value = parser.getText();
+                    switch (parser.getCurrentName()) {
+                        case "Key": record.key = value; break;
+                        case "Source": record.source = value; break;
+                        case "Version": record.version = value; break;
+                        case "Dir": record.dir = value; break;
+                        default: break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private static void writeManifest(File file, Iterable<Record> records) throws IOException {
+        file.getParentFile().mkdirs();
+        try (JsonGenerator generator = JSON.createGenerator(file, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("Modules");
+            for (Record record : records) {
+                generator.writeStartObject();
+                generator.writeStringField("Key", record.key);
+                generator.writeStringField("Source", record.source);
+                if (record.version != null) {
+                    generator.writeStringField("Version", record.version);
+                }
+                generator.writeStringField("Dir", record.dir);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+
+    /**
+     * Returns the cache key the installed module directory was restored from or stored as.
+     */
+    private static String readMarker(File moduleDir) throws IOException {
+        File marker = new File(moduleDir, MARKER_FILE_NAME);
+        return marker.isFile() ? new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim() : null;
+    }
+
+
+    private static void writeMarker(File moduleDir, String key) throws IOException {
+        Files.write(new File(moduleDir, MARKER_FILE_NAME).toPath(), key.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private static boolean isCall(String key, String name) {
+        return key.equals(name) || key.startsWith(name + ".");
+    }
+
+
+    private static String normalizeDir(String dir) {
+        String result = dir.replace('\\', '/');
+        return result.startsWith("./") ? result.substring(2) : result;
+    }
+
+
+    static final class ModuleCall implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String source;
+        private final String version;
+
+
+        ModuleCall(String name, String source, String version) {
+            this.name = name;
+            this.source = source;
+            this.version = version;
+        }
+
+
+        String getName() {
+            return this.name;
+        }
+
+
+        /**
+         * Returns true unless the module is a local directory of the configuration.
+         */
+        boolean isRemote() {
+            return !source.startsWith("./") && !source.startsWith("../") && !source.startsWith("/");
+        }
+
+
+        /**
+         * Returns true if the call selects a version which does not change over time: an exact
+         * registry version, or a commit of a version control source. Version constraints and
+         * branch or tag refs may resolve to another version later.
+         */
+        boolean isPinned() {
+            if (!isRemote()) {
+                return false;
+            }
+            return version.isEmpty() ? COMMIT_REF.matcher(source).find() : EXACT_VERSION.matcher(version.trim()).matches();
+        }
+
+
+        String getKey() throws IOException {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                return Util.toHexString(digest.digest((source + "\n" + version).getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+
+    private static final class Record {
+
+        private String key = "";
+        private String source = "";
+        private String version;
+        private String dir = "";
+
+
+        Record() {
+        }
+
+
+        Record(String key, String source, String version, String dir) {
+            this.key = key;
+            this.source = source;
+            this.version = version;
+            this.dir = dir;
+        }
+    }
+
+
+    private static final class Restored implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private int count;
+        private final List<String> missing = new ArrayList<>();
+    }
+
+
+    private static final class Restore extends MasterToSlaveFileCallable<Restored> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String cache;
+        private final boolean update;
+
+
+        Restore(String cache, boolean update) {
+            this.cache = cache;
+            this.update = update;
+        }
+
+
+        public Restored invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            Restored result = new Restored();
+            File modulesDir = new File(workspace, MODULES_PATH);
+            File manifestFile = new File(modulesDir, MANIFEST_FILE_NAME);
+            Map<String, Record> manifest = readManifest(manifestFile);
+
+            for (ModuleCall call : readCalls(workspace)) {
+                if (!call.isRemote()) {
+                    continue;
+                }
+
+                String key = call.getKey();
+                boolean installed = manifest.containsKey(call.name);
+                String marker = installed ? readMarker(new File(modulesDir, call.name)) : null;
+                if (update) {
+                    // Updates always go to the network.
+                    result.missing.add(call.name);
+                } else if (key.equals(marker)) {
+                    continue;
+                } else if (call.isPinned() && new File(new File(cache, key), ENTRY_MANIFEST_FILE_NAME).isFile()) {
+                    restoreEntry(new File(cache, key), call.name, modulesDir, manifest);
+                    writeMarker(new File(modulesDir, call.name), key);
+                    ++result.count;
+                } else if (!installed || marker != null) {
+                    // A marker for another key means the call changed since the module was installed.
+                    result.missing.add(call.name);
+                }
+            }
+
+            if (result.count > 0) {
+                if (!manifest.containsKey("")) {
+                    Map<String, Record> withRoot = new LinkedHashMap<>();
+                    withRoot.put("", new Record("", "", null, "."));
+                    withRoot.putAll(manifest);
+                    manifest = withRoot;
+                }
+                writeManifest(manifestFile, manifest.values());
+            }
+            return result;
+        }
+
+
+        /**
+         * Replaces the installed module and its nested modules with the cached ones.
+         */
+        private static void restoreEntry(File entry, String name, File modulesDir, Map<String, Record> manifest) throws IOException, InterruptedException {
+            List<Record> removed = new ArrayList<>();
+            for (Record record : manifest.values()) {
+                if (isCall(record.key, name)) {
+                    removed.add(record);
+                }
+            }
+            for (Record record : removed) {
+                manifest.remove(record.key);
+                Util.deleteRecursive(new File(modulesDir, record.key));
+            }
+
+            File[] trees = entry.listFiles();
+            if (trees != null) {
+                for (File tree : trees) {
+                    if (tree.isDirectory() && tree.getName().startsWith(ENTRY_MODULE_PREFIX)) {
+                        FilePath target = new FilePath(new File(modulesDir, name + tree.getName().substring(ENTRY_MODULE_PREFIX.length())));
+                        target.mkdirs();
+                        new FilePath(tree).copyRecursiveTo(target);
+                    }
+                }
+            }
+
+            for (Record record : readManifest(new File(entry, ENTRY_MANIFEST_FILE_NAME)).values()) {
+                manifest.put(name + record.key, new Record(name + record.key, record.source, record.version, MODULES_PATH + name + record.dir));
+            }
+        }
+    }
+
+
+    private static final class Store extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String cache;
+        private final boolean update;
+
+
+        Store(String cache, boolean update) {
+            this.cache = cache;
+            this.update = update;
+        }
+
+
+        public Integer invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            File modulesDir = new File(workspace, MODULES_PATH);
+            Map<String, Record> manifest = readManifest(new File(modulesDir, MANIFEST_FILE_NAME));
+            if (manifest.isEmpty()) {
+                return 0;
+            }
+
+            int stored = 0;
+            for (ModuleCall call : readCalls(workspace)) {
+                if (!call.isPinned() || !manifest.containsKey(call.name)) {
+                    continue;
+                }
+
+                String key = call.getKey();
+                File installed = new File(modulesDir, call.name);
+                File entry = new File(cache, key);
+                boolean cached = new File(entry, ENTRY_MANIFEST_FILE_NAME).isFile();
+                if (cached && (!update || key.equals(readMarker(installed)))) {
+                    continue;
+                }
+
+                if (storeEntry(entry, call.name, modulesDir, manifest)) {
+                    writeMarker(installed, key);
+                    ++stored;
+                }
+            }
+            return stored;
+        }
+
+
+        /**
+         * Copies the installed module and its nested modules into a new cache entry, which
+         * then atomically replaces the previous one. Returns false if the module is not
+         * installed in the expected layout.
+         */
+        private static boolean storeEntry(File entry, String name, File modulesDir, Map<String, Record> manifest) throws IOException, InterruptedException {
+            File cache = entry.getParentFile();
+            cache.mkdirs();
+            File staging = Files.createTempDirectory(cache.toPath(), entry.getName() + ".").toFile();
+            try {
+                List<Record> records = new ArrayList<>();
+                for (Record record : manifest.values()) {
+                    if (!isCall(record.key, name)) {
+                        continue;
+                    }
+
+                    String dir = normalizeDir(record.dir);
+                    if (!dir.startsWith(MODULES_PATH + name)) {
+                        return false;
+                    }
+                    String relativeKey = record.key.substring(name.length());
+                    String relativeDir = dir.substring(MODULES_PATH.length() + name.length());
+                    records.add(new Record(relativeKey, record.source, record.version, relativeDir));
+
+                    // Local nested modules live inside the directory of the module calling them.
+                    if (relativeDir.equals(relativeKey)) {
+                        FilePath tree = new FilePath(new File(staging, ENTRY_MODULE_PREFIX + relativeKey));
+                        tree.mkdirs();
+                        new FilePath(new File(modulesDir, record.key)).copyRecursiveTo(tree);
+                    }
+                }
+                writeManifest(new File(staging, ENTRY_MANIFEST_FILE_NAME), records);
+
+                File previous = new File(cache, entry.getName() + ".old");
+                if (entry.exists()) {
+                    Util.deleteRecursive(previous);
+                    Files.move(entry.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                try {
+                    Files.move(staging.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException ex) {
+                    // Another build stored the same module meanwhile.
+                    return new File(entry, ENTRY_MANIFEST_FILE_NAME).isFile();
+                }
+                Util.deleteRecursive(previous);
+                return true;
+            } finally {
+                Util.deleteRecursive(staging);
+            }
+        }
+    }
+}
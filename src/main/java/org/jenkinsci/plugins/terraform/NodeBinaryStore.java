@@ -0,0 +1,235 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.FilePath;
+
+import hudson.model.Node;
+
+import hudson.remoting.VirtualChannel;
+import hudson.remoting.RemoteOutputStream;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.FileOutputStream;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.DirectoryStream;
+
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+
+/**
+ * Content-addressed store of unpacked Terraform archives on a node, keyed by the SHA-256 of
+ * the archive. Installations of the same release share one entry, and each installation home
+ * is a symbolic link to its entry (or, where links are not available, a directory of hard
+ * links to the entry's files).
+ *
+ * Archives are received next to the store as partial files which survive an interrupted
+ * transfer, so that the next install resumes where the last one stopped.
+ */
+class NodeBinaryStore {
+
+    static final String STORE_DIR_NAME = "binaries";
+
+    private static final String PARTIAL_SUFFIX = ".zip.part";
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final String nodeName;
+    private final FilePath root;
+
+
+    NodeBinaryStore(String nodeName, FilePath root) {
+        this.nodeName = nodeName;
+        this.root = root;
+    }
+
+
+    /**
+     * Returns the store under the node root directory, or null if the node is offline.
+     */
+    static NodeBinaryStore forNode(Node node) {
+        FilePath nodeRoot = node == null ? null : node.getRootPath();
+        if (nodeRoot == null) {
+            return null;
+        }
+        return new NodeBinaryStore(node.getNodeName(), nodeRoot.child(ProviderPluginCache.CACHE_DIR_NAME).child(STORE_DIR_NAME));
+    }
+
+
+    FilePath getEntry(String checksum) {
+        return root.child(checksum);
+    }
+
+
+    /**
+     * Returns the object to synchronize on while receiving or unpacking the given archive.
+     */
+    Object lockFor(String checksum) {
+        return LOCKS.computeIfAbsent(nodeName + ":" + checksum, k -> new Object());
+    }
+
+
+    /**
+     * Returns true if the entry of the given archive is completely unpacked.
+     */
+    boolean contains(String checksum) throws IOException, InterruptedException {
+        return getEntry(checksum).child(TerraformControllerInstaller.INSTALLED_FILE_NAME).exists();
+    }
+
+
+    /**
+     * Returns the number of bytes of the archive already received by the node.
+     */
+    long getReceived(String checksum) throws IOException, InterruptedException {
+        FilePath partial = root.child(checksum + PARTIAL_SUFFIX);
+        return partial.exists() ? partial.length() : 0;
+    }
+
+
+    /**
+     * Opens a stream appending to the partial archive on the node.
+     */
+    OutputStream append(String checksum) throws IOException, InterruptedException {
+        root.mkdirs();
+        return root.child(checksum + PARTIAL_SUFFIX).act(new Append());
+    }
+
+
+    /**
+     * Verifies the received archive and unpacks it into its entry.
+     */
+    void unpack(String checksum) throws IOException, InterruptedException {
+        root.act(new Unpack(checksum));
+    }
+
+
+    /**
+     * Points the installation home at the entry of the given archive.
+     */
+    void link(String checksum, FilePath home) throws IOException, InterruptedException {
+        home.act(new Link(getEntry(checksum).getRemote()));
+    }
+
+
+    private static final class Append extends MasterToSlaveFileCallable<OutputStream> {
+
+        private static final long serialVersionUID = 1L;
+
+
+        public OutputStream invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+            return new RemoteOutputStream(new FileOutputStream(file, true));
+        }
+    }
+
+
+    private static final class Unpack extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String checksum;
+
+
+        Unpack(String checksum) {
+            this.checksum = checksum;
+        }
+
+
+        public Void invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            File partial = new File(root, checksum + PARTIAL_SUFFIX);
+            String actual = TerraformArchiveStore.sha256(partial);
+            if (!checksum.equalsIgnoreCase(actual)) {
+                // Corrupt rather than incomplete, start over next time.
+                Files.deleteIfExists(partial.toPath());
+                throw new IOException(Messages.ArchiveChecksumMismatch(partial.getName(), checksum, actual));
+            }
+
+            File entry = new File(root, checksum);
+            File unpacking = new File(root, checksum + ".tmp");
+            Util.deleteRecursive(unpacking);
+            unzip(partial, unpacking);
+
+            Util.deleteRecursive(entry);
+            Files.move(unpacking.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.write(new File(entry, TerraformControllerInstaller.INSTALLED_FILE_NAME).toPath(), checksum.getBytes(StandardCharsets.UTF_8));
+            Files.delete(partial.toPath());
+            return null;
+        }
+
+
+        private static void unzip(File archive, File dir) throws IOException {
+            Path base = dir.toPath().toAbsolutePath().normalize();
+            try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive.toPath()))) {
+                for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                    Path target = base.resolve(entry.getName()).normalize();
+                    if (!target.startsWith(base)) {
+                        throw new IOException("Archive entry outside of the target directory: " + entry.getName());
+                    }
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(target);
+                    } else {
+                        Files.createDirectories(target.getParent());
+                        Files.copy(in, target);
+                        target.toFile().setExecutable(true, false);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static final class Link extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String entry;
+
+
+        Link(String entry) {
+            this.entry = entry;
+        }
+
+
+        public Void invoke(File home, VirtualChannel channel) throws IOException, InterruptedException {
+            Path link = home.toPath();
+            Path target = new File(entry).toPath();
+
+            if (Files.isSymbolicLink(link)) {
+                Files.delete(link);
+            } else {
+                Util.deleteRecursive(home);
+            }
+            Files.createDirectories(link.getParent());
+
+            try {
+                Files.createSymbolicLink(link, target);
+                return null;
+            } catch (IOException | UnsupportedOperationException ex) {
+                // e.g. Windows without the symbolic link privilege
+            }
+
+            Files.createDirectories(link);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(target)) {
+                for (Path file : files) {
+                    Path copy = link.resolve(file.getFileName());
+                    try {
+                        Files.createLink(copy, file);
+                    } catch (IOException | UnsupportedOperationException ex) {
+                        Files.copy(file, copy);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Launcher;
+import hudson.Proc;
+
+import hudson.model.TaskListener;
+
+import hudson.util.ArgumentListBuilder;
+
+import jenkins.security.MasterToSlaveCallable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.util.Map;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+
+/**
+ * Summary of the changes of a saved plan: the number of resources to create, update,
+ * replace and delete per module and resource type, and a bounded list of changed addresses,
+ * destructive changes first.
+ *
+ * The summary is made on the build node by streaming the output of <code>terraform show -json</code>
+ * through a Jackson parser: only the address, module, type and actions of each resource change
+ * are read, everything else (values, prior state, configuration) is skipped. Memory use does
+ * not depend on the size of the plan, and only the summary is sent to the controller.
+ */
+public class PlanSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int MAX_ADDRESSES = Integer.getInteger(PlanSummary.class.getName() + ".maxAddresses", 100);
+
+    /**
+     * Resource change actions, from the least to the most destructive.
+     */
+    public enum Action {
+        CREATE, UPDATE, REPLACE, DELETE
+    }
+
+    private final String module;
+    private final int maxAddresses;
+    private final Map<String, ResourceCount> counts = new TreeMap<>();
+    private final int[] totals = new int[Action.values().length];
+    private List<Change> changes;
+    private transient PriorityQueue<Change> retained;
+    private transient int sequence;
+
+
+    /**
+     * @param module root module the plan was made for, empty for the build's only root module
+     */
+    PlanSummary(String module, int maxAddresses) {
+        this.module = module;
+        this.maxAddresses = maxAddresses;
+        // The least destructive, then the latest change is dropped first once the list is full.
+        this.retained = new PriorityQueue<>(Math.max(1, maxAddresses + 1), new Comparator<Change>() {
+            public int compare(Change a, Change b) {
+                int result = a.action.compareTo(b.action);
+                return result != 0 ? result : Integer.compare(b.sequence, a.sequence);
+            }
+        });
+    }
+
+
+    /**
+     * Reads the output of <code>terraform show -json</code> for a plan, one resource change at a time.
+     */
+    static PlanSummary parse(String module, InputStream in, int maxAddresses) throws IOException {
+        PlanSummary summary = new PlanSummary(module, maxAddresses);
+        try (JsonParser parser = new JsonFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException(Messages.PlanSummaryInvalid());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_ARRAY && name.equals("resource_changes")) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readResourceChange(parser, summary);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+
+    private static void readResourceChange(JsonParser parser, PlanSummary summary) throws IOException {
+        String address = "";
+        String moduleAddress = "";
+        String type = "";
+        List<String> actions = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("address")) {
+                address = parser.getText();
+            } else if (name.equals("module_address")) {
+                moduleAddress = parser.getText();
+            } else if (name.equals("type")) {
+                type = parser.getText();
+            } else if (name.equals("change") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && field.equals("actions")) {
+                        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                            actions.add(parser.getText());
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        Action action = toAction(actions);
+        if (action != null) {
+            summary.add(moduleAddress, type, address, action);
+        }
+    }
+
+
+    /**
+     * Returns the action of a resource change, or null for no-op, read and forget.
+     */
+    static Action toAction(List<String> actions) {
+        if (actions.contains("delete")) {
+            return actions.contains("create") ? Action.REPLACE : Action.DELETE;
+        }
+        if (actions.contains("create")) {
+            return Action.CREATE;
+        }
+        if (actions.contains("update")) {
+            return Action.UPDATE;
+        }
+        return null;
+    }
+
+
+    void add(String moduleAddress, String type, String address, Action action) {
+        String key = moduleAddress + " " + type;
+        ResourceCount count = counts.get(key);
+        if (count == null) {
+            count = new ResourceCount(moduleAddress, type);
+            counts.put(key, count);
+        }
+        ++count.counts[action.ordinal()];
+        ++totals[action.ordinal()];
+
+        if (maxAddresses > 0) {
+            retained.add(new Change(address, action, sequence++));
+            if (retained.size() > maxAddresses) {
+                retained.poll();
+            }
+        }
+    }
+
+
+    private void finish() {
+        changes = new ArrayList<>(retained);
+        Collections.sort(changes, Collections.reverseOrder(retained.comparator()));
+        retained = null;
+    }
+
+
+    public String getModule() {
+        return this.module;
+    }
+
+
+    public int getTotal(Action action) {
+        return this.totals[action.ordinal()];
+    }
+
+
+    public int getTotal() {
+        int total = 0;
+        for (int count : totals) {
+            total += count;
+        }
+        return total;
+    }
+
+
+    /**
+     * Changes per module and resource type, sorted by module address and type.
+     */
+    public List<ResourceCount> getCounts() {
+        return new ArrayList<>(counts.values());
+    }
+
+
+    /**
+     * The retained changed addresses, the most destructive first.
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+
+    /**
+     * Number of changed addresses left out of {@link #getChanges()}.
+     */
+    public int getOmitted() {
+        return getTotal() - changes.size();
+    }
+
+
+    public static class ResourceCount implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String module;
+        private final String type;
+        private final int[] counts = new int[Action.values().length];
+
+
+        ResourceCount(String module, String type) {
+            this.module = module;
+            this.type = type;
+        }
+
+
+        /**
+         * Address of the module holding the resources, empty for the root module.
+         */
+        public String getModule() {
+            return this.module;
+        }
+
+
+        public String getType() {
+            return this.type;
+        }
+
+
+        public int getCount(Action action) {
+            return this.counts[action.ordinal()];
+        }
+    }
+
+
+    public static class Change implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String address;
+        private final Action action;
+        private final int sequence;
+
+
+        Change(String address, Action action, int sequence) {
+            this.address = address;
+            this.action = action;
+            this.sequence = sequence;
+        }
+
+
+        public String getAddress() {
+            return this.address;
+        }
+
+
+        public Action getAction() {
+            return this.action;
+        }
+    }
+
+
+    /**
+     * Runs <code>terraform show -json</code> on the build node and summarizes its output as it
+     * is produced, without storing it.
+     */
+    static final class Summarize extends MasterToSlaveCallable<Summarize.Result, Exception> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TaskListener listener;
+        private final String module;
+        private final String workspacePath;
+        private final String[] envs;
+        private final ArgumentListBuilder args;
+        private final int maxAddresses = MAX_ADDRESSES;
+
+
+        Summarize(TaskListener listener, RootModule module, String[] envs, ArgumentListBuilder args) {
+            this.listener = listener;
+            this.module = module.getName();
+            this.workspacePath = module.getWorkspacePath().getRemote();
+            this.envs = envs;
+            this.args = args;
+        }
+
+
+        public Result call() throws Exception {
+            long start = System.currentTimeMillis();
+            Proc proc = new Launcher.LocalLauncher(listener).launch()
+                    .pwd(workspacePath)
+                    .cmds(args)
+                    .envs(envs)
+                    .stderr(listener.getLogger())
+                    .readStdout()
+                    .start();
+            long startOverhead = System.currentTimeMillis() - start;
+
+            PlanSummary summary;
+            try (InputStream in = proc.getStdout()) {
+                summary = parse(module, in, maxAddresses);
+            } catch (IOException ex) {
+                proc.kill();
+                throw ex;
+            }
+
+            int exitCode = proc.join();
+            return new Result(summary, System.currentTimeMillis() - start, startOverhead, exitCode);
+        }
+
+
+        /**
+         * Summary of the plan, with the timing of the command for the metrics of the build.
+         */
+        static final class Result implements Serializable {
+
+            private static final long serialVersionUID = 1L;
+
+            private final PlanSummary summary;
+            private final long duration;
+            private final long startOverhead;
+            private final int exitCode;
+
+
+            Result(PlanSummary summary, long duration, long startOverhead, int exitCode) {
+                this.summary = summary;
+                this.duration = duration;
+                this.startOverhead = startOverhead;
+                this.exitCode = exitCode;
+            }
+
+
+            PlanSummary getSummary() {
+                return this.summary;
+            }
+
+
+            long getDuration() {
+                return this.duration;
+            }
+
+
+            long getStartOverhead() {
+                return this.startOverhead;
+            }
+
+
+            int getExitCode() {
+                return this.exitCode;
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+
+import hudson.remoting.VirtualChannel;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import java.util.zip.GZIPOutputStream;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+
+/**
+ * Provider API calls of a build, read from the provider log Terraform writes to TF_LOG_PATH:
+ * the number of requests, the requests answered with 429 or a 5xx status (which the provider
+ * SDKs retry) and a latency histogram per provider and endpoint.
+ *
+ * Providers log each HTTP request and response at debug level as "HTTP Request Sent" and
+ * "HTTP Response Received" lines with key=value fields. The endpoint is the service and
+ * operation when the provider logs them (e.g. the AWS provider), otherwise the method, host
+ * and path of the request with identifiers replaced. The latency is the duration logged with
+ * the response, or the time between the request and response lines of the same transaction.
+ *
+ * The log is read line by line on the node holding it. Only the requests still waiting for
+ * their response and the fixed size histograms are held in memory, however long the log.
+ */
+public class ProviderApiStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String LOG_FILE_NAME = "terraform-provider.log";
+
+    private static final int MAX_ENDPOINTS = 500;
+    private static final int MAX_IN_FLIGHT = 10000;
+    private static final String OTHER = "(other)";
+
+    /**
+     * Upper bounds of the latency buckets in milliseconds, ten per decade from 1 ms to 1000 s.
+     */
+    private static final long[] BOUNDS = new long[61];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            BOUNDS[i] = Math.round(Math.pow(10, i / 10.0));
+        }
+    }
+
+    private static final Pattern LINE = Pattern.compile(
+            "^(\\S+) \\[[A-Z]+\\]\\s+provider\\.(?:terraform-provider-)?([^:_\\s]+)[^:]*: HTTP (Request Sent|Response Received)(.*)$");
+    private static final Pattern FIELD = Pattern.compile("([\\w.@-]+)=(\"(?:[^\"\\\\]|\\\\.)*\"|\\S*)");
+    private static final Pattern ID_SEGMENT = Pattern.compile("^(?=.*\\d)[\\w.:-]{6,}$|^\\d+$");
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXX");
+
+    private final Map<String, Endpoint> endpoints = new TreeMap<>();
+    private transient Map<String, Request> inFlight;
+
+
+    ProviderApiStats() {
+        this.inFlight = new LinkedHashMap<String, Request>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Request> eldest) {
+                // Requests which never got a response, e.g. the provider was stopped.
+                return size() > MAX_IN_FLIGHT;
+            }
+        };
+    }
+
+
+    /**
+     * Reads a provider log.
+     */
+    static ProviderApiStats parse(Reader log) throws IOException {
+        ProviderApiStats stats = new ProviderApiStats();
+        BufferedReader reader = new BufferedReader(log);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.contains(": HTTP ")) {
+                stats.read(line);
+            }
+        }
+        stats.inFlight = null;
+        return stats;
+    }
+
+
+    private void read(String line) {
+        Matcher matcher = LINE.matcher(line);
+        if (!matcher.matches()) {
+            return;
+        }
+
+        String provider = matcher.group(2);
+        boolean response = matcher.group(3).startsWith("Response");
+        Map<String, String> fields = new HashMap<>();
+        Matcher field = FIELD.matcher(matcher.group(4));
+        while (field.find()) {
+            String value = field.group(2);
+            fields.put(field.group(1), value.startsWith("\"") ? value.substring(1, value.length() - 1) : value);
+        }
+
+        String transaction = fields.get("tf_http_trans_id");
+        String endpoint = getEndpoint(fields);
+        long timestamp = parseTimestamp(matcher.group(1));
+
+        if (!response) {
+            if (transaction != null && endpoint != null) {
+                inFlight.put(transaction, new Request(endpoint, timestamp));
+            }
+            return;
+        }
+
+        Request request = transaction == null ? null : inFlight.remove(transaction);
+        if (endpoint == null) {
+            if (request == null) {
+                return;
+            }
+            endpoint = request.endpoint;
+        }
+
+        long duration = -1;
+        String logged = fields.get("http.duration");
+        if (logged != null) {
+            try {
+                duration = Long.parseLong(logged);
+            } catch (NumberFormatException ex) {
+                duration = -1;
+            }
+        } else if (request != null && request.timestamp >= 0 && timestamp >= 0) {
+            duration = timestamp - request.timestamp;
+        }
+
+        String status = first(fields, "http.status_code", "tf_http_res_status_code");
+        boolean retried = status != null && (status.equals("429") || status.startsWith("5"));
+        record(provider, endpoint, duration, retried);
+    }
+
+
+    /**
+     * Returns the endpoint of a request or response line, or null if the line does not tell.
+     */
+    private static String getEndpoint(Map<String, String> fields) {
+        String service = first(fields, "rpc.service", "aws.service");
+        String operation = first(fields, "rpc.method", "aws.operation");
+        if (service != null && operation != null) {
+            return service + "." + operation;
+        }
+
+        String method = first(fields, "http.method", "tf_http_req_method");
+        String uri = first(fields, "http.url", "tf_http_req_uri");
+        if (method == null || uri == null) {
+            return null;
+        }
+
+        String host = first(fields, "net.peer.name", "Host");
+        return method + " " + normalize(host == null ? uri : host + uri);
+    }
+
+
+    /**
+     * Drops the scheme and query of a URL and replaces the path segments looking like
+     * identifiers, so requests for different resources share an endpoint.
+     */
+    static String normalize(String url) {
+        String path = url.replaceFirst("^[a-z]+://", "");
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        String[] segments = path.split("/", -1);
+        StringBuilder result = new StringBuilder(segments[0]);
+        for (int i = 1; i < segments.length; ++i) {
+            result.append('/').append(ID_SEGMENT.matcher(segments[i]).matches() ? "{id}" : segments[i]);
+        }
+        return result.toString();
+    }
+
+
+    private void record(String provider, String name, long duration, boolean retried) {
+        String key = provider + " " + name;
+        Endpoint endpoint = endpoints.get(key);
+        if (endpoint == null) {
+            if (endpoints.size() >= MAX_ENDPOINTS) {
+                name = OTHER;
+                key = provider + " " + name;
+                endpoint = endpoints.get(key);
+            }
+            if (endpoint == null) {
+                endpoint = new Endpoint(provider, name);
+                endpoints.put(key, endpoint);
+            }
+        }
+        endpoint.add(duration, retried);
+    }
+
+
+    private static String first(Map<String, String> fields, String name, String alternative) {
+        String value = fields.get(name);
+        return value != null ? value : fields.get(alternative);
+    }
+
+
+    private static long parseTimestamp(String timestamp) {
+        try {
+            return OffsetDateTime.parse(timestamp, TIMESTAMP).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Endpoints sorted by provider and name.
+     */
+    public List<Endpoint> getEndpoints() {
+        return new ArrayList<>(endpoints.values());
+    }
+
+
+    public int getRequests() {
+        int requests = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            requests += endpoint.getRequests();
+        }
+        return requests;
+    }
+
+
+    public static class Endpoint implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String provider;
+        private final String name;
+        private final int[] histogram = new int[BOUNDS.length + 1];
+        private int requests;
+        private int retried;
+        private int timed;
+        private long total;
+        private long max;
+
+
+        Endpoint(String provider, String name) {
+            this.provider = provider;
+            this.name = name;
+        }
+
+
+        private void add(long duration, boolean retry) {
+            ++requests;
+            if (retry) {
+                ++retried;
+            }
+            if (duration < 0) {
+                return;
+            }
+
+            int bucket = 0;
+            while (bucket < BOUNDS.length && duration > BOUNDS[bucket]) {
+                ++bucket;
+            }
+            ++histogram[bucket];
+            ++timed;
+            total += duration;
+            max = Math.max(max, duration);
+        }
+
+
+        public String getProvider() {
+            return this.provider;
+        }
+
+
+        public String getName() {
+            return this.name;
+        }
+
+
+        public int getRequests() {
+            return this.requests;
+        }
+
+
+        /**
+         * Requests answered with 429 or a 5xx status, which the provider retries.
+         */
+        public int getRetried() {
+            return this.retried;
+        }
+
+
+        /**
+         * Returns the latency under which the given fraction of the timed requests completed,
+         * as the upper bound of its histogram bucket, in milliseconds, or -1 if none was timed.
+         */
+        public long getPercentile(double fraction) {
+            if (timed == 0) {
+                return -1;
+            }
+            long rank = (long) Math.ceil(fraction * timed);
+            long count = 0;
+            for (int i = 0; i < histogram.length; ++i) {
+                count += histogram[i];
+                if (count >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+                }
+            }
+            return max;
+        }
+
+
+        public long getMax() {
+            return this.max;
+        }
+
+
+        public long getTotal() {
+            return this.total;
+        }
+
+
+        public String getPercentileString(double fraction) {
+            long percentile = getPercentile(fraction);
+            return percentile < 0 ? "" : Util.getTimeSpanString(percentile);
+        }
+    }
+
+
+    private static final class Request {
+
+        private final String endpoint;
+        private final long timestamp;
+
+
+        Request(String endpoint, long timestamp) {
+            this.endpoint = endpoint;
+            this.timestamp = timestamp;
+        }
+    }
+
+
+    /**
+     * Reads the provider log on the node holding it, and optionally compresses a copy of it.
+     */
+    static final class Collect extends MasterToSlaveFileCallable<ProviderApiStats> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String copy;
+
+
+        /**
+         * @param copy path of the compressed copy of the log to write, or null
+         */
+        Collect(String copy) {
+            this.copy = copy;
+        }
+
+
+        public ProviderApiStats invoke(File log, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!log.isFile()) {
+                return null;
+            }
+
+            ProviderApiStats stats;
+            try (Reader reader = new InputStreamReader(new FileInputStream(log), StandardCharsets.UTF_8)) {
+                stats = parse(reader);
+            }
+
+            if (copy != null) {
+                try (InputStream in = new FileInputStream(log);
+                     OutputStream out = new GZIPOutputStream(new FileOutputStream(copy), 64 * 1024)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, len);
+                    }
+                }
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.ProxyConfiguration;
+
+import jenkins.model.Jenkins;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.HashSet;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.FileOutputStream;
+
+import java.net.URL;
+
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Terraform provider packages kept on the controller and served to the nodes by
+ * {@link TerraformProviderMirror}.
+ *
+ * The store uses the packed layout written by <code>terraform providers mirror</code>
+ * (HOSTNAME/NAMESPACE/TYPE/terraform-provider-TYPE_VERSION_OS_ARCH.zip), so a mirror made
+ * with that command can be imported by copying it into the store directory. When enabled,
+ * providers of the allowed upstream registries are also fetched on demand, verified against
+ * the checksum published by the registry, and kept for the next requests. The oldest
+ * packages are evicted once the store grows past its quota.
+ */
+class ProviderMirrorStore {
+
+    static final String STORE_DIR_NAME = "terraform-plugin/providers";
+
+    private static final String PROPERTY_PREFIX = ProviderMirrorStore.class.getName();
+    private static final String UPSTREAM_VERSIONS_FILE_NAME = ".upstream-versions.json";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final long UPSTREAM_TTL = TimeUnit.HOURS.toMillis(1);
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+    private static final Pattern ARCHIVE = Pattern.compile("terraform-provider-([^_]+)_([^_]+)_([^_]+)_([^_]+)\\.zip");
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Object[] LOCKS = new Object[64];
+    private static final Map<String, String> HASHES = new ConcurrentHashMap<>();
+    private static final Map<String, URL> PROVIDER_SERVICES = new ConcurrentHashMap<>();
+    private static final Object EVICTION_LOCK = new Object();
+    private static final Logger LOGGER = Logger.getLogger(ProviderMirrorStore.class.getName());
+
+    static {
+        for (int i = 0; i < LOCKS.length; ++i) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final File root;
+    private final Set<String> upstreamHosts;
+    private final long quota;
+
+
+    ProviderMirrorStore(File root, Set<String> upstreamHosts, long quotaMegabytes) {
+        this.root = root;
+        this.upstreamHosts = upstreamHosts;
+        this.quota = quotaMegabytes * MEGABYTE;
+    }
+
+
+    /**
+     * Returns the store of the controller. Its directory and the registries providers are
+     * fetched from can be changed with system properties; with no upstream registry, or
+     * if fetching is not enabled, only the packages already in the store are served.
+     *
+     * @param fetch whether to fetch providers from the upstream registries
+     * @param quotaMegabytes maximum size of the store, or 0 for no limit
+     */
+    static ProviderMirrorStore get(boolean fetch, long quotaMegabytes) {
+        String directory = System.getProperty(PROPERTY_PREFIX + ".directory");
+        File root = directory == null ? new File(Jenkins.getInstance().getRootDir(), STORE_DIR_NAME) : new File(directory);
+
+        Set<String> hosts = new HashSet<>();
+        if (fetch) {
+            for (String host : System.getProperty(PROPERTY_PREFIX + ".upstreamHosts", "registry.terraform.io").split(",")) {
+                if (!host.trim().isEmpty()) {
+                    hosts.add(host.trim().toLowerCase());
+                }
+            }
+        }
+        return new ProviderMirrorStore(root, hosts, quotaMegabytes);
+    }
+
+
+    /**
+     * Returns true if the name is a single, safe path segment.
+     */
+    static boolean isValidName(String name) {
+        return NAME.matcher(name).matches() && !name.contains("..");
+    }
+
+
+    static String archiveName(String type, String version, String platform) {
+        return "terraform-provider-" + type + "_" + version + "_" + platform + ".zip";
+    }
+
+
+    /**
+     * Returns the available versions of a provider, in the mirror protocol's index.json format.
+     */
+    ObjectNode getIndex(String host, String namespace, String type) {
+        ObjectNode versions = JSON.createObjectNode();
+        for (String version : getLocalArchives(host, namespace, type).keySet()) {
+            versions.putObject(version);
+        }
+        for (JsonNode version : getUpstreamVersions(host, namespace, type).path("versions")) {
+            versions.putObject(version.path("version").asText());
+        }
+
+        ObjectNode result = JSON.createObjectNode();
+        result.set("versions", versions);
+        return result;
+    }
+
+
+    /**
+     * Returns the packages of a provider version, in the mirror protocol's VERSION.json format,
+     * or null if the version is unknown.
+     */
+    ObjectNode getVersion(String host, String namespace, String type, String version) throws IOException {
+        ObjectNode archives = JSON.createObjectNode();
+
+        for (JsonNode upstream : getUpstreamVersions(host, namespace, type).path("versions")) {
+            if (upstream.path("version").asText().equals(version)) {
+                for (JsonNode platform : upstream.path("platforms")) {
+                    String name = platform.path("os").asText() + "_" + platform.path("arch").asText();
+                    archives.putObject(name).put("url", archiveName(type, version, name));
+                }
+            }
+        }
+
+        Map<String, File> local = getLocalArchives(host, namespace, type).get(version);
+        if (local != null) {
+            for (Map.Entry<String, File> archive : local.entrySet()) {
+                ObjectNode entry = archives.putObject(archive.getKey());
+                entry.put("url", archive.getValue().getName());
+                entry.putArray("hashes").add("zh:" + hashOf(archive.getValue()));
+            }
+        }
+
+        if (archives.size() == 0) {
+            return null;
+        }
+        ObjectNode result = JSON.createObjectNode();
+        result.set("archives", archives);
+        return result;
+    }
+
+
+    /**
+     * Returns the package with the given file name, fetching it from the upstream registry
+     * first if needed, or null if it is not available.
+     */
+    File getArchive(String host, String namespace, String type, String name) throws IOException {
+        Matcher matcher = ARCHIVE.matcher(name);
+        if (!matcher.matches() || !matcher.group(1).equals(type)) {
+            return null;
+        }
+
+        File archive = new File(getDirectory(host, namespace, type), name);
+        if (archive.isFile() || !upstreamHosts.contains(host)) {
+            return archive.isFile() ? archive : null;
+        }
+
+        // Packages the registry does not list are refused before anything is locked or created.
+        String version = matcher.group(2);
+        if (!isUpstreamPackage(host, namespace, type, version, matcher.group(3), matcher.group(4))) {
+            return null;
+        }
+
+        synchronized (lockFor(archive)) {
+            if (!archive.isFile()) {
+                JsonNode download = readJson(new URL(getProviderService(host),
+                        namespace + "/" + type + "/" + version + "/download/" + matcher.group(3) + "/" + matcher.group(4)));
+                URL url = new URL(download.path("download_url").asText());
+                String checksum = download.path("shasum").asText();
+
+                archive.getParentFile().mkdirs();
+                File partial = new File(archive.getParentFile(), name + PARTIAL_SUFFIX);
+                LOGGER.info("Fetching Terraform provider package " + url);
+                try {
+                    try (InputStream in = ProxyConfiguration.open(url).getInputStream();
+                         OutputStream out = new FileOutputStream(partial)) {
+                        copy(in, out, name);
+                    }
+
+                    String actual = TerraformArchiveStore.sha256(partial);
+                    if (!checksum.equalsIgnoreCase(actual)) {
+                        throw new IOException(Messages.ArchiveChecksumMismatch(name, checksum, actual));
+                    }
+                    Files.move(partial.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(partial.toPath());
+                }
+                evict(archive);
+            }
+        }
+        return archive;
+    }
+
+
+    private boolean isUpstreamPackage(String host, String namespace, String type, String version, String os, String arch) {
+        for (JsonNode upstream : getUpstreamVersions(host, namespace, type).path("versions")) {
+            if (upstream.path("version").asText().equals(version)) {
+                for (JsonNode platform : upstream.path("platforms")) {
+                    if (platform.path("os").asText().equals(os) && platform.path("arch").asText().equals(arch)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Copies a fetched package, failing once it is larger than the whole store may be.
+     */
+    private void copy(InputStream in, OutputStream out, String name) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            total += len;
+            if (quota > 0 && total > quota) {
+                throw new IOException(Messages.ProviderMirrorQuotaExceeded(name, quota / MEGABYTE));
+            }
+            out.write(buffer, 0, len);
+        }
+    }
+
+
+    /**
+     * Deletes the packages fetched or imported the longest time ago until the store fits
+     * its quota. The given package, which was just fetched, is kept.
+     */
+    void evict(File keep) throws IOException {
+        if (quota <= 0) {
+            return;
+        }
+
+        synchronized (EVICTION_LOCK) {
+            List<File> archives = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(root.toPath())) {
+                files.map(Path::toFile)
+                        .filter(file -> file.isFile() && ARCHIVE.matcher(file.getName()).matches())
+                        .forEach(archives::add);
+            }
+
+            long total = 0;
+            for (File archive : archives) {
+                total += archive.length();
+            }
+            archives.sort(Comparator.comparingLong(File::lastModified));
+            for (File archive : archives) {
+                if (total <= quota) {
+                    break;
+                }
+                if (archive.equals(keep)) {
+                    continue;
+                }
+                long length = archive.length();
+                String hashKey = getHashKey(archive);
+                if (archive.delete()) {
+                    HASHES.remove(hashKey);
+                    LOGGER.info("Evicted Terraform provider package " + archive);
+                    total -= length;
+                }
+            }
+        }
+    }
+
+
+    private File getDirectory(String host, String namespace, String type) {
+        return new File(new File(new File(root, host), namespace), type);
+    }
+
+
+    /**
+     * Returns the packages in the store, by version and platform.
+     */
+    private Map<String, Map<String, File>> getLocalArchives(String host, String namespace, String type) {
+        Map<String, Map<String, File>> result = new TreeMap<>();
+        File[] files = getDirectory(host, namespace, type).listFiles();
+        if (files == null) {
+            return result;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            Matcher matcher = ARCHIVE.matcher(file.getName());
+            if (file.isFile() && matcher.matches() && matcher.group(1).equals(type)) {
+                result.computeIfAbsent(matcher.group(2), k -> new TreeMap<>())
+                        .put(matcher.group(3) + "_" + matcher.group(4), file);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the upstream registry's list of versions and platforms of a provider. The list
+     * is kept in the store and refreshed hourly; a stale list is used while the registry is
+     * unreachable. Nothing is written for providers the registry does not know, and no lock
+     * is taken: concurrent refreshes each replace the list atomically.
+     */
+    private JsonNode getUpstreamVersions(String host, String namespace, String type) {
+        if (!upstreamHosts.contains(host)) {
+            return MissingNode.getInstance();
+        }
+
+        File versions = new File(getDirectory(host, namespace, type), UPSTREAM_VERSIONS_FILE_NAME);
+        try {
+            if (!versions.isFile() || System.currentTimeMillis() - versions.lastModified() > UPSTREAM_TTL) {
+                JsonNode fetched = readJson(new URL(getProviderService(host), namespace + "/" + type + "/versions"));
+                versions.getParentFile().mkdirs();
+                Path partial = Files.createTempFile(versions.getParentFile().toPath(), versions.getName(), PARTIAL_SUFFIX);
+                try {
+                    JSON.writeValue(partial.toFile(), fetched);
+                    Files.move(partial, versions.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(partial);
+                }
+                return fetched;
+            }
+        } catch (IOException ex) {
+            LOGGER.warning("Could not list versions of " + host + "/" + namespace + "/" + type + ": " + ex);
+        }
+
+        try {
+            return versions.isFile() ? JSON.readTree(versions) : MissingNode.getInstance();
+        } catch (IOException ex) {
+            LOGGER.warning("Could not read " + versions + ": " + ex);
+            return MissingNode.getInstance();
+        }
+    }
+
+
+    /**
+     * Returns the base URL of the providers.v1 service of a registry, found with the
+     * remote service discovery protocol.
+     */
+    private static URL getProviderService(String host) throws IOException {
+        URL service = PROVIDER_SERVICES.get(host);
+        if (service == null) {
+            URL discovery = new URL("https://" + host + "/.well-known/terraform.json");
+            String path = readJson(discovery).path("providers.v1").asText();
+            if (path.isEmpty()) {
+                throw new IOException("No provider registry at " + host);
+            }
+            service = new URL(discovery, path.endsWith("/") ? path : path + "/");
+            PROVIDER_SERVICES.put(host, service);
+        }
+        return service;
+    }
+
+
+    private static JsonNode readJson(URL url) throws IOException {
+        try (InputStream in = ProxyConfiguration.open(url).getInputStream()) {
+            return JSON.readTree(in);
+        }
+    }
+
+
+    /**
+     * Returns the hex SHA-256 of a package, computed once per file.
+     */
+    private static String hashOf(File file) throws IOException {
+        String key = getHashKey(file);
+        String hash = HASHES.get(key);
+        if (hash == null) {
+            hash = TerraformArchiveStore.sha256(file);
+            HASHES.put(key, hash);
+        }
+        return hash;
+    }
+
+
+    private static String getHashKey(File file) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+
+    /**
+     * Returns the lock of a file. A fixed set of locks is shared by all files, so anonymous
+     * requests for made-up names do not grow the controller's memory.
+     */
+    private static Object lockFor(File file) {
+        return LOCKS[Math.floorMod(file.getAbsolutePath().hashCode(), LOCKS.length)];
+    }
+}
@@ -0,0 +1,303 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+import hudson.Util;
+
+import hudson.model.Node;
+
+import hudson.remoting.VirtualChannel;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import java.nio.file.Files;
+
+
+/**
+ * Per-node Terraform provider plugin cache (TF_PLUGIN_CACHE_DIR) shared by all
+ * builds running on that node.
+ *
+ * Terraform does not guarantee that the plugin cache is safe for concurrent writers,
+ * so every init using the cache runs while holding the node lock, held on the controller.
+ * A module sequence running on the node takes it through a remote call around its init
+ * steps only, see {@link #export}. Entries are
+ * provider version directories; the ones referenced by the dependency lock file
+ * are marked as used after each init and the least recently used entries are
+ * evicted once the cache grows past its quota.
+ *
+ * The cache can be sent to the node, where eviction then runs without a remote call.
+ */
+class ProviderPluginCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String CACHE_DIR_NAME = "terraform-plugin-cache";
+    static final String PROVIDERS_DIR_NAME = "providers";
+    static final String LOCK_FILE_NAME = ".terraform.lock.hcl";
+
+    private static final long MEGABYTE = 1024L * 1024L;
+    private static final long EVICTION_GRACE_PERIOD = TimeUnit.HOURS.toMillis(1);
+    private static final Pattern LOCKED_PROVIDER = Pattern.compile(
+            "provider\\s+\"([^\"]+)\"\\s*\\{[^}]*?version\\s*=\\s*\"([^\"]+)\"");
+    private static final Map<String, Semaphore> NODE_LOCKS = new ConcurrentHashMap<>();
+
+    private final String nodeName;
+    private final FilePath directory;
+    private final long quota;
+
+
+    ProviderPluginCache(String nodeName, FilePath directory, long quotaMegabytes) {
+        this.nodeName = nodeName;
+        this.directory = directory;
+        this.quota = quotaMegabytes * MEGABYTE;
+    }
+
+
+    /**
+     * Returns the cache located under the node root directory, or null if the node is offline.
+     */
+    static ProviderPluginCache forNode(Node node, long quotaMegabytes) {
+        FilePath root = node == null ? null : node.getRootPath();
+        if (root == null) {
+            return null;
+        }
+        return new ProviderPluginCache(node.getNodeName(), root.child(CACHE_DIR_NAME).child(PROVIDERS_DIR_NAME), quotaMegabytes);
+    }
+
+
+    FilePath getDirectory() {
+        return this.directory;
+    }
+
+
+    long getQuota() {
+        return this.quota;
+    }
+
+
+    /**
+     * Acquires the lock serializing cache writers on this node, creating the cache directory if needed.
+     * The lock is not owned by a thread, it is released by whoever holds the returned semaphore.
+     */
+    Semaphore lock() throws IOException, InterruptedException {
+        Semaphore lock = NODE_LOCKS.computeIfAbsent(lockKey(), k -> new Semaphore(1));
+        lock.acquire();
+        try {
+            directory.mkdirs();
+        } catch (IOException | InterruptedException ex) {
+            lock.release();
+            throw ex;
+        }
+        return lock;
+    }
+
+
+    /**
+     * Returns the lock of this cache, exported to the given channel so a sequence running on
+     * the node can take it around the commands writing to the cache. The caller closes the
+     * returned lock once the call to the node is done, releasing it if the node did not.
+     */
+    ExportedLock export(VirtualChannel channel) {
+        return new ExportedLock(this, channel);
+    }
+
+
+    /**
+     * Lock of a node cache, called from the node.
+     */
+    interface RemoteLock {
+
+        void lock() throws IOException, InterruptedException;
+
+        void unlock();
+    }
+
+
+    static final class ExportedLock implements RemoteLock, AutoCloseable {
+
+        private final ProviderPluginCache cache;
+        private final RemoteLock proxy;
+        private Semaphore held;
+
+
+        private ExportedLock(ProviderPluginCache cache, VirtualChannel channel) {
+            this.cache = cache;
+            this.proxy = channel.export(RemoteLock.class, this);
+        }
+
+
+        /**
+         * The lock as seen from the node.
+         */
+        RemoteLock getProxy() {
+            return this.proxy;
+        }
+
+
+        public void lock() throws IOException, InterruptedException {
+            Semaphore lock = cache.lock();
+            synchronized (this) {
+                held = lock;
+            }
+        }
+
+
+        public synchronized void unlock() {
+            if (held != null) {
+                held.release();
+                held = null;
+            }
+        }
+
+
+        @Override
+        public void close() {
+            unlock();
+        }
+    }
+
+
+    /**
+     * Marks the providers selected by the given lock file as recently used and evicts
+     * least recently used entries until the cache fits its quota.
+     *
+     * @return number of evicted entries
+     */
+    int touchAndEvict(FilePath lockFile) throws IOException, InterruptedException {
+        String locked = (lockFile != null && lockFile.exists()) ? lockFile.readToString() : "";
+        return directory.act(new TouchAndEvict(lockedProviderPaths(locked), quota));
+    }
+
+
+    static List<String> lockedProviderPaths(String lockFileContents) {
+        List<String> result = new ArrayList<>();
+        Matcher matcher = LOCKED_PROVIDER.matcher(lockFileContents);
+        while (matcher.find()) {
+            result.add(matcher.group(1) + "/" + matcher.group(2));
+        }
+        return result;
+    }
+
+
+    private String lockKey() {
+        return nodeName + ":" + directory.getRemote();
+    }
+
+
+    private static final class TouchAndEvict extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> used;
+        private final long quota;
+
+
+        TouchAndEvict(List<String> used, long quota) {
+            this.used = used;
+            this.quota = quota;
+        }
+
+
+        public Integer invoke(File cache, VirtualChannel channel) throws IOException, InterruptedException {
+            long now = System.currentTimeMillis();
+            HashSet<File> touched = new HashSet<>();
+            for (String path : used) {
+                File entry = new File(cache, path);
+                if (entry.isDirectory() && entry.setLastModified(now)) {
+                    touched.add(entry);
+                }
+            }
+
+            if (quota <= 0) {
+                return 0;
+            }
+
+            List<File> entries = new ArrayList<>();
+            collectEntries(cache, 0, entries);
+
+            long total = 0;
+            Map<File, Long> sizes = new HashMap<>();
+            for (File entry : entries) {
+                long size = sizeOf(entry);
+                sizes.put(entry, size);
+                total += size;
+            }
+
+            Collections.sort(entries, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+
+            int evicted = 0;
+            for (File entry : entries) {
+                if (total <= quota) {
+                    break;
+                }
+                // Entries used recently may still be linked from a running build on this node.
+                if (touched.contains(entry) || now - entry.lastModified() < EVICTION_GRACE_PERIOD) {
+                    continue;
+                }
+                Util.deleteRecursive(entry);
+                total -= sizes.get(entry);
+                ++evicted;
+            }
+            return evicted;
+        }
+
+
+        /**
+         * Entries are <host>/<namespace>/<type>/<version> directories (Terraform 0.13+ layout)
+         * or terraform-provider-* files directly below an <os_arch> directory (legacy layout).
+         */
+        private static void collectEntries(File dir, int depth, List<File> entries) {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (depth == 1 && child.isFile() && child.getName().startsWith("terraform-provider-")) {
+                    entries.add(child);
+                } else if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                    if (depth == 3) {
+                        entries.add(child);
+                    } else {
+                        collectEntries(child, depth + 1, entries);
+                    }
+                }
+            }
+        }
+
+
+        private static long sizeOf(File file) {
+            if (!file.isDirectory()) {
+                return file.length();
+            }
+            long size = 0;
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    size += Files.isSymbolicLink(child.toPath()) ? 0 : sizeOf(child);
+                }
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+
+import java.util.Map;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import java.io.IOException;
+import java.io.FileNotFoundException;
+
+
+/**
+ * A Terraform root module of a build and the paths Terraform uses to run it.
+ *
+ * In FILE mode the configuration path may list several root modules, one per line, each
+ * optionally followed by the modules it depends on:
+ * <pre>
+ * network
+ * database: network
+ * services/*: network, database
+ * </pre>
+ * Paths are relative to the build workspace. A path containing wildcards selects every
+ * directory matching it that contains Terraform configuration files.
+ */
+class RootModule {
+
+    static final String WORK_DIR_NAME = "terraform-plugin";
+    static final String STATE_FILE_NAME = "terraform-plugin.tfstate";
+    static final String DATA_DIR_NAME = ".terraform";
+
+    private final String name;
+    private final FilePath workspacePath;
+    private final FilePath workingDirectory;
+    private final FilePath stateFile;
+    private final List<String> dependencies;
+    private final String terraformWorkspace;
+    private final FilePath dataDir;
+    private FilePath planFile;
+
+
+    RootModule(String name, FilePath workspacePath, FilePath workingDirectory, boolean useRemoteState, List<String> dependencies) {
+        this(name, workspacePath, workingDirectory, useRemoteState, dependencies, null, null);
+    }
+
+
+    /**
+     * @param terraformWorkspace Terraform workspace of a {@link WorkspaceMatrix} run, or null for the build's
+     * @param dataDir TF_DATA_DIR of a {@link WorkspaceMatrix} run, or null for the default .terraform directory
+     */
+    RootModule(String name, FilePath workspacePath, FilePath workingDirectory, boolean useRemoteState, List<String> dependencies,
+               String terraformWorkspace, FilePath dataDir) {
+        this.name = name;
+        this.workspacePath = workspacePath;
+        this.workingDirectory = workingDirectory;
+        this.stateFile = useRemoteState ? null : new FilePath(workingDirectory, STATE_FILE_NAME);
+        this.dependencies = dependencies;
+        this.terraformWorkspace = terraformWorkspace;
+        this.dataDir = dataDir;
+    }
+
+
+    /**
+     * Display name, the module path relative to the build workspace.
+     */
+    String getName() {
+        return this.name;
+    }
+
+
+    /**
+     * Directory containing the configuration files, where Terraform is launched (TF_CWD).
+     */
+    FilePath getWorkspacePath() {
+        return this.workspacePath;
+    }
+
+
+    /**
+     * Directory holding the local state file and other plugin files of this module.
+     */
+    FilePath getWorkingDirectory() {
+        return this.workingDirectory;
+    }
+
+
+    /**
+     * Local state file, or null if the module uses remote state.
+     */
+    FilePath getStateFile() {
+        return this.stateFile;
+    }
+
+
+    List<String> getDependencies() {
+        return this.dependencies;
+    }
+
+
+    /**
+     * Terraform workspace this root module runs in, or null if it runs in the build's workspace.
+     */
+    String getTerraformWorkspace() {
+        return this.terraformWorkspace;
+    }
+
+
+    /**
+     * Terraform data directory (TF_DATA_DIR) of this run, or null for the default one.
+     */
+    FilePath getDataDir() {
+        return this.dataDir;
+    }
+
+
+    FilePath getPlanFile() {
+        return this.planFile;
+    }
+
+
+    void setPlanFile(FilePath planFile) {
+        this.planFile = planFile;
+    }
+
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+
+    /**
+     * Resolves the root modules listed in a FILE mode configuration path.
+     *
+     * A single path without wildcards keeps the historical layout, i.e. the working directory
+     * is shared with the build. Otherwise every module gets its own working directory.
+     */
+    static List<RootModule> resolve(FilePath workspace, String configPath, boolean useTerraformWorkspace, boolean useRemoteState) throws IOException, InterruptedException {
+        String[] lines = configPath == null ? new String[0] : configPath.trim().split("\\r?\\n");
+        boolean multiple = lines.length > 1 || (lines.length == 1 && isPattern(pathOf(lines[0])));
+
+        Map<String, List<String>> specs = new LinkedHashMap<>();
+        for (String line : lines) {
+            String path = pathOf(line);
+            if (path.isEmpty()) {
+                continue;
+            }
+
+            List<String> dependencies = new ArrayList<>();
+            int colon = separatorOf(line);
+            if (colon != -1) {
+                for (String dependency : line.substring(colon + 1).split(",")) {
+                    if (!dependency.trim().isEmpty()) {
+                        dependencies.add(normalize(dependency.trim()));
+                    }
+                }
+            }
+
+            List<String> names = isPattern(path) ? expand(workspace, path) : Collections.singletonList(path);
+            if (names.isEmpty()) {
+                throw new FileNotFoundException(Messages.ConfigurationPathNotFound(new FilePath(workspace, path)));
+            }
+            for (String name : names) {
+                specs.put(name, dependencies);
+            }
+        }
+
+        if (specs.isEmpty()) {
+            // No path configured, the workspace itself is the root module.
+            FilePath workingDirectory = useTerraformWorkspace ? new FilePath(workspace, DATA_DIR_NAME) : new FilePath(workspace, WORK_DIR_NAME);
+            return Collections.singletonList(new RootModule("", workspace, workingDirectory, useRemoteState, Collections.<String>emptyList()));
+        }
+
+        List<RootModule> modules = new ArrayList<>();
+        for (Map.Entry<String, List<String>> spec : specs.entrySet()) {
+            String name = spec.getKey();
+            FilePath workspacePath = new FilePath(workspace, name);
+            if (!workspacePath.isDirectory()) {
+                throw new FileNotFoundException(Messages.ConfigurationPathNotFound(workspacePath));
+            }
+
+            FilePath workingDirectory;
+            if (useTerraformWorkspace) {
+                workingDirectory = new FilePath(workspacePath, DATA_DIR_NAME);
+            } else if (multiple) {
+                workingDirectory = new FilePath(new FilePath(workspace, WORK_DIR_NAME), name.replaceAll("[^A-Za-z0-9._-]", "_"));
+            } else {
+                workingDirectory = new FilePath(workspace, WORK_DIR_NAME);
+            }
+
+            modules.add(new RootModule(name, workspacePath, workingDirectory, useRemoteState, spec.getValue()));
+        }
+        return modules;
+    }
+
+
+    private static String pathOf(String line) {
+        int colon = separatorOf(line);
+        return normalize((colon == -1 ? line : line.substring(0, colon)).trim());
+    }
+
+
+    /**
+     * Returns the index of the colon separating the path of a configuration line from its
+     * dependencies, or -1. The colon of a Windows drive (C:\tf\stack) is part of the path.
+     */
+    private static int separatorOf(String line) {
+        String path = line.trim();
+        int offset = line.indexOf(path);
+        boolean drive = path.length() > 2 && Character.isLetter(path.charAt(0)) && path.charAt(1) == ':'
+                && (path.charAt(2) == '\\' || path.charAt(2) == '/');
+        return line.indexOf(':', drive ? offset + 2 : 0);
+    }
+
+
+    private static String normalize(String path) {
+        String result = path.replace('\\', '/');
+        while (result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+
+    private static boolean isPattern(String path) {
+        return path.indexOf('*') != -1 || path.indexOf('?') != -1;
+    }
+
+
+    /**
+     * Expands a wildcard path to the relative paths of the matching directories containing .tf files.
+     */
+    private static List<String> expand(FilePath workspace, String pattern) throws IOException, InterruptedException {
+        TreeSet<String> result = new TreeSet<>();
+        String root = normalize(workspace.getRemote());
+        for (FilePath file : workspace.list(pattern + "/*.tf," + pattern + "/*.tf.json")) {
+            String path = normalize(file.getParent().getRemote());
+            if (path.startsWith(root + "/")) {
+                result.add(path.substring(root.length() + 1));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+}
@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorCompletionService;
+
+
+/**
+ * Runs a task for each root module of a build with bounded concurrency, starting a module
+ * only once all of its upstream modules succeeded. Modules downstream of a failure are skipped.
+ *
+ * In reverse order, used by destroy, a module is started only once all modules depending on it are done.
+ */
+class RootModuleScheduler {
+
+    enum Status {
+        SUCCESS, FAILURE, SKIPPED
+    }
+
+
+    /**
+     * Work done for one module. Failures are reported by throwing, the task is expected to log them.
+     */
+    interface Task {
+        void run(RootModule module) throws Exception;
+    }
+
+
+    private final List<RootModule> modules;
+    private final int maxParallel;
+    private final Map<RootModule, Set<RootModule>> upstream = new HashMap<>();
+    private final Map<RootModule, Status> status = new LinkedHashMap<>();
+    private final Map<RootModule, Long> durations = new ConcurrentHashMap<>();
+    private final Set<RootModule> failed = Collections.newSetFromMap(new ConcurrentHashMap<RootModule, Boolean>());
+
+
+    RootModuleScheduler(List<RootModule> modules, int maxParallel, boolean reverse) {
+        this.modules = modules;
+        this.maxParallel = Math.max(1, maxParallel);
+
+        Map<String, RootModule> byName = new HashMap<>();
+        for (RootModule module : modules) {
+            byName.put(module.getName(), module);
+            upstream.put(module, new HashSet<RootModule>());
+        }
+
+        for (RootModule module : modules) {
+            for (String name : module.getDependencies()) {
+                RootModule dependency = byName.get(name);
+                if (dependency == null) {
+                    throw new IllegalArgumentException(Messages.ModuleDependencyNotFound(module.getName(), name));
+                }
+                if (reverse) {
+                    upstream.get(dependency).add(module);
+                } else {
+                    upstream.get(module).add(dependency);
+                }
+            }
+        }
+
+        checkAcyclic();
+    }
+
+
+    /**
+     * Runs the task for all modules and waits for completion.
+     *
+     * @return status of each module, in completion order
+     */
+    Map<RootModule, Status> run(final Task task) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallel, modules.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "TerraformRootModule"));
+        ExecutorCompletionService<RootModule> completion = new ExecutorCompletionService<>(executor);
+        Set<RootModule> started = new HashSet<>();
+        int running = 0;
+
+        try {
+            while (status.size() < modules.size()) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    for (final RootModule module : modules) {
+                        if (started.contains(module) || status.containsKey(module)) {
+                            continue;
+                        }
+                        Boolean ready = isReady(module);
+                        if (ready == null) {
+                            continue;
+                        }
+                        if (ready) {
+                            started.add(module);
+                            ++running;
+                            completion.submit(new Callable<RootModule>() {
+                                public RootModule call() {
+                                    long start = System.currentTimeMillis();
+                                    try {
+                                        task.run(module);
+                                    } catch (Exception ex) {
+                                        failed.add(module);
+                                    } finally {
+                                        durations.put(module, System.currentTimeMillis() - start);
+                                    }
+                                    return module;
+                                }
+                            });
+                        } else {
+                            status.put(module, Status.SKIPPED);
+                            changed = true;
+                        }
+                    }
+                }
+
+                if (running == 0) {
+                    break;
+                }
+
+                RootModule done;
+                try {
+                    done = completion.take().get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException(ex.getCause());
+                }
+                --running;
+
+                status.put(done, failed.contains(done) ? Status.FAILURE : Status.SUCCESS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return status;
+    }
+
+
+    long getDuration(RootModule module) {
+        Long duration = durations.get(module);
+        return duration == null ? 0 : duration;
+    }
+
+
+    /**
+     * @return true if all upstream modules succeeded, false if one of them did not, null if some are still pending
+     */
+    private Boolean isReady(RootModule module) {
+        for (RootModule dependency : upstream.get(module)) {
+            Status dependencyStatus = status.get(dependency);
+            if (dependencyStatus == null) {
+                return null;
+            }
+            if (dependencyStatus != Status.SUCCESS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void checkAcyclic() {
+        Set<RootModule> done = new HashSet<>();
+        for (RootModule module : modules) {
+            visit(module, new ArrayList<RootModule>(), done);
+        }
+    }
+
+
+    private void visit(RootModule module, List<RootModule> path, Set<RootModule> done) {
+        if (done.contains(module)) {
+            return;
+        }
+        if (path.contains(module)) {
+            path.add(module);
+            throw new IllegalArgumentException(Messages.ModuleDependencyCycle(path.subList(path.indexOf(module), path.size())));
+        }
+        path.add(module);
+        for (RootModule dependency : upstream.get(module)) {
+            visit(dependency, path, done);
+        }
+        path.remove(path.size() - 1);
+        done.add(module);
+    }
+}
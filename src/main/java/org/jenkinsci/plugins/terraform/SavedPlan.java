@@ -0,0 +1,298 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+import hudson.Launcher;
+
+import hudson.model.Run;
+import hudson.model.Fingerprint;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+
+import hudson.remoting.VirtualChannel;
+
+import hudson.tasks.Fingerprinter;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import jenkins.model.Jenkins;
+
+import jenkins.util.VirtualFile;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Collections;
+
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+
+/**
+ * A plan saved by a plan build and applied by a later build, usually of a separate apply job.
+ *
+ * The plan build archives the plan file of each root module together with what the plan was
+ * made from: the digest of the configuration, the digest of the dependency lock file, the
+ * Terraform workspace, and the serial and lineage of the state it is based on, read from the
+ * prior state stored in the plan file. The plan file is also recorded as a Jenkins fingerprint,
+ * so both builds show which plan went where.
+ *
+ * The apply build refuses a plan whose configuration, lock file, workspace or state moved on
+ * since it was made.
+ */
+class SavedPlan {
+
+    static final String ARTIFACT_DIR = "terraform-plan";
+    static final String PLAN_FILE_NAME = "plan.tfplan";
+    static final String PROPERTIES_FILE_NAME = "plan.properties";
+
+    private static final String HAS_CHANGES = "hasChanges";
+    private static final String PLAN_DIGEST = "planDigest";
+    private static final String CONFIG_DIGEST = "configDigest";
+    private static final String LOCK_FILE_DIGEST = "lockFileDigest";
+    private static final String WORKSPACE = "workspace";
+    private static final String SERIAL = "serial";
+    private static final String LINEAGE = "lineage";
+    private static final String PRIOR_STATE_ENTRY = "tfstate";
+
+    private final Run<?, ?> build;
+    private final String path;
+    private final Properties properties;
+
+
+    private SavedPlan(Run<?, ?> build, String path, Properties properties) {
+        this.build = build;
+        this.path = path;
+        this.properties = properties;
+    }
+
+
+    /**
+     * Archives the plan of a root module with the properties it was made from.
+     *
+     * @param planFile saved plan, in the working directory of the module, or null if the plan has no changes
+     */
+    static void archive(AbstractBuild build, Launcher launcher, BuildListener listener, RootModule module, FilePath planFile, String workspace) throws IOException, InterruptedException {
+        Properties properties = module.getWorkspacePath().act(new Inspect(true, planFile == null ? null : planFile.getRemote()));
+        properties.setProperty(HAS_CHANGES, Boolean.toString(planFile != null));
+        properties.setProperty(WORKSPACE, workspace);
+
+        StringWriter writer = new StringWriter();
+        properties.store(writer, null);
+        FilePath propertiesFile = module.getWorkingDirectory().createTextTempFile("plan", ".properties", writer.toString());
+
+        String path = pathOf(module);
+        Map<String, String> artifacts = new HashMap<>();
+        artifacts.put(path + "/" + PROPERTIES_FILE_NAME, propertiesFile.getName());
+        if (planFile != null) {
+            artifacts.put(path + "/" + PLAN_FILE_NAME, planFile.getName());
+        }
+        try {
+            build.getArtifactManager().archive(module.getWorkingDirectory(), launcher, listener, artifacts);
+        } finally {
+            propertiesFile.delete();
+        }
+
+        if (planFile != null) {
+            String md5 = planFile.digest();
+            Jenkins.getInstance().getFingerprintMap().getOrCreate(build, path + "/" + PLAN_FILE_NAME, md5);
+            recordFingerprint(build, path + "/" + PLAN_FILE_NAME, md5);
+        }
+        listener.getLogger().println(Messages.SavedPlanArchived(path));
+    }
+
+
+    /**
+     * Returns the plan a build archived for a root module, or null if it archived none.
+     */
+    static SavedPlan load(Run<?, ?> build, RootModule module) throws IOException {
+        String path = pathOf(module);
+        VirtualFile file = build.getArtifactManager().root().child(path + "/" + PROPERTIES_FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = file.open()) {
+            properties.load(in);
+        }
+        return new SavedPlan(build, path, properties);
+    }
+
+
+    /**
+     * Artifact directory of the plan of a root module. The only root module of a build has no name.
+     */
+    static String pathOf(RootModule module) {
+        String name = module.getName();
+        return name.isEmpty() ? ARTIFACT_DIR : ARTIFACT_DIR + "/" + name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+
+    boolean hasChanges() {
+        return Boolean.parseBoolean(properties.getProperty(HAS_CHANGES));
+    }
+
+
+    /**
+     * Compares the configuration, lock file and workspace of the root module with the ones
+     * the plan was made from.
+     *
+     * @return why the plan does not apply, or null if it matches
+     */
+    String checkConfiguration(RootModule module, String workspace) throws IOException, InterruptedException {
+        if (!properties.getProperty(WORKSPACE, "").equals(workspace)) {
+            return Messages.SavedPlanWorkspaceChanged(properties.getProperty(WORKSPACE, ""), workspace);
+        }
+
+        Properties current = module.getWorkspacePath().act(new Inspect(true, null));
+        if (!current.getProperty(LOCK_FILE_DIGEST).equals(properties.getProperty(LOCK_FILE_DIGEST))) {
+            return Messages.SavedPlanLockFileChanged();
+        }
+        if (!current.getProperty(CONFIG_DIGEST).equals(properties.getProperty(CONFIG_DIGEST))) {
+            return Messages.SavedPlanConfigChanged();
+        }
+        return null;
+    }
+
+
+    /**
+     * Compares the current state of the root module with the state the plan is based on.
+     *
+     * @param state serial and lineage of the current state, see {@link #readStateVersion}
+     * @return why the plan does not apply, or null if it matches
+     */
+    String checkState(String[] state) {
+        String serial = properties.getProperty(SERIAL, "");
+        String lineage = properties.getProperty(LINEAGE, "");
+        if (!serial.equals(state[0]) || !lineage.equals(state[1])) {
+            return Messages.SavedPlanStateChanged(serial, state[0]);
+        }
+        return null;
+    }
+
+
+    /**
+     * Copies the plan file to the working directory of the root module, verifies it and
+     * records its fingerprint as used by the given build.
+     */
+    FilePath restore(Run<?, ?> applyBuild, RootModule module) throws IOException, InterruptedException {
+        FilePath planFile = module.getWorkingDirectory().createTempFile("saved", ".tfplan");
+        try (InputStream in = build.getArtifactManager().root().child(path + "/" + PLAN_FILE_NAME).open()) {
+            planFile.copyFrom(in);
+        }
+
+        Properties restored = planFile.act(new Inspect(false, planFile.getRemote()));
+        if (!restored.getProperty(PLAN_DIGEST).equals(properties.getProperty(PLAN_DIGEST))) {
+            planFile.delete();
+            throw new IOException(Messages.SavedPlanCorrupt(build.getFullDisplayName()));
+        }
+
+        String md5 = planFile.digest();
+        Fingerprint fingerprint = Jenkins.getInstance().getFingerprintMap().get(md5);
+        if (fingerprint != null) {
+            fingerprint.addFor(applyBuild);
+        }
+        recordFingerprint(applyBuild, path + "/" + PLAN_FILE_NAME, md5);
+        return planFile;
+    }
+
+
+    private static void recordFingerprint(Run<?, ?> build, String path, String md5) {
+        synchronized (build) {
+            Fingerprinter.FingerprintAction action = build.getAction(Fingerprinter.FingerprintAction.class);
+            if (action == null) {
+                build.addAction(new Fingerprinter.FingerprintAction(build, Collections.singletonMap(path, md5)));
+            } else {
+                action.add(Collections.singletonMap(path, md5));
+            }
+        }
+    }
+
+
+    /**
+     * Reads the serial and lineage of a Terraform state, stopping as soon as both are found.
+     *
+     * @return the serial and lineage, empty if the state does not have them
+     */
+    static String[] readStateVersion(InputStream in) throws IOException {
+        String[] result = { "", "" };
+        try (JsonParser parser = new JsonFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return result;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (result[0].isEmpty() || result[1].isEmpty())) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals(SERIAL)) {
+                    result[0] = parser.getText();
+                } else if (name.equals(LINEAGE)) {
+                    result[1] = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Computes the properties of a root module and of a plan file, on the node holding them.
+     */
+    private static final class Inspect extends MasterToSlaveFileCallable<Properties> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean module;
+        private final String planFile;
+
+
+        /**
+         * @param module whether the file the callable runs on is a root module directory to inspect
+         * @param planFile plan file to inspect, or null
+         */
+        Inspect(boolean module, String planFile) {
+            this.module = module;
+            this.planFile = planFile;
+        }
+
+
+        public Properties invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            Properties result = new Properties();
+            if (module) {
+                result.setProperty(CONFIG_DIGEST, InitFingerprint.digest(root, ""));
+
+                File lockFile = new File(root, ProviderPluginCache.LOCK_FILE_NAME);
+                result.setProperty(LOCK_FILE_DIGEST, lockFile.isFile() ? TerraformArchiveStore.sha256(lockFile) : "");
+            }
+
+            if (planFile != null) {
+                File plan = new File(planFile);
+                result.setProperty(PLAN_DIGEST, TerraformArchiveStore.sha256(plan));
+
+                try (ZipFile zip = new ZipFile(plan)) {
+                    ZipEntry priorState = zip.getEntry(PRIOR_STATE_ENTRY);
+                    String[] version = { "", "" };
+                    if (priorState != null) {
+                        try (InputStream in = zip.getInputStream(priorState)) {
+                            version = readStateVersion(in);
+                        }
+                    }
+                    result.setProperty(SERIAL, version[0]);
+                    result.setProperty(LINEAGE, version[1]);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.Extension;
+
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+
+import hudson.model.listeners.RunListener;
+
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Iterator;
+
+
+/**
+ * Jenkins-level lock on the Terraform state of a build, keyed by the state identity returned
+ * by {@link TerraformBuildWrapper#getStateLockKey}.
+ *
+ * A build waiting for a state held by another build stays in the queue, blocked, instead of
+ * taking an executor to fail on (or wait for) the backend lock. The lock is reserved for a
+ * queue item when it may run, held by its build once started, and released when the build
+ * completes, so builds on different states still run in parallel. A build whose destroy was
+ * queued by {@link DestroyQueue} keeps the lock until the destroy is done. Locks are kept in
+ * memory; a lock whose queue item was cancelled or whose build stopped without completing is
+ * considered free.
+ */
+final class StateLockManager {
+
+    private static final Map<String, Holder> LOCKS = new HashMap<>();
+
+    /** Replaced by tests, which run without Jenkins. */
+    static Liveness liveness = new JenkinsLiveness();
+
+
+    private StateLockManager() {
+    }
+
+
+    /**
+     * Reserves the lock for a queue item.
+     *
+     * @return the current holder if another queue item or build holds the lock, null if reserved
+     */
+    static Holder tryReserve(String key, Queue.Item item) {
+        return tryReserve(key, item.getId(), item.task.getFullDisplayName());
+    }
+
+
+    static synchronized Holder tryReserve(String key, long queueId, String owner) {
+        Holder holder = LOCKS.get(key);
+        if (holder != null && holder.queueId != queueId && !holder.isStale()) {
+            return holder;
+        }
+        if (holder == null || holder.queueId != queueId) {
+            LOCKS.put(key, new Holder(queueId, owner));
+        }
+        return null;
+    }
+
+
+    /**
+     * Hands the locks reserved for the queue item of the build over to the build.
+     */
+    static void started(Run<?, ?> run) {
+        started(run.getQueueId(), run.getExternalizableId(), run.getFullDisplayName());
+    }
+
+
+    static synchronized void started(long queueId, String run, String owner) {
+        for (Holder holder : LOCKS.values()) {
+            if (holder.queueId == queueId && holder.run == null) {
+                holder.run = run;
+                holder.owner = owner;
+                holder.since = System.currentTimeMillis();
+            }
+        }
+    }
+
+
+    /**
+     * Releases the locks held by the build, except those held for its queued destroy.
+     *
+     * @return true if a lock was released
+     */
+    static boolean release(Run<?, ?> run) {
+        return release(run.getQueueId(), run.getExternalizableId());
+    }
+
+
+    static synchronized boolean release(long queueId, String run) {
+        boolean released = false;
+        for (Iterator<Holder> it = LOCKS.values().iterator(); it.hasNext(); ) {
+            Holder holder = it.next();
+            if (!holder.destroying && (holder.queueId == queueId || run.equals(holder.run))) {
+                it.remove();
+                released = true;
+            }
+        }
+        return released;
+    }
+
+
+    /**
+     * Keeps the locks held by the build until its queued destroy is done.
+     */
+    static void holdForDestroy(Run<?, ?> run) {
+        holdForDestroy(run.getExternalizableId(), run.getFullDisplayName());
+    }
+
+
+    static synchronized void holdForDestroy(String run, String owner) {
+        for (Holder holder : LOCKS.values()) {
+            if (run.equals(holder.run)) {
+                holder.destroying = true;
+                holder.owner = Messages.StateLockDestroying(owner);
+            }
+        }
+    }
+
+
+    /**
+     * Releases the locks held for the queued destroy of a build.
+     */
+    static void releaseDestroy(String run) {
+        if (releaseDestroyLocks(run)) {
+            Jenkins.getInstance().getQueue().scheduleMaintenance();
+        }
+    }
+
+
+    /**
+     * @return true if a lock was released
+     */
+    static synchronized boolean releaseDestroyLocks(String run) {
+        boolean released = false;
+        for (Iterator<Holder> it = LOCKS.values().iterator(); it.hasNext(); ) {
+            Holder holder = it.next();
+            if (holder.destroying && run.equals(holder.run)) {
+                it.remove();
+                released = true;
+            }
+        }
+        return released;
+    }
+
+
+    static final class Holder {
+
+        private final long queueId;
+        private String owner;
+        private String run;
+        private long since;
+        private boolean destroying;
+
+
+        Holder(long queueId, String owner) {
+            this.queueId = queueId;
+            this.owner = owner;
+            this.since = System.currentTimeMillis();
+        }
+
+
+        /**
+         * Display name of the build holding the lock, or of the job whose queue item reserved it.
+         */
+        String getOwner() {
+            return this.owner;
+        }
+
+
+        /**
+         * Time since the lock was taken, in milliseconds.
+         */
+        long getDuration() {
+            return System.currentTimeMillis() - this.since;
+        }
+
+
+        private boolean isStale() {
+            if (destroying) {
+                return !liveness.isDestroyPending(run);
+            }
+            if (run != null) {
+                return !liveness.isBuilding(run);
+            }
+            return !liveness.isQueued(queueId);
+        }
+    }
+
+
+    /**
+     * Tells whether the queue items, builds and destroys holding locks are still alive.
+     */
+    interface Liveness {
+
+        /**
+         * Returns true unless the queue item left the queue without starting a build.
+         */
+        boolean isQueued(long queueId);
+
+
+        boolean isBuilding(String run);
+
+
+        boolean isDestroyPending(String run);
+    }
+
+
+    private static final class JenkinsLiveness implements Liveness {
+
+        public boolean isQueued(long queueId) {
+            Queue.Item item = Jenkins.getInstance().getQueue().getItem(queueId);
+            return item != null && !(item instanceof Queue.LeftItem && ((Queue.LeftItem) item).isCancelled());
+        }
+
+
+        public boolean isBuilding(String run) {
+            Run<?, ?> build = Run.fromExternalizableId(run);
+            return build != null && build.isBuilding();
+        }
+
+
+        public boolean isDestroyPending(String run) {
+            return DestroyQueue.isPending(run);
+        }
+    }
+
+
+    private static final class BlockedByStateLock extends CauseOfBlockage {
+
+        private final String key;
+        private final Holder holder;
+
+
+        BlockedByStateLock(String key, Holder holder) {
+            this.key = key;
+            this.holder = holder;
+        }
+
+
+        @Override
+        public String getShortDescription() {
+            return Messages.StateLockBlocked(key, holder.getOwner(), Util.getTimeSpanString(holder.getDuration()));
+        }
+    }
+
+
+    @Extension
+    public static final class Dispatcher extends QueueTaskDispatcher {
+
+        @Override
+        public CauseOfBlockage canRun(Queue.Item item) {
+            TerraformBuildWrapper wrapper = TerraformBuildWrapper.forTask(item.task);
+            if (wrapper == null) {
+                return null;
+            }
+
+            String key = wrapper.getStateLockKey((Item) item.task, TerraformBuildWrapper.getParameters(item));
+            if (key == null) {
+                return null;
+            }
+
+            Holder holder = tryReserve(key, item);
+            return holder == null ? null : new BlockedByStateLock(key, holder);
+        }
+    }
+
+
+    @Extension
+    public static final class Listener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onStarted(Run<?, ?> run, TaskListener listener) {
+            started(run);
+        }
+
+
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            if (release(run)) {
+                // Let blocked builds waiting for the lock run.
+                Jenkins.getInstance().getQueue().scheduleMaintenance();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import jenkins.model.Jenkins;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * When each Terraform state was last fully refreshed, keyed by the state identity returned
+ * by {@link TerraformBuildWrapper#getStateKey}. Kept in a file on the controller so that
+ * fast applies and {@link StateRefreshTrigger} survive a restart.
+ */
+final class StateRefreshRegistry {
+
+    static final String FILE_NAME = "terraform-plugin/state-refreshes.properties";
+
+    private static final Logger LOGGER = Logger.getLogger(StateRefreshRegistry.class.getName());
+
+    private static Properties refreshes;
+
+
+    private StateRefreshRegistry() {
+    }
+
+
+    /**
+     * Returns the start time of the last build which refreshed the state, 0 if none did.
+     */
+    static synchronized long getLastRefresh(String key) {
+        try {
+            return Long.parseLong(load().getProperty(key, "0"));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Records a refresh of the state by a build started at the given time. An earlier time
+     * than the one recorded, from a build which took longer, is ignored.
+     */
+    static synchronized void recordRefresh(String key, long time) {
+        if (time <= getLastRefresh(key)) {
+            return;
+        }
+
+        Properties properties = load();
+        properties.setProperty(key, Long.toString(time));
+
+        File file = getFile();
+        File partial = new File(file.getParentFile(), file.getName() + ".part");
+        try {
+            file.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(partial)) {
+                properties.store(out, null);
+            }
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOGGER.warning("Could not save " + file + ": " + ex);
+        }
+    }
+
+
+    private static Properties load() {
+        if (refreshes == null) {
+            refreshes = new Properties();
+            File file = getFile();
+            if (file.isFile()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    refreshes.load(in);
+                } catch (IOException ex) {
+                    LOGGER.warning("Could not read " + file + ": " + ex);
+                }
+            }
+        }
+        return refreshes;
+    }
+
+
+    private static File getFile() {
+        return new File(Jenkins.getInstance().getRootDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.Extension;
+
+import hudson.model.Cause;
+import hudson.model.Item;
+import hudson.model.AbstractProject;
+import hudson.model.BuildableItemWithBuildWrappers;
+
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+
+import antlr.ANTLRException;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Builds a job, typically one with {@link TerraformBuildWrapper#getDoRefreshOnly}, when its
+ * Terraform state was not refreshed for longer than the configured age. Checked every 5
+ * minutes. The state is identified as by the job's build wrapper, without build parameters.
+ */
+public class StateRefreshTrigger extends Trigger<AbstractProject<?, ?>> {
+
+    private static final String SPEC = "H/5 * * * *";
+    private static final int DEFAULT_MAX_AGE = 30;
+
+    private final int maxAge;
+
+
+    @DataBoundConstructor
+    public StateRefreshTrigger(int maxAge) throws ANTLRException {
+        super(SPEC);
+        this.maxAge = maxAge > 0 ? maxAge : DEFAULT_MAX_AGE;
+    }
+
+
+    /**
+     * Age of the state, in minutes, above which the job is built.
+     */
+    public int getMaxAge() {
+        return this.maxAge;
+    }
+
+
+    @Override
+    public void run() {
+        if (job == null || job.isBuilding() || job.isInQueue()) {
+            return;
+        }
+        TerraformBuildWrapper wrapper = TerraformBuildWrapper.forTask(job);
+        if (wrapper == null) {
+            return;
+        }
+
+        long lastRefresh = StateRefreshRegistry.getLastRefresh(
+                wrapper.getStateKey(job, Collections.<String, String>emptyMap()));
+        if (lastRefresh == 0) {
+            job.scheduleBuild(0, new StaleStateCause(0));
+            return;
+        }
+
+        long age = System.currentTimeMillis() - lastRefresh;
+        if (age > TimeUnit.MINUTES.toMillis(maxAge)) {
+            job.scheduleBuild(0, new StaleStateCause(age));
+        }
+    }
+
+
+    public static class StaleStateCause extends Cause {
+
+        private final long age;
+
+
+        StaleStateCause(long age) {
+            this.age = age;
+        }
+
+
+        @Override
+        public String getShortDescription() {
+            return age == 0 ? Messages.StaleStateCauseNever() : Messages.StaleStateCause(Util.getTimeSpanString(age));
+        }
+    }
+
+
+    @Extension
+    public static final class DescriptorImpl extends TriggerDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.StateRefreshTriggerName();
+        }
+
+
+        @Override
+        public boolean isApplicable(Item item) {
+            return item instanceof AbstractProject && item instanceof BuildableItemWithBuildWrappers;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+import java.util.List;
+
+
+/**
+ * Provider API calls of a build, see {@link ProviderApiStats}.
+ */
+public class TerraformApiCallAction implements RunAction2 {
+
+    private final ProviderApiStats stats;
+    private transient Run<?, ?> run;
+
+
+    TerraformApiCallAction(ProviderApiStats stats) {
+        this.stats = stats;
+    }
+
+
+    public List<ProviderApiStats.Endpoint> getEndpoints() {
+        return stats.getEndpoints();
+    }
+
+
+    public int getRequests() {
+        return stats.getRequests();
+    }
+
+
+    public static String getDurationString(long duration) {
+        return Util.getTimeSpanString(duration);
+    }
+
+
+    public Run<?, ?> getRun() {
+        return this.run;
+    }
+
+
+    public String getIconFileName() {
+        return "network.png";
+    }
+
+
+    public String getDisplayName() {
+        return Messages.ApiCallActionName();
+    }
+
+
+    public String getUrlName() {
+        return "terraform-api-calls";
+    }
+
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+}
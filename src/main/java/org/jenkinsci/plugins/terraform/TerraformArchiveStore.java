@@ -0,0 +1,208 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.ProxyConfiguration;
+
+import hudson.model.TaskListener;
+
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.HttpURLConnection;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Terraform release archives kept on the controller, so that each version and platform is
+ * fetched from the release site (or imported from a local directory) only once.
+ *
+ * Every archive is verified against the SHA256SUMS file published with its release before
+ * it is stored, and is only handed out once verified. Interrupted downloads are kept as
+ * partial files and resumed by the next install.
+ */
+class TerraformArchiveStore {
+
+    static final String STORE_DIR_NAME = "terraform-plugin/archives";
+
+    private static final String VERIFIED_SUFFIX = ".sha256";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final File root;
+
+
+    TerraformArchiveStore(File root) {
+        this.root = root;
+    }
+
+
+    static TerraformArchiveStore get() {
+        return new TerraformArchiveStore(new File(Jenkins.getInstance().getRootDir(), STORE_DIR_NAME));
+    }
+
+
+    static String archiveName(String version, String platform) {
+        return "terraform_" + version + "_" + platform + ".zip";
+    }
+
+
+    static String checksumsName(String version) {
+        return "terraform_" + version + "_SHA256SUMS";
+    }
+
+
+    /**
+     * Returns the published SHA-256 checksum of the archive of the given version and platform.
+     *
+     * @param source release site base URL, used when the local directory does not hold the file
+     * @param localDirectory controller directory to import release files from, or null
+     */
+    String getChecksum(String version, String platform, String source, String localDirectory, TaskListener log) throws IOException {
+        File dir = new File(root, version);
+        File checksums = new File(dir, checksumsName(version));
+        synchronized (lockFor(checksums)) {
+            if (!checksums.isFile()) {
+                File partial = new File(dir, checksums.getName() + PARTIAL_SUFFIX);
+                fetch(source, localDirectory, version, checksums.getName(), partial, log);
+                Files.move(partial.toPath(), checksums.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        String name = archiveName(version, platform);
+        String checksum = parseChecksums(new String(Files.readAllBytes(checksums.toPath()), StandardCharsets.UTF_8)).get(name);
+        if (checksum == null) {
+            throw new FileNotFoundException(Messages.ArchiveChecksumNotFound(name, checksums.getName()));
+        }
+        return checksum;
+    }
+
+
+    /**
+     * Returns the verified archive of the given version and platform, fetching it first if needed.
+     */
+    File getArchive(String version, String platform, String checksum, String source, String localDirectory, TaskListener log) throws IOException {
+        File dir = new File(root, version);
+        File archive = new File(dir, archiveName(version, platform));
+        File verified = new File(dir, archive.getName() + VERIFIED_SUFFIX);
+
+        synchronized (lockFor(archive)) {
+            if (archive.isFile() && verified.isFile() &&
+                checksum.equals(new String(Files.readAllBytes(verified.toPath()), StandardCharsets.UTF_8).trim())) {
+                return archive;
+            }
+
+            File partial = new File(dir, archive.getName() + PARTIAL_SUFFIX);
+            fetch(source, localDirectory, version, archive.getName(), partial, log);
+
+            String actual = sha256(partial);
+            if (!checksum.equalsIgnoreCase(actual)) {
+                Files.deleteIfExists(partial.toPath());
+                throw new IOException(Messages.ArchiveChecksumMismatch(archive.getName(), checksum, actual));
+            }
+
+            Files.move(partial.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.write(verified.toPath(), checksum.getBytes(StandardCharsets.UTF_8));
+            return archive;
+        }
+    }
+
+
+    /**
+     * Parses a SHA256SUMS file into a map of file name to checksum.
+     */
+    static Map<String, String> parseChecksums(String contents) {
+        Map<String, String> result = new HashMap<>();
+        for (String line : contents.split("\\r?\\n")) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 2) {
+                // sha256sum marks binary mode with a leading '*'.
+                result.put(fields[1].startsWith("*") ? fields[1].substring(1) : fields[1], fields[0].toLowerCase());
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Fetches a release file into the target file. A download resumes from the end of an
+     * existing target file when the release site supports range requests.
+     */
+    private void fetch(String source, String localDirectory, String version, String name, File target, TaskListener log) throws IOException {
+        target.getParentFile().mkdirs();
+
+        if (localDirectory != null) {
+            File local = new File(localDirectory, name);
+            if (!local.isFile()) {
+                local = new File(new File(localDirectory, version), name);
+            }
+            if (local.isFile()) {
+                log.getLogger().println(Messages.ArchiveImported(local));
+                Files.copy(local.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+        }
+
+        URL url = new URL(source + "/" + version + "/" + name);
+        long offset = target.isFile() ? target.length() : 0;
+        URLConnection connection = ProxyConfiguration.open(url);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+
+        boolean resumed = offset > 0 && connection instanceof HttpURLConnection &&
+                ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+        if (resumed) {
+            log.getLogger().println(Messages.ArchiveResuming(url, offset));
+        } else {
+            log.getLogger().println(Messages.ArchiveDownloading(url));
+        }
+
+        try (InputStream in = connection.getInputStream();
+             OutputStream out = new FileOutputStream(target, resumed)) {
+            Util.copyStream(in, out);
+        }
+    }
+
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            while (in.read(buffer) != -1) {
+                // digest is updated as the stream is read
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+
+    private static Object lockFor(File file) {
+        return LOCKS.computeIfAbsent(file.getAbsolutePath(), k -> new Object());
+    }
+}
@@ -3,6 +3,8 @@ package org.jenkinsci.plugins.terraform;
 
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Util;
+import hudson.Proc;
 import hudson.Launcher;
 import hudson.Extension;
 import hudson.CopyOnWrite;
@@ -10,28 +12,64 @@ import hudson.CopyOnWrite;
 import hudson.util.ListBoxModel;
 import hudson.util.ArgumentListBuilder;
 
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.Item;
+import hudson.model.Cause;
+import hudson.model.Result;
+import hudson.model.Queue;
+import hudson.model.Action;
+import hudson.model.Actionable;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
 import hudson.model.Computer;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
 import hudson.model.AbstractProject;
 import hudson.model.EnvironmentContributingAction;
+import hudson.model.BuildableItemWithBuildWrappers;
 
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
 import org.jenkins_ci.plugins.run_condition.core.BooleanCondition;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.logging.Logger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
 
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.FileNotFoundException;
 
+import java.nio.charset.StandardCharsets;
+
 class VariableInjectionAction implements EnvironmentContributingAction {
 
     private String key;
@@ -78,16 +116,46 @@ public class TerraformBuildWrapper extends BuildWrapper {
     private final boolean doNotLock;
     private final boolean useColorizedStdout;
     private final boolean useRemoteState;
-    private FilePath stateFile;
-    private FilePath configFile;
-    private FilePath variablesFile;
-    private FilePath workspacePath;
-    private FilePath workingDirectory;
-
-    private static final String WORK_DIR_NAME = "terraform-plugin";
-    private static final String CONFIG_FILE_NAME = "terraform";
-    private static final String STATE_FILE_NAME = "terraform-plugin.tfstate";
+    private boolean useProviderCache;
+    private boolean useIncrementalInit;
+    private boolean doPlan;
+    private boolean useJsonOutput;
+    private boolean useAgentExecution;
+    private boolean useModuleCache;
+    private boolean useModuleCacheOffline;
+    private boolean useProviderMirror;
+    private boolean useStateLock;
+    private String stateName;
+    private boolean doRefreshOnly;
+    private boolean useFastApply;
+    private Integer maxStateAge;
+    private boolean doArchivePlan;
+    private boolean useAsyncDestroy;
+    private boolean doExportOutputs;
+    private boolean doSummarizePlan;
+    private boolean useCompactOutput;
+    private boolean useApiDiagnostics;
+    private boolean keepProviderLog;
+    private String planJob;
+    private String planBuild;
+    private Integer parallelism;
+    private boolean useAdaptiveParallelism;
+    private Integer maxParallelism;
+    private Integer providerCacheQuota;
+
+    private static final String CONFIG_FILE_NAME = "terraform.tf";
+    private static final String INLINE_DIR_PREFIX = "inline-";
+    private static final int MAX_INLINE_DIRS = 4;
     private static final String ENVIRONMENT_VARIABLES = "TF_IN_AUTOMATION=true";
+    private static final String PLUGIN_CACHE_VARIABLE = "TF_PLUGIN_CACHE_DIR";
+    private static final String CLI_CONFIG_VARIABLE = "TF_CLI_CONFIG_FILE";
+    private static final String LOG_PATH_VARIABLE = "TF_LOG_PATH";
+    private static final String LOG_PROVIDER_VARIABLE = "TF_LOG_PROVIDER";
+    private static final String MIRROR_CONFIG_FILE_NAME = "provider-mirror.tfrc";
+    private static final int DEFAULT_PROVIDER_CACHE_QUOTA = 2048;
+    private static final int DEFAULT_PROVIDER_MIRROR_QUOTA = 10240;
+    private static final int DEFAULT_MAX_PARALLELISM = 50;
+    private static final int DEFAULT_MAX_STATE_AGE = 60;
     private static final Logger LOGGER = Logger.getLogger(TerraformBuildWrapper.class.getName());
 
 
@@ -148,11 +216,21 @@ public class TerraformBuildWrapper extends BuildWrapper {
     public String getTerraformWorkspace() { return this.config.getTerraformWorkspace(); }
 
 
+    public String getTerraformWorkspaces() {
+        return this.config.getTerraformWorkspaces();
+    }
+
+
     public boolean getUseTerraformWorkspace() {
         return this.config.getUseTerraformWorkspace();
     }
 
 
+    public int getMaxParallelModules() {
+        return this.config.getMaxParallelModules();
+    }
+
+
     public boolean doGetUpdate() {
         return this.doGetUpdate;
     }
@@ -173,6 +251,17 @@ public class TerraformBuildWrapper extends BuildWrapper {
     }
 
 
+    public boolean getDoPlan() {
+        return this.doPlan;
+    }
+
+
+    @DataBoundSetter
+    public void setDoPlan(boolean doPlan) {
+        this.doPlan = doPlan;
+    }
+
+
     public boolean getDoNotLock() {
         return this.doNotLock;
     }
@@ -193,437 +282,1940 @@ public class TerraformBuildWrapper extends BuildWrapper {
     }
 
 
-    public String getDestroyCondition() { return this.destroyCondition == null ? "" : this.destroyCondition; }
+    public boolean getUseProviderCache() {
+        return this.useProviderCache;
+    }
 
 
-    public String getEnvironmentVariables() { return this.environmentVariables == null ? "" : this.environmentVariables; }
+    @DataBoundSetter
+    public void setUseProviderCache(boolean useProviderCache) {
+        this.useProviderCache = useProviderCache;
+    }
 
 
-    public String getTerraformInstallation() {
-        return this.terraformInstallation;
+    public int getProviderCacheQuota() {
+        return this.providerCacheQuota == null ? DEFAULT_PROVIDER_CACHE_QUOTA : this.providerCacheQuota;
     }
 
 
-    public String getVariables() {
-        return this.variables == null ? "" : this.variables;
+    @DataBoundSetter
+    public void setProviderCacheQuota(int providerCacheQuota) {
+        this.providerCacheQuota = providerCacheQuota;
     }
 
 
-    public TerraformInstallation getInstallation() {
-        for (TerraformInstallation installation : ((DescriptorImpl) getDescriptor()).getInstallations()) {
-            if (terraformInstallation != null &&
-                installation.getName().equals(terraformInstallation)) {
-                return installation;
-            }
-        }
-        return null;
+    public boolean getUseIncrementalInit() {
+        return this.useIncrementalInit;
     }
 
 
-    @Override
-    public DescriptorImpl getDescriptor() {
-        return (DescriptorImpl) super.getDescriptor();
+    @DataBoundSetter
+    public void setUseIncrementalInit(boolean useIncrementalInit) {
+        this.useIncrementalInit = useIncrementalInit;
     }
 
 
-    public String getExecutable(EnvVars env, BuildListener listener, Launcher launcher) throws IOException, InterruptedException {
-        String executablePath = null;
-        try {
-            TerraformInstallation terraform = getInstallation().forNode(Computer.currentComputer().getNode(), listener).forEnvironment(env);
-            executablePath = terraform.getExecutablePath(launcher);
-        } catch (NullPointerException ex) {
-            throw new IOException(Messages.InstallationNotFound());
-        }
-        return executablePath;
+    public boolean getUseJsonOutput() {
+        return this.useJsonOutput;
     }
 
 
-    public void executeGet(AbstractBuild build, final Launcher launcher, final BuildListener listener) throws Exception {
-        ArgumentListBuilder args = new ArgumentListBuilder();
-        EnvVars env = build.getEnvironment(listener);
-
-        String executable = getExecutable(env, listener, launcher);
-        args.add(executable);
+    @DataBoundSetter
+    public void setUseJsonOutput(boolean useJsonOutput) {
+        this.useJsonOutput = useJsonOutput;
+    }
 
-        args.add("get");
 
-        if (getDoGetUpdate()) {
-            args.add("-update");
-        }
+    public boolean getUseAgentExecution() {
+        return this.useAgentExecution;
+    }
 
-        if (!getUseColorizedStdout()) {
-            args.add("-no-color");
-        }
 
-        LOGGER.info("Launching Terraform get: "+args.toString());
+    @DataBoundSetter
+    public void setUseAgentExecution(boolean useAgentExecution) {
+        this.useAgentExecution = useAgentExecution;
+    }
 
-        int result = launcher.launch()
-                .pwd(workspacePath)
-                .cmds(args)
-                .stdout(listener)
-                .envs(promoteEnvVars(env))
-                .join();
 
-        if (result != 0) {
-            throw new Exception("Terraform get failed: "+ result);
-        }
+    public boolean getUseModuleCache() {
+        return this.useModuleCache;
     }
 
 
-    public void executeInit(AbstractBuild build, final Launcher launcher, final BuildListener listener) throws Exception {
-        ArgumentListBuilder args = new ArgumentListBuilder();
-        EnvVars env = build.getEnvironment(listener);
-
-        String executable = getExecutable(env, listener, launcher);
-        args.add(executable);
+    @DataBoundSetter
+    public void setUseModuleCache(boolean useModuleCache) {
+        this.useModuleCache = useModuleCache;
+    }
 
-        args.add("init");
 
-        args.add("-input=false");
+    public boolean getUseModuleCacheOffline() {
+        return this.useModuleCacheOffline;
+    }
 
-        if (doGetUpdate) {
-            args.add("-upgrade=true");
-        }
 
-        if (getDoNotLock()) {
-            args.add("-lock=false");
-        }
+    @DataBoundSetter
+    public void setUseModuleCacheOffline(boolean useModuleCacheOffline) {
+        this.useModuleCacheOffline = useModuleCacheOffline;
+    }
 
-        if (!getUseColorizedStdout()) {
-            args.add("-no-color");
-        }
 
-        LOGGER.info("Launching Terraform init: " + args.toString());
+    public boolean getUseProviderMirror() {
+        return this.useProviderMirror;
+    }
 
-        int result = launcher.launch()
-                .pwd(workspacePath)
-                .cmds(args)
-                .stdout(listener)
-                .envs(promoteEnvVars(env))
-                .join();
 
-        if (result != 0) {
-            throw new Exception("Terraform init failed: "+ result);
-        }
+    @DataBoundSetter
+    public void setUseProviderMirror(boolean useProviderMirror) {
+        this.useProviderMirror = useProviderMirror;
     }
 
 
-    public void executeWorkspace(AbstractBuild build, final Launcher launcher, final BuildListener listener, final String command) throws Exception {
-        String workspace = TokenMacro.expandAll(build, listener, getTerraformWorkspace());
-
-        // Ignore workspace management if not configured.
-        if (workspace.isEmpty()) {
-            return;
-        }
+    /**
+     * Value of -parallelism, or 0 to use Terraform's default. The initial value in adaptive mode.
+     */
+    public int getParallelism() {
+        return this.parallelism == null ? 0 : this.parallelism;
+    }
 
-        // Don't "new" or "delete" the "default" workspace.
-        if (!command.equals("select") && workspace.equals("default")) {
-            return;
-        }
 
-        // Recursive request to create a new workspace prior to selecting. If already exists, this is benign.
-        if (command.equals("select")) {
-            executeWorkspace(build, launcher, listener, "new");
-        }
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
 
-        ArgumentListBuilder args = new ArgumentListBuilder();
-        EnvVars env = build.getEnvironment(listener);
 
-        String executable = getExecutable(env, listener, launcher);
-        args.add(executable);
+    public boolean getUseAdaptiveParallelism() {
+        return this.useAdaptiveParallelism;
+    }
 
-        args.add("workspace");
 
-        args.add(command);
+    @DataBoundSetter
+    public void setUseAdaptiveParallelism(boolean useAdaptiveParallelism) {
+        this.useAdaptiveParallelism = useAdaptiveParallelism;
+    }
 
-        if (command == "new" || command == "delete" ) {
-            if (getDoNotLock()) {
-                args.add("-lock=false");
-            }
-        }
 
-        if (command == "delete") {
-            args.add("-force");
-        }
+    public int getMaxParallelism() {
+        return this.maxParallelism == null ? DEFAULT_MAX_PARALLELISM : this.maxParallelism;
+    }
 
-        if (command == "select") {
-            build.addAction(new VariableInjectionAction("TF_WORKSPACE", workspace));
-        }
 
-        args.add(workspace);
+    @DataBoundSetter
+    public void setMaxParallelism(int maxParallelism) {
+        this.maxParallelism = maxParallelism;
+    }
 
-        LOGGER.info("Launching Terraform workspace: "+args.toString());
 
-        launcher.launch()
-                .pwd(workspacePath)
-                .cmds(args)
-                .stdout(listener)
-                .envs(promoteEnvVars(env))
-                .join();
+    public boolean getUseStateLock() {
+        return this.useStateLock;
     }
 
 
-    public void executeApply(AbstractBuild build, final Launcher launcher, final BuildListener listener) throws Exception {
-        ArgumentListBuilder args = new ArgumentListBuilder();
-        EnvVars env = build.getEnvironment(listener);
+    @DataBoundSetter
+    public void setUseStateLock(boolean useStateLock) {
+        this.useStateLock = useStateLock;
+    }
 
-        String executable = getExecutable(env, listener, launcher);
-        args.add(executable);
 
-        args.add("apply");
-        args.add("-input=false");
-        args.add("-auto-approve");
-        if (!getUseRemoteState()) {
-            args.add("-state="+stateFile.getRemote());
-        }
+    public String getStateName() {
+        return this.stateName == null ? "" : this.stateName;
+    }
 
-        if (getDoNotLock()) {
-            args.add("-lock=false");
-        }
 
-        if (!isNullOrEmpty(getVariables())) {
-            variablesFile = workingDirectory.createTextTempFile("variables", ".tfvars", TokenMacro.expandAll(build, listener, getVariables()));
-            args.add("-var-file="+variablesFile.getRemote());
-        }
+    @DataBoundSetter
+    public void setStateName(String stateName) {
+        this.stateName = Util.fixEmptyAndTrim(stateName);
+    }
 
-        if (!getUseColorizedStdout()) {
-            args.add("-no-color");
-        }
 
-        LOGGER.info("Launching Terraform apply: "+args.toString());
+    public boolean getDoRefreshOnly() {
+        return this.doRefreshOnly;
+    }
 
-        int result = launcher.launch()
-                .pwd(workspacePath)
-                .cmds(args)
-                .stdout(listener)
-                .envs(promoteEnvVars(env))
-                .join();
 
-        if (result != 0) {
-            throw new Exception("Terraform apply failed: "+ result);
-        }
+    @DataBoundSetter
+    public void setDoRefreshOnly(boolean doRefreshOnly) {
+        this.doRefreshOnly = doRefreshOnly;
     }
 
-    @Override
-    public Environment setUp(AbstractBuild build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
-        try {
-            // get executable and var-file from environment
-            EnvVars env = build.getEnvironment(listener);
-            setupWorkspace(build, listener, env);
-
-            if (getMode() == Configuration.Mode.FILE) {
-                executeWorkspace(build, launcher, listener, "select");
-            }
 
-            String executable = getExecutable(env, listener, launcher);
-            String variables = getVariables();
-            variables = TokenMacro.expandAll(build, listener, variables);
-            variablesFile = workingDirectory.createTextTempFile("variables", ".tfvars", variables);
-            // Create actions to inject environment variables
-            VariableInjectionAction tfbinAction = new VariableInjectionAction("TF_BIN", executable);
-            VariableInjectionAction tfvarAction = new VariableInjectionAction("TF_VAR", variablesFile.getRemote());
-            // Inject environment variables
-            build.addAction(tfbinAction);
-            build.addAction(tfvarAction);
+    public boolean getUseFastApply() {
+        return this.useFastApply;
+    }
 
-            if (getDoInit()) {
-                executeInit(build, launcher, listener);
-            }
 
-            executeGet(build, launcher, listener);
+    @DataBoundSetter
+    public void setUseFastApply(boolean useFastApply) {
+        this.useFastApply = useFastApply;
+    }
 
-            if (! getDoNotApply()) {
-              executeApply(build, launcher, listener);
-            }
-        } catch (Exception ex) {
-            LOGGER.severe(exceptionToString(ex));
-            listener.fatalError(exceptionToString(ex));
-            deleteTemporaryFiles();
-            return null;
-        }
 
-        return new Environment() {
+    /**
+     * Age in minutes up to which a refreshed state is trusted by fast applies.
+     */
+    public int getMaxStateAge() {
+        return this.maxStateAge == null ? DEFAULT_MAX_STATE_AGE : this.maxStateAge;
+    }
 
-            @Override
-            public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
 
-                if (getDoDestroy()) {
+    @DataBoundSetter
+    public void setMaxStateAge(int maxStateAge) {
+        this.maxStateAge = maxStateAge;
+    }
 
-                    try {
-                        String condition = getDestroyCondition();
-                        boolean destroyConditionPass = condition.isEmpty() ||
-                                new BooleanCondition(condition).runPerform(build, listener);
 
-                        if (destroyConditionPass) {
-                            EnvVars env = build.getEnvironment(listener);
+    public boolean getUseCompactOutput() {
+        return this.useCompactOutput;
+    }
 
-                            ArgumentListBuilder args = new ArgumentListBuilder();
-                            args.add(getExecutable(env, listener, launcher));
 
-                            args.add("destroy");
+    @DataBoundSetter
+    public void setUseCompactOutput(boolean useCompactOutput) {
+        this.useCompactOutput = useCompactOutput;
+    }
 
-                            args.add("-input=false");
-                            args.add("-auto-approve");
 
-                            if (!getUseRemoteState()) {
-                                args.add("-state=" + stateFile.getRemote());
-                            }
+    public boolean getDoSummarizePlan() {
+        return this.doSummarizePlan;
+    }
 
-                            if (!isNullOrEmpty(getVariables())) {
-                                args.add("-var-file=" + variablesFile.getRemote());
-                            }
 
-                            if (!getUseColorizedStdout()) {
-                                args.add("-no-color");
-                            }
+    @DataBoundSetter
+    public void setDoSummarizePlan(boolean doSummarizePlan) {
+        this.doSummarizePlan = doSummarizePlan;
+    }
 
-                            LOGGER.info("Launching Terraform destroy: " + args.toString());
 
-                            int result = launcher.launch()
-                                    .pwd(workspacePath)
-                                    .cmds(args)
-                                    .stdout(listener)
-                                    .envs(promoteEnvVars(env))
-                                    .join();
+    public boolean getDoExportOutputs() {
+        return this.doExportOutputs;
+    }
 
-                            if (result != 0) {
-                                deleteTemporaryFiles();
-                                return false;
-                            }
 
-                            if (getMode() == Configuration.Mode.FILE) {
-                                executeWorkspace(build, launcher, listener, "delete");
-                            }
-                        }
-                    } catch (Exception ex) {
-                        LOGGER.severe(exceptionToString(ex));
-                        listener.fatalError(exceptionToString(ex));
-                        deleteTemporaryFiles();
-                        return false;
-                    }
-                }
+    @DataBoundSetter
+    public void setDoExportOutputs(boolean doExportOutputs) {
+        this.doExportOutputs = doExportOutputs;
+    }
 
-                deleteTemporaryFiles();
 
-                return true;
-            }
-        };
+    public boolean getUseApiDiagnostics() {
+        return this.useApiDiagnostics;
     }
 
 
-    private String[] promoteEnvVars(EnvVars env) {
-        String executionEnvironment = (environmentVariables == null ? "" : environmentVariables) + "\n" + ENVIRONMENT_VARIABLES;
+    @DataBoundSetter
+    public void setUseApiDiagnostics(boolean useApiDiagnostics) {
+        this.useApiDiagnostics = useApiDiagnostics;
+    }
 
-        // Split flat string into array of line-delimited string of name=value or name variables.
-        String envs[] = executionEnvironment.split("\\r?\\n\\r?");
 
-        List<String> result = new LinkedList<>();
-        // In-place replacement of <name> with build env value of matching name. If both
-        // execution <environmentVariables> and build <env> have variable, the environmentVariable
-        // wins as it is more explicitly scoped.
-        for (int i = 0; i < envs.length; ++i) {
-            String var = envs[i];
-            if (var.isEmpty()) continue;
-            if (var.indexOf('=') == -1) {
-                String value = env.get(var);
-                if (value != null) {
-                    var = var + '=' + value;
-                }
-            }
+    public boolean getKeepProviderLog() {
+        return this.keepProviderLog;
+    }
 
-            result.add(var);
-        }
 
-        return result.toArray(new String[0]);
+    @DataBoundSetter
+    public void setKeepProviderLog(boolean keepProviderLog) {
+        this.keepProviderLog = keepProviderLog;
     }
 
 
-    private void setupWorkspace(AbstractBuild build, final BuildListener listener, EnvVars env) throws FileNotFoundException, Exception {
-        switch (getMode()) {
-            case INLINE:
-                workingDirectory = new FilePath(build.getWorkspace(), WORK_DIR_NAME);
-                String inlineConfig = getInlineConfig();
-                inlineConfig = TokenMacro.expandAll(build, listener, inlineConfig);
-                configFile = workingDirectory.createTextTempFile(CONFIG_FILE_NAME, ".tf", inlineConfig);
-                workspacePath = workingDirectory;
-                if (configFile == null || !configFile.exists()) {
-                    throw new FileNotFoundException(Messages.ConfigurationNotCreated());
-                }
-                break;
-            case FILE:
-                String configPath = getFileConfig();
-                if (!isNullOrEmpty(configPath)) {
-                    configPath = TokenMacro.expandAll(build, listener, configPath);
-                    workspacePath = new FilePath(build.getWorkspace(), configPath);
-                    if (!workspacePath.isDirectory()) {
-                        throw new FileNotFoundException(Messages.ConfigurationPathNotFound(workspacePath));
-                    }
-                } else {
-                    workspacePath = build.getWorkspace();
-                }
+    public boolean getUseAsyncDestroy() {
+        return this.useAsyncDestroy;
+    }
 
-                if (getUseTerraformWorkspace()) {
-                    workingDirectory = new FilePath(build.getWorkspace(), configPath + "/.terraform");
-                }
-                else {
-                    workingDirectory = new FilePath(build.getWorkspace(), WORK_DIR_NAME);
-                }
 
-                break;
-            default:
-                throw new Exception(Messages.InvalidConfigMode());
-        }
+    @DataBoundSetter
+    public void setUseAsyncDestroy(boolean useAsyncDestroy) {
+        this.useAsyncDestroy = useAsyncDestroy;
+    }
 
-        if (!getUseRemoteState()) {
-            stateFile = new FilePath(workingDirectory, STATE_FILE_NAME);
-        }
 
-        build.addAction(new VariableInjectionAction("TF_CWD", workspacePath.getRemote()));
+    public boolean getDoArchivePlan() {
+        return this.doArchivePlan;
     }
 
 
-    private void deleteTemporaryFiles() throws IOException, InterruptedException {
-        if (variablesFile != null && variablesFile.exists())
-            variablesFile.delete();
+    @DataBoundSetter
+    public void setDoArchivePlan(boolean doArchivePlan) {
+        this.doArchivePlan = doArchivePlan;
+    }
 
-        if (configFile != null && configFile.exists())
-            configFile.delete();
+
+    /**
+     * Full name of the job whose saved plan is applied instead of planning, empty to plan as usual.
+     */
+    public String getPlanJob() {
+        return this.planJob == null ? "" : this.planJob;
     }
 
 
-    private boolean isNullOrEmpty(String value) {
-        return (value == null || value.trim().isEmpty()) ? true : false;
+    @DataBoundSetter
+    public void setPlanJob(String planJob) {
+        this.planJob = Util.fixEmptyAndTrim(planJob);
     }
 
 
-    private String exceptionToString(Exception ex) {
-        StringWriter writer = new StringWriter();
-        ex.printStackTrace(new PrintWriter(writer));
-        return writer.toString();
+    /**
+     * Number of the build of the plan job whose plan is applied, empty for the upstream build
+     * of the plan job or else its last successful build.
+     */
+    public String getPlanBuild() {
+        return this.planBuild == null ? "" : this.planBuild;
     }
 
 
-    @Extension
-    public static final class DescriptorImpl extends BuildWrapperDescriptor {
+    @DataBoundSetter
+    public void setPlanBuild(String planBuild) {
+        this.planBuild = Util.fixEmptyAndTrim(planBuild);
+    }
 
-        @CopyOnWrite
-        private volatile TerraformInstallation[] installations = new TerraformInstallation[0];
 
+    /**
+     * Identity of the state the builds of the given job work on: the configured state name
+     * or, by default, the job with its root module and workspace name. Build parameters are
+     * substituted.
+     */
+    String getStateKey(Item job, Map<String, String> parameters) {
+        if (stateName != null) {
+            return Util.replaceMacro(stateName, parameters);
+        }
 
-        public DescriptorImpl() {
-            super(TerraformBuildWrapper.class);
-            load();
+        String module = getMode() == Configuration.Mode.INLINE ? "inline" : Util.fixNull(getFileConfig()).trim();
+        String key = job.getFullName() + ":" + module;
+        if (!isNullOrEmpty(getTerraformWorkspace())) {
+            key += ":" + getTerraformWorkspace();
         }
+        return Util.replaceMacro(key, parameters);
+    }
 
 
-        public TerraformInstallation[] getInstallations() {
-            return this.installations;
-        }
+    /**
+     * Key of the Jenkins-level state lock.
+     *
+     * @return the state key, or null if the state lock is not used
+     */
+    String getStateLockKey(Item job, Map<String, String> parameters) {
+        return getUseStateLock() ? getStateKey(job, parameters) : null;
+    }
 
 
-        public void setInstallations(TerraformInstallation[] installations) {
-            this.installations = installations;
-            save();
+    /**
+     * Returns the parameter values of a build or queue item, by name.
+     */
+    static Map<String, String> getParameters(Actionable actionable) {
+        Map<String, String> result = new HashMap<>();
+        for (ParametersAction action : actionable.getActions(ParametersAction.class)) {
+            for (ParameterValue parameter : action.getParameters()) {
+                Object value = parameter.getValue();
+                if (value != null) {
+                    result.put(parameter.getName(), String.valueOf(value));
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the Terraform build wrapper of a queued task, or null if it does not use one.
+     */
+    static TerraformBuildWrapper forTask(Queue.Task task) {
+        if (!(task instanceof BuildableItemWithBuildWrappers)) {
+            return null;
+        }
+        return ((BuildableItemWithBuildWrappers) task).getBuildWrappersList().get(TerraformBuildWrapper.class);
+    }
+
+
+    public String getDestroyCondition() { return this.destroyCondition == null ? "" : this.destroyCondition; }
+
+
+    public String getEnvironmentVariables() { return this.environmentVariables == null ? "" : this.environmentVariables; }
+
+
+    public String getTerraformInstallation() {
+        return this.terraformInstallation;
+    }
+
+
+    public String getVariables() {
+        return this.variables == null ? "" : this.variables;
+    }
+
+
+    public TerraformInstallation getInstallation() {
+        for (TerraformInstallation installation : ((DescriptorImpl) getDescriptor()).getInstallations()) {
+            if (terraformInstallation != null &&
+                installation.getName().equals(terraformInstallation)) {
+                return installation;
+            }
+        }
+        return null;
+    }
+
+
+    @Override
+    public Collection<? extends Action> getProjectActions(AbstractProject job) {
+        return Collections.singletonList(new TerraformMetricsProjectAction(job));
+    }
+
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return (DescriptorImpl) super.getDescriptor();
+    }
+
+
+    public String getExecutable(EnvVars env, BuildListener listener, Launcher launcher) throws IOException, InterruptedException {
+        String executablePath = null;
+        try {
+            TerraformInstallation terraform = getInstallation().forNode(Computer.currentComputer().getNode(), listener).forEnvironment(env);
+            executablePath = terraform.getExecutablePath(launcher);
+        } catch (NullPointerException ex) {
+            throw new IOException(Messages.InstallationNotFound());
+        }
+        return executablePath;
+    }
+
+
+    /**
+     * Resolves the executable on the build node, installing it if needed, and records how long it took.
+     */
+    private String getExecutable(AbstractBuild build, EnvVars env, BuildListener listener, Launcher launcher) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        String executable = getExecutable(env, listener, launcher);
+        recordPhase(build, "", TerraformMetricsAction.EXECUTABLE, System.currentTimeMillis() - start, 0, 0);
+        WarmNodeRegistry.recordInstallation(getTerraformInstallation(), build.getBuiltOnStr());
+        return executable;
+    }
+
+
+    /**
+     * Launches a Terraform command in the root module and records its duration.
+     *
+     * @return the exit code of the command
+     */
+    private int launch(AbstractBuild build, ExecutionContext context, Launcher launcher, RootModule module, String phase, ArgumentListBuilder args, OutputStream stdout) throws IOException, InterruptedException {
+        TerraformParallelismAction parallelism = build.getAction(TerraformParallelismAction.class);
+        ThrottleDetectingOutputStream throttling = null;
+        if (parallelism != null) {
+            throttling = new ThrottleDetectingOutputStream(stdout);
+            stdout = throttling;
+        }
+
+        long start = System.currentTimeMillis();
+        Proc proc = launcher.launch()
+                .pwd(module.getWorkspacePath())
+                .cmds(args)
+                .stdout(stdout)
+                .envs(getEnvs(context, module))
+                .start();
+        long startOverhead = System.currentTimeMillis() - start;
+
+        int result = proc.join();
+        recordPhase(build, module.getName(), phase, System.currentTimeMillis() - start, startOverhead, result);
+
+        if (throttling != null) {
+            throttling.close();
+            parallelism.addThrottled(throttling.getThrottled());
+        }
+        return result;
+    }
+
+
+    /**
+     * Notes that the build ran apply or destroy, for the adaptive parallelism.
+     */
+    private static void recordApplied(AbstractBuild build) {
+        TerraformParallelismAction parallelism = build.getAction(TerraformParallelismAction.class);
+        if (parallelism != null) {
+            parallelism.setApplied();
+        }
+    }
+
+
+    private void recordPhase(AbstractBuild build, String module, String phase, long duration, long startOverhead, int exitCode) {
+        recordPhase(build, new TerraformMetricsAction.PhaseMetric(module, phase, duration, startOverhead, exitCode));
+    }
+
+
+    private void recordPhase(AbstractBuild build, TerraformMetricsAction.PhaseMetric metric) {
+        TerraformMetricsAction.forRun(build).add(metric);
+
+        for (TerraformMetricsListener metricsListener : TerraformMetricsListener.all()) {
+            try {
+                metricsListener.onPhaseCompleted(build, metric);
+            } catch (RuntimeException ex) {
+                // A broken listener must not fail the build.
+                LOGGER.warning(exceptionToString(ex));
+            }
+        }
+    }
+
+
+    public void executeGet(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = getGetArgs(context);
+
+        LOGGER.info("Launching Terraform get: "+args.toString());
+
+        int result = launch(build, context, launcher, module, TerraformMetricsAction.GET, args, listener.getLogger());
+
+        if (result != 0) {
+            throw new Exception("Terraform get failed: "+ result);
+        }
+    }
+
+
+    public void executeInit(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = getInitArgs(context);
+
+        LOGGER.info("Launching Terraform init: " + args.toString());
+
+        Semaphore cacheLock = context.getProviderCache() == null ? null : context.getProviderCache().lock();
+
+        try {
+            int result = launch(build, context, launcher, module, TerraformMetricsAction.INIT, args, listener.getLogger());
+
+            if (result != 0) {
+                throw new Exception("Terraform init failed: "+ result);
+            }
+
+            if (context.getProviderCache() != null) {
+                int evicted = context.getProviderCache().touchAndEvict(new FilePath(module.getWorkspacePath(), ProviderPluginCache.LOCK_FILE_NAME));
+                if (evicted > 0) {
+                    listener.getLogger().println(Messages.ProviderCacheEvicted(evicted, getProviderCacheQuota()));
+                }
+            }
+        } finally {
+            if (cacheLock != null) {
+                cacheLock.release();
+            }
+        }
+    }
+
+
+    public void executeWorkspace(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module, final String command) throws Exception {
+        String workspace = getWorkspace(context, module);
+
+        // Ignore workspace management if not configured.
+        if (workspace.isEmpty()) {
+            return;
+        }
+
+        // Don't "new" or "delete" the "default" workspace.
+        if (!command.equals("select") && workspace.equals("default")) {
+            return;
+        }
+
+        // Recursive request to create a new workspace prior to selecting. If already exists, this is benign.
+        if (command.equals("select")) {
+            executeWorkspace(build, context, launcher, listener, module, "new");
+        }
+
+        ArgumentListBuilder args = getWorkspaceArgs(context, command, workspace);
+
+        if (command.equals("select") && module.getTerraformWorkspace() == null) {
+            build.addAction(new VariableInjectionAction("TF_WORKSPACE", workspace));
+        }
+
+        LOGGER.info("Launching Terraform workspace: "+args.toString());
+
+        launch(build, context, launcher, module, TerraformMetricsAction.WORKSPACE, args, listener.getLogger());
+    }
+
+
+    /**
+     * Runs terraform plan with -detailed-exitcode, saving the plan for a subsequent apply.
+     *
+     * @return true if the plan contains changes, false if the infrastructure is up to date
+     */
+    public boolean executePlan(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        module.getWorkingDirectory().mkdirs();
+        FilePath planFile = module.getWorkingDirectory().createTempFile("plan", ".tfplan");
+        module.setPlanFile(planFile);
+
+        ArgumentListBuilder args = getPlanArgs(context, module, planFile.getRemote());
+
+        LOGGER.info("Launching Terraform plan: "+args.toString());
+
+        OutputStream stdout = getStdout(build, listener, module, TerraformMetricsAction.PLAN);
+        int result;
+        try {
+            result = launch(build, context, launcher, module, TerraformMetricsAction.PLAN, args, stdout);
+        } finally {
+            closeStdout(listener, stdout);
+        }
+
+        // -detailed-exitcode: 0 = no changes, 1 = error, 2 = changes present
+        if (result != 0 && result != 2) {
+            throw new Exception("Terraform plan failed: "+ result);
+        }
+
+        if (context.getModules().size() == 1) {
+            build.addAction(new VariableInjectionAction("TF_PLAN", planFile.getRemote()));
+        }
+
+        return result == 2;
+    }
+
+
+    /**
+     * Summarizes the saved plan of the root module on the build node, see {@link PlanSummary}.
+     */
+    public void executeShow(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+        args.add("show");
+        args.add("-json");
+        args.add("-no-color");
+        args.add(module.getPlanFile().getRemote());
+
+        LOGGER.info("Launching Terraform show: " + args.toString());
+
+        PlanSummary.Summarize.Result result = launcher.getChannel().call(new PlanSummary.Summarize(listener, module, getEnvs(context, module), args));
+        recordPhase(build, module.getName(), TerraformMetricsAction.SHOW, result.getDuration(), result.getStartOverhead(), result.getExitCode());
+        if (result.getExitCode() != 0) {
+            throw new Exception("Terraform show failed: " + result.getExitCode());
+        }
+
+        PlanSummary summary = result.getSummary();
+        TerraformPlanSummaryAction.forRun(build).add(summary);
+        listener.getLogger().println(Messages.PlanSummary(summary.getTotal(PlanSummary.Action.CREATE), summary.getTotal(PlanSummary.Action.UPDATE),
+                summary.getTotal(PlanSummary.Action.REPLACE), summary.getTotal(PlanSummary.Action.DELETE)));
+    }
+
+
+    public void executeApply(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        FilePath planFile = module.getPlanFile();
+        ArgumentListBuilder args = getApplyArgs(context, module, planFile == null ? null : planFile.getRemote());
+
+        LOGGER.info("Launching Terraform apply: "+args.toString());
+
+        OutputStream stdout = getStdout(build, listener, module, TerraformMetricsAction.APPLY);
+        int result;
+        try {
+            result = launch(build, context, launcher, module, TerraformMetricsAction.APPLY, args, stdout);
+        } finally {
+            closeStdout(listener, stdout);
+        }
+        recordApplied(build);
+
+        if (result != 0) {
+            throw new Exception("Terraform apply failed: "+ result);
+        }
+    }
+
+
+    public void executeRefresh(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = getRefreshArgs(context, module);
+
+        LOGGER.info("Launching Terraform refresh: " + args.toString());
+
+        OutputStream stdout = getStdout(build, listener, module, TerraformMetricsAction.REFRESH);
+        int result;
+        try {
+            result = launch(build, context, launcher, module, TerraformMetricsAction.REFRESH, args, stdout);
+        } finally {
+            closeStdout(listener, stdout);
+        }
+
+        if (result != 0) {
+            throw new Exception("Terraform refresh failed: " + result);
+        }
+    }
+
+
+    public void executeDestroy(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = getDestroyArgs(context, module, context.getVariablesFile(), getUseJsonOutput());
+
+        LOGGER.info("Launching Terraform destroy: " + args.toString());
+
+        OutputStream stdout = getStdout(build, listener, module, TerraformMetricsAction.DESTROY);
+        int result;
+        try {
+            result = launch(build, context, launcher, module, TerraformMetricsAction.DESTROY, args, stdout);
+        } finally {
+            closeStdout(listener, stdout);
+        }
+        recordApplied(build);
+
+        if (result != 0) {
+            throw new Exception("Terraform destroy failed: "+ result);
+        }
+    }
+
+
+    /**
+     * Reads the outputs of the root module once and adds them to the environment of the build,
+     * see {@link TerraformOutputs}.
+     */
+    public void executeOutput(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("output");
+        args.add("-json");
+
+        if (!getUseRemoteState()) {
+            args.add("-state=" + module.getStateFile().getRemote());
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        LOGGER.info("Launching Terraform output: " + args.toString());
+
+        ByteArrayOutputStream outputs = new ByteArrayOutputStream();
+        int result = launch(build, context, launcher, module, TerraformMetricsAction.OUTPUT, args, outputs);
+        if (result != 0) {
+            throw new Exception("Terraform output failed: " + result);
+        }
+
+        String prefix = context.getModules().size() == 1 ? "" : TerraformOutputs.toVariableName(module.getName()) + "_";
+        int count = TerraformOutputs.inject(build, module, outputs.toByteArray(), prefix);
+        listener.getLogger().println(Messages.OutputsExported(count, TerraformOutputs.VARIABLE_PREFIX + prefix));
+    }
+
+
+    /**
+     * @param json whether to run with -json, whose output is parsed into resource timings
+     */
+    private ArgumentListBuilder getDestroyArgs(ExecutionContext context, RootModule module, FilePath variablesFile, boolean json) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("destroy");
+
+        args.add("-input=false");
+        args.add("-auto-approve");
+        if (json) {
+            args.add("-json");
+        }
+
+        if (!getUseRemoteState()) {
+            args.add("-state=" + module.getStateFile().getRemote());
+        }
+
+        if (context.hasVariables()) {
+            args.add("-var-file=" + variablesFile.getRemote());
+        }
+
+        if (context.getParallelism() > 0) {
+            args.add("-parallelism=" + context.getParallelism());
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        return args;
+    }
+
+
+    private ArgumentListBuilder getGetArgs(ExecutionContext context) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("get");
+
+        if (getDoGetUpdate()) {
+            args.add("-update");
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        return args;
+    }
+
+
+    private ArgumentListBuilder getInitArgs(ExecutionContext context) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("init");
+
+        args.add("-input=false");
+
+        if (doGetUpdate) {
+            args.add("-upgrade=true");
+        }
+
+        if (getDoNotLock()) {
+            args.add("-lock=false");
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        return args;
+    }
+
+
+    private ArgumentListBuilder getWorkspaceArgs(ExecutionContext context, String command, String workspace) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("workspace");
+
+        args.add(command);
+
+        if (command.equals("new") || command.equals("delete")) {
+            if (getDoNotLock()) {
+                args.add("-lock=false");
+            }
+        }
+
+        if (command.equals("delete")) {
+            args.add("-force");
+        }
+
+        args.add(workspace);
+
+        return args;
+    }
+
+
+    private ArgumentListBuilder getPlanArgs(ExecutionContext context, RootModule module, String planFile) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("plan");
+        args.add("-input=false");
+        args.add("-detailed-exitcode");
+        args.add("-out="+planFile);
+        if (!context.isRefresh()) {
+            args.add("-refresh=false");
+        }
+        if (getUseJsonOutput()) {
+            args.add("-json");
+        }
+        if (!getUseRemoteState()) {
+            args.add("-state="+module.getStateFile().getRemote());
+        }
+
+        if (getDoNotLock()) {
+            args.add("-lock=false");
+        }
+
+        if (context.hasVariables()) {
+            args.add("-var-file="+context.getVariablesFile().getRemote());
+        }
+
+        if (context.getParallelism() > 0) {
+            args.add("-parallelism=" + context.getParallelism());
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        return args;
+    }
+
+
+    /**
+     * @param planFile saved plan to apply, or null to apply the configuration directly
+     */
+    private ArgumentListBuilder getApplyArgs(ExecutionContext context, RootModule module, String planFile) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("apply");
+        args.add("-input=false");
+        if (planFile == null) {
+            args.add("-auto-approve");
+        }
+        // A saved plan was already created with or without refreshing.
+        if (planFile == null && !context.isRefresh()) {
+            args.add("-refresh=false");
+        }
+        if (getUseJsonOutput()) {
+            args.add("-json");
+        }
+        if (!getUseRemoteState()) {
+            args.add("-state="+module.getStateFile().getRemote());
+        }
+
+        if (getDoNotLock()) {
+            args.add("-lock=false");
+        }
+
+        // A saved plan already contains the variable values it was created with.
+        if (planFile == null && context.hasVariables()) {
+            args.add("-var-file="+context.getVariablesFile().getRemote());
+        }
+
+        if (context.getParallelism() > 0) {
+            args.add("-parallelism=" + context.getParallelism());
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        if (planFile != null) {
+            args.add(planFile);
+        }
+
+        return args;
+    }
+
+
+    private ArgumentListBuilder getRefreshArgs(ExecutionContext context, RootModule module) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+
+        args.add("apply");
+        args.add("-refresh-only");
+        args.add("-input=false");
+        args.add("-auto-approve");
+        if (getUseJsonOutput()) {
+            args.add("-json");
+        }
+        if (!getUseRemoteState()) {
+            args.add("-state="+module.getStateFile().getRemote());
+        }
+
+        if (getDoNotLock()) {
+            args.add("-lock=false");
+        }
+
+        if (context.hasVariables()) {
+            args.add("-var-file="+context.getVariablesFile().getRemote());
+        }
+
+        if (context.getParallelism() > 0) {
+            args.add("-parallelism=" + context.getParallelism());
+        }
+
+        if (!getUseColorizedStdout()) {
+            args.add("-no-color");
+        }
+
+        return args;
+    }
+
+
+    /**
+     * Runs init (if enabled) and get, unless incremental init is enabled and the root module
+     * fingerprint matches the one saved by the last successful init on this node.
+     */
+    private void executeInitAndGet(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        InitFingerprint fingerprint = null;
+        // Module updates always need the network, so they are never skipped.
+        if (getUseIncrementalInit() && !getDoGetUpdate()) {
+            fingerprint = new InitFingerprint(module.getWorkspacePath(), module.getWorkingDirectory(), getInitFingerprintExtra(context));
+            if (fingerprint.isUpToDate()) {
+                listener.getLogger().println(Messages.InitSkipped(Util.getTimeSpanString(fingerprint.getSavedDuration())));
+                return;
+            }
+            fingerprint.invalidate();
+        }
+
+        long start = System.currentTimeMillis();
+
+        // Init installs modules too, so the cached ones have to be in place before it runs.
+        if (context.getModuleCache() != null) {
+            context.getModuleCache().restore(module.getWorkspacePath(), getDoGetUpdate(), listener);
+        }
+
+        if (getDoInit()) {
+            executeInit(build, context, launcher, listener, module);
+        }
+
+        executeGet(build, context, launcher, listener, module);
+
+        if (context.getModuleCache() != null) {
+            context.getModuleCache().store(module.getWorkspacePath(), getDoGetUpdate(), listener);
+        }
+
+        if (fingerprint != null) {
+            fingerprint.save(System.currentTimeMillis() - start);
+        }
+    }
+
+
+    /**
+     * Settings besides the root module files which invalidate a saved init fingerprint.
+     */
+    private String getInitFingerprintExtra(ExecutionContext context) {
+        return context.getExecutable() + "\n" + getDoInit() + "\n" + getUseProviderCache() + "\n" + getUseProviderMirror() + "\n" + getEnvironmentVariables();
+    }
+
+
+    /**
+     * Runs the same sequence as {@link #executeModule} in a single call to the build node.
+     * Durations and resource timings are recorded once the sequence returns.
+     */
+    private void executeModuleOnAgent(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        if (module.getDataDir() != null) {
+            WorkspaceMatrix.prepare(module);
+        }
+
+        AgentModuleSequence sequence = new AgentModuleSequence(listener, module, getEnvs(context, module), getUseJsonOutput());
+        TerraformParallelismAction parallelism = build.getAction(TerraformParallelismAction.class);
+        sequence.setDetectThrottling(parallelism != null);
+        sequence.setCompactOutput(getUseCompactOutput());
+
+        if (getMode() == Configuration.Mode.FILE) {
+            String workspace = getWorkspace(context, module);
+            if (!workspace.isEmpty()) {
+                // Creating a workspace which already exists is benign.
+                if (!workspace.equals("default")) {
+                    sequence.addWorkspaceStep(getWorkspaceArgs(context, "new", workspace));
+                }
+                sequence.addWorkspaceStep(getWorkspaceArgs(context, "select", workspace));
+                if (module.getTerraformWorkspace() == null) {
+                    build.addAction(new VariableInjectionAction("TF_WORKSPACE", workspace));
+                }
+            }
+        }
+
+        // The runs of a workspace matrix use the root module initialized beforehand.
+        if (module.getDataDir() == null) {
+            if (getDoInit()) {
+                sequence.addInitStep(TerraformMetricsAction.INIT, getInitArgs(context));
+            }
+            sequence.addInitStep(TerraformMetricsAction.GET, getGetArgs(context));
+            if (getUseIncrementalInit() && !getDoGetUpdate()) {
+                sequence.setIncrementalInit(getInitFingerprintExtra(context));
+            }
+        }
+        sequence.setProviderCache(context.getProviderCache(), getProviderCacheQuota());
+        sequence.setModuleCache(context.getModuleCache(), getDoGetUpdate());
+
+        // The workspace is not shared with other builds, so the plan file name only needs to be unique per build.
+        FilePath planFile = null;
+        if (getDoRefreshOnly()) {
+            sequence.setRefresh(getRefreshArgs(context, module));
+        } else if (getDoPlan()) {
+            planFile = new FilePath(module.getWorkingDirectory(), "plan-" + build.getNumber() + ".tfplan");
+            sequence.setPlan(getPlanArgs(context, module, planFile.getRemote()));
+        }
+        module.setPlanFile(planFile);
+
+        if (! getDoNotApply() && ! getDoRefreshOnly()) {
+            sequence.setApply(getApplyArgs(context, module, planFile == null ? null : planFile.getRemote()));
+        }
+
+        LOGGER.info("Launching Terraform sequence on " + launcher.getChannel() + " for root module " + module.getName());
+
+        AgentModuleSequence.Result result;
+        ProviderPluginCache.ExportedLock cacheLock = null;
+        // Only init writes to the provider cache: the runs of a workspace matrix, which have no init steps, take no lock.
+        if (context.getProviderCache() != null && sequence.hasInitSteps()) {
+            cacheLock = context.getProviderCache().export(launcher.getChannel());
+            sequence.setProviderCacheLock(cacheLock.getProxy());
+        }
+        try {
+            result = launcher.getChannel().call(sequence);
+        } finally {
+            if (cacheLock != null) {
+                cacheLock.close();
+            }
+        }
+
+        for (TerraformMetricsAction.PhaseMetric metric : result.getMetrics()) {
+            recordPhase(build, metric);
+            if (metric.getPhase().equals(TerraformMetricsAction.APPLY)) {
+                recordApplied(build);
+            }
+        }
+        if (parallelism != null) {
+            parallelism.addThrottled(result.getThrottled());
+        }
+        if (getUseJsonOutput() && !result.getTimings().isEmpty()) {
+            TerraformTimingAction timings = TerraformTimingAction.forRun(build);
+            for (TerraformTimingAction.ResourceTiming timing : result.getTimings()) {
+                timings.add(timing);
+            }
+        }
+
+        if (result.getFailure() != null) {
+            throw new Exception(result.getFailure());
+        }
+
+        if (result.isPlanned() && context.getModules().size() == 1) {
+            build.addAction(new VariableInjectionAction("TF_PLAN", planFile.getRemote()));
+        }
+        if (result.hasChanges() && getDoSummarizePlan()) {
+            executeShow(build, context, launcher, listener, module);
+        }
+        if (result.isPlanned() && getDoArchivePlan()) {
+            SavedPlan.archive(build, launcher, listener, module, result.hasChanges() ? planFile : null, getWorkspace(context, module));
+        }
+    }
+
+
+    /**
+     * Applies the plan saved for the root module by the plan build, once the configuration,
+     * lock file, workspace and state were found unchanged since the plan was made. A saved
+     * plan does not refresh, and init is skipped as usual if incremental init is enabled.
+     */
+    private void executeSavedPlan(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        SavedPlan plan = SavedPlan.load(context.getSavedPlanBuild(), module);
+        if (plan == null) {
+            throw new Exception(Messages.SavedPlanNotFound(SavedPlan.pathOf(module), context.getSavedPlanBuild().getFullDisplayName()));
+        }
+        if (!plan.hasChanges()) {
+            listener.getLogger().println(Messages.SavedPlanNoChanges(context.getSavedPlanBuild().getFullDisplayName()));
+            return;
+        }
+
+        String refused = plan.checkConfiguration(module, getWorkspace(context, module));
+        if (refused == null) {
+            refused = plan.checkState(getStateVersion(build, context, launcher, listener, module));
+        }
+        if (refused != null) {
+            throw new Exception(Messages.SavedPlanRefused(context.getSavedPlanBuild().getFullDisplayName(), refused));
+        }
+
+        module.setPlanFile(plan.restore(build, module));
+        executeApply(build, context, launcher, listener, module);
+    }
+
+
+    /**
+     * Returns the serial and lineage of the current state of the root module with terraform
+     * state pull. Saved plans are only applied with remote state.
+     */
+    private String[] getStateVersion(AbstractBuild build, ExecutionContext context, Launcher launcher, BuildListener listener, RootModule module) throws Exception {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(context.getExecutable());
+        args.add("state");
+        args.add("pull");
+
+        LOGGER.info("Launching Terraform state pull: " + args.toString());
+
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        int result = launch(build, context, launcher, module, TerraformMetricsAction.STATE, args, state);
+        if (result != 0) {
+            throw new Exception("Terraform state pull failed: " + result);
+        }
+        // An empty output means there is no state yet.
+        return SavedPlan.readStateVersion(new ByteArrayInputStream(state.toByteArray()));
+    }
+
+
+    /**
+     * Returns the build of the plan job whose saved plan this build applies.
+     */
+    private Run<?, ?> getSavedPlanBuild(AbstractBuild build, BuildListener listener) throws Exception {
+        String jobName = TokenMacro.expandAll(build, listener, getPlanJob());
+
+        // The build runs as the system; the plan, and the variables in it, may only be read
+        // by the authentication the build's job runs as, like Copy Artifact does.
+        try (ACLContext ignored = ACL.as(Tasks.getAuthenticationOf(build.getProject()))) {
+            Job<?, ?> job = Jenkins.getInstance().getItemByFullName(jobName, Job.class);
+            if (job == null || !job.hasPermission(Item.READ)) {
+                throw new Exception(Messages.SavedPlanJobNotFound(jobName));
+            }
+
+            Run<?, ?> run = getSavedPlanBuild(build, listener, job);
+            if (!run.hasPermission(Run.ARTIFACTS)) {
+                throw new Exception(Messages.SavedPlanNoPermission(run.getFullDisplayName()));
+            }
+            return run;
+        }
+    }
+
+
+    /**
+     * Returns the given build of the plan job, the plan build which triggered this build, or
+     * the plan job's last successful build.
+     */
+    private Run<?, ?> getSavedPlanBuild(AbstractBuild build, BuildListener listener, Job<?, ?> job) throws Exception {
+        Run<?, ?> run;
+        if (!isNullOrEmpty(getPlanBuild())) {
+            String number = TokenMacro.expandAll(build, listener, getPlanBuild()).trim();
+            try {
+                run = job.getBuildByNumber(Integer.parseInt(number));
+            } catch (NumberFormatException ex) {
+                throw new Exception(Messages.SavedPlanBuildInvalid(number));
+            }
+        } else {
+            // A build triggered by the plan build applies that build's plan.
+            Cause.UpstreamCause cause = (Cause.UpstreamCause) build.getCause(Cause.UpstreamCause.class);
+            run = cause != null && job.getFullName().equals(cause.getUpstreamProject())
+                    ? job.getBuildByNumber(cause.getUpstreamBuild()) : job.getLastSuccessfulBuild();
+        }
+
+        if (run == null) {
+            throw new Exception(Messages.SavedPlanBuildNotFound(job.getFullName()));
+        }
+        return run;
+    }
+
+
+    /**
+     * Runs the whole init, get, plan and apply sequence for a single root module.
+     */
+    private void executeModule(AbstractBuild build, ExecutionContext context, final Launcher launcher, final BuildListener listener, RootModule module) throws Exception {
+        if (module.getDataDir() != null) {
+            WorkspaceMatrix.prepare(module);
+        }
+
+        if (getMode() == Configuration.Mode.FILE) {
+            executeWorkspace(build, context, launcher, listener, module, "select");
+        }
+
+        // The runs of a workspace matrix use the root module initialized beforehand.
+        if (module.getDataDir() == null) {
+            executeInitAndGet(build, context, launcher, listener, module);
+        }
+
+        module.setPlanFile(null);
+        if (context.getSavedPlanBuild() != null) {
+            executeSavedPlan(build, context, launcher, listener, module);
+            return;
+        }
+        if (getDoRefreshOnly()) {
+            executeRefresh(build, context, launcher, listener, module);
+            return;
+        }
+
+        boolean hasChanges = true;
+        if (getDoPlan()) {
+            hasChanges = executePlan(build, context, launcher, listener, module);
+            if (!hasChanges) {
+                listener.getLogger().println(Messages.PlanNoChanges());
+            } else if (getDoSummarizePlan()) {
+                executeShow(build, context, launcher, listener, module);
+            }
+            if (getDoArchivePlan()) {
+                SavedPlan.archive(build, launcher, listener, module, hasChanges ? module.getPlanFile() : null, getWorkspace(context, module));
+            }
+        }
+
+        if (! getDoNotApply() && hasChanges) {
+          executeApply(build, context, launcher, listener, module);
+        }
+    }
+
+
+    /**
+     * Runs a command for every root module of the build. A single module runs inline and
+     * its failures are thrown; multiple modules run in dependency order with bounded concurrency,
+     * each logging to its own prefixed section.
+     *
+     * @return true if the command succeeded for all modules
+     */
+    private boolean runModules(ExecutionContext context, final BuildListener listener, boolean reverse, final ModuleCommand command) throws Exception {
+        return runModules(context.getModules(), listener, reverse, command, null);
+    }
+
+
+    /**
+     * @param results action recording the result of each run of a workspace matrix, or null
+     */
+    private boolean runModules(List<RootModule> modules, final BuildListener listener, boolean reverse, final ModuleCommand command,
+                               TerraformMatrixAction results) throws Exception {
+        if (modules.size() == 1) {
+            RootModule module = modules.get(0);
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                command.run(module, listener);
+                success = true;
+            } finally {
+                if (results != null) {
+                    results.add(new TerraformMatrixAction.WorkspaceResult(module.getTerraformWorkspace(), module.getName(),
+                            (success ? RootModuleScheduler.Status.SUCCESS : RootModuleScheduler.Status.FAILURE).name(),
+                            System.currentTimeMillis() - start));
+                }
+            }
+            return true;
+        }
+
+        RootModuleScheduler scheduler = new RootModuleScheduler(modules, config.getMaxParallelModules(), reverse);
+        Map<RootModule, RootModuleScheduler.Status> result = scheduler.run(new RootModuleScheduler.Task() {
+            public void run(RootModule module) throws Exception {
+                BuildListener moduleListener = new StreamBuildListener(
+                        new ModuleLogOutputStream(listener.getLogger(), module.getName()), StandardCharsets.UTF_8);
+                try {
+                    command.run(module, moduleListener);
+                } catch (Exception ex) {
+                    LOGGER.severe(exceptionToString(ex));
+                    moduleListener.fatalError(exceptionToString(ex));
+                    throw ex;
+                } finally {
+                    moduleListener.getLogger().flush();
+                }
+            }
+        });
+
+        boolean success = true;
+        for (Map.Entry<RootModule, RootModuleScheduler.Status> entry : result.entrySet()) {
+            listener.getLogger().println(Messages.ModuleResult(entry.getKey().getName(), entry.getValue(),
+                    Util.getTimeSpanString(scheduler.getDuration(entry.getKey()))));
+            success &= entry.getValue() == RootModuleScheduler.Status.SUCCESS;
+            if (results != null) {
+                results.add(new TerraformMatrixAction.WorkspaceResult(entry.getKey().getTerraformWorkspace(), entry.getKey().getName(),
+                        entry.getValue().name(), scheduler.getDuration(entry.getKey())));
+            }
+        }
+        return success;
+    }
+
+
+    /**
+     * Returns the stream receiving the output of plan, apply and destroy, which parses
+     * machine-readable output into resource timings when enabled.
+     */
+    private OutputStream getStdout(AbstractBuild build, BuildListener listener, RootModule module, String phase) throws IOException, InterruptedException {
+        OutputStream compact = null;
+        if (getUseCompactOutput()) {
+            OutputStream fullLog = CompactLogOutputStream.openFullLog(module.getWorkingDirectory(), phase);
+            compact = new CompactLogOutputStream(listener.getLogger(), fullLog, phase);
+        }
+
+        if (!getUseJsonOutput()) {
+            return compact != null ? compact : listener.getLogger();
+        }
+
+        TerraformTimingAction timings = TerraformTimingAction.forRun(build);
+        if (compact == null) {
+            return new JsonLogOutputStream(listener.getLogger(), module.getName(), timings);
+        }
+        return new JsonLogOutputStream(new PrintStream(compact, false, "UTF-8"), module.getName(), timings, true);
+    }
+
+
+    private void closeStdout(BuildListener listener, OutputStream stdout) throws IOException {
+        // Flushes the last line, the build log itself stays open.
+        if (stdout != listener.getLogger()) {
+            stdout.close();
+        }
+    }
+
+
+    private interface ModuleCommand {
+        void run(RootModule module, BuildListener listener) throws Exception;
+    }
+
+
+    @Override
+    public Environment setUp(final AbstractBuild build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
+        // The wrapper is shared by the concurrent builds of the job, everything of this build lives in its context.
+        final ExecutionContext context;
+        try {
+            // get executable and var-file from environment
+            EnvVars env = build.getEnvironment(listener);
+            context = createContext(build, launcher, listener, env);
+        } catch (Exception ex) {
+            LOGGER.severe(exceptionToString(ex));
+            listener.fatalError(exceptionToString(ex));
+            return null;
+        }
+
+        try {
+            // Create actions to inject environment variables
+            VariableInjectionAction tfbinAction = new VariableInjectionAction("TF_BIN", context.getExecutable());
+            VariableInjectionAction tfvarAction = new VariableInjectionAction("TF_VAR", context.getVariablesFile().getRemote());
+            // Inject environment variables
+            build.addAction(tfbinAction);
+            build.addAction(tfvarAction);
+
+            if (context.getSharedModules() != null) {
+                // The runs of the matrix share the providers and modules installed once per root module.
+                boolean initialized = runModules(context.getSharedModules(), listener, false, new ModuleCommand() {
+                    public void run(RootModule module, BuildListener moduleListener) throws Exception {
+                        executeInitAndGet(build, context, launcher, moduleListener, module);
+                    }
+                }, null);
+                if (!initialized) {
+                    throw new Exception(Messages.ModulesFailed());
+                }
+            }
+
+            boolean success = runModules(context.getModules(), listener, false, new ModuleCommand() {
+                public void run(RootModule module, BuildListener moduleListener) throws Exception {
+                    try {
+                        // Saved plans are checked on the controller between the commands.
+                        if (getUseAgentExecution() && context.getSavedPlanBuild() == null) {
+                            executeModuleOnAgent(build, context, launcher, moduleListener, module);
+                        } else {
+                            executeModule(build, context, launcher, moduleListener, module);
+                        }
+                    } finally {
+                        if (getUseCompactOutput()) {
+                            CompactLogOutputStream.archiveFullLogs(build, launcher, moduleListener, module);
+                        }
+                    }
+                    if (getDoExportOutputs()) {
+                        executeOutput(build, context, launcher, moduleListener, module);
+                    }
+                }
+            }, context.getSharedModules() == null ? null : TerraformMatrixAction.forRun(build));
+
+            if (!success) {
+                throw new Exception(Messages.ModulesFailed());
+            }
+
+            // Every command but init, get and destroy refreshes the state, unless told not to.
+            if (context.isRefresh() && context.getSavedPlanBuild() == null && (getDoRefreshOnly() || getDoPlan() || !getDoNotApply())) {
+                StateRefreshRegistry.recordRefresh(getStateKey(build.getParent(), getParameters(build)), build.getStartTimeInMillis());
+            }
+
+            // Hints for scheduling the next builds of this job on a node where init is cheap.
+            WarmNodeRegistry.recordWorkspace(build.getParent().getFullName(), build.getBuiltOnStr());
+            if (context.getProviderCache() != null) {
+                WarmNodeRegistry.recordProviderCache(build.getBuiltOnStr());
+            }
+        } catch (Exception ex) {
+            LOGGER.severe(exceptionToString(ex));
+            listener.fatalError(exceptionToString(ex));
+            recordApiCalls(build, context, launcher, listener, true);
+            deleteTemporaryFiles(context);
+            return null;
+        }
+
+        return new Environment() {
+
+            @Override
+            public boolean tearDown(final AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+
+                if (getDoDestroy()) {
+
+                    try {
+                        String condition = getDestroyCondition();
+                        boolean destroyConditionPass = condition.isEmpty() ||
+                                new BooleanCondition(condition).runPerform(build, listener);
+
+                        boolean async = destroyConditionPass && getUseAsyncDestroy();
+                        if (async && !getUseRemoteState()) {
+                            // Destroyed from the snapshot, the local state in the workspace would still list every resource.
+                            listener.getLogger().println(Messages.DestroyAsyncLocalState());
+                            async = false;
+                        }
+
+                        if (async) {
+                            queueDestroy(build, context, listener);
+                        } else if (destroyConditionPass) {
+                            // Dependent modules are destroyed before the modules they depend on.
+                            boolean success = runModules(context, listener, true, new ModuleCommand() {
+                                public void run(RootModule module, BuildListener moduleListener) throws Exception {
+                                    try {
+                                        executeDestroy(build, context, launcher, moduleListener, module);
+                                    } finally {
+                                        if (getUseCompactOutput()) {
+                                            CompactLogOutputStream.archiveFullLogs(build, launcher, moduleListener, module);
+                                        }
+                                    }
+
+                                    if (getMode() == Configuration.Mode.FILE) {
+                                        executeWorkspace(build, context, launcher, moduleListener, module, "delete");
+                                    }
+                                }
+                            });
+
+                            if (!success) {
+                                recordApiCalls(build, context, launcher, listener, true);
+                                deleteTemporaryFiles(context);
+                                return false;
+                            }
+                        }
+                    } catch (Exception ex) {
+                        LOGGER.severe(exceptionToString(ex));
+                        listener.fatalError(exceptionToString(ex));
+                        recordApiCalls(build, context, launcher, listener, true);
+                        deleteTemporaryFiles(context);
+                        return false;
+                    }
+                }
+
+                Result result = build.getResult();
+                recordApiCalls(build, context, launcher, listener, result != null && result.isWorseThan(Result.SUCCESS));
+                deleteTemporaryFiles(context);
+
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * Copies the workspace of the build to a snapshot directory on its node and queues the
+     * destroy of all root modules there, see {@link DestroyQueue}.
+     */
+    private void queueDestroy(AbstractBuild build, ExecutionContext context, BuildListener listener) throws Exception {
+        FilePath workspace = build.getWorkspace();
+        FilePath snapshot = DestroyQueue.getSnapshot(build.getBuiltOn(), build);
+        if (snapshot == null) {
+            throw new Exception(Messages.NodeOffline(build.getBuiltOnStr()));
+        }
+
+        String prefix = workspace.getRemote();
+        Set<String> directories = new LinkedHashSet<>();
+        directories.add(relativize(context.getWorkingDirectory(), prefix));
+        for (RootModule module : context.getModules()) {
+            directories.add(relativize(module.getWorkspacePath(), prefix));
+            directories.add(relativize(module.getWorkingDirectory(), prefix));
+        }
+
+        long start = System.currentTimeMillis();
+        DestroyQueue.snapshot(workspace, new ArrayList<>(directories), snapshot);
+        listener.getLogger().println(Messages.DestroySnapshot(snapshot.getRemote(), Util.getTimeSpanString(System.currentTimeMillis() - start)));
+
+        // The provider log of the build is read when the build completes, the destroy logs to its snapshot.
+        FilePath providerLog = context.getProviderLog();
+        String[] envs = context.getEnvs().clone();
+        for (int i = 0; i < envs.length; ++i) {
+            if (providerLog != null && envs[i].equals(LOG_PATH_VARIABLE + "=" + providerLog.getRemote())) {
+                envs[i] = LOG_PATH_VARIABLE + "=" + relocate(providerLog, prefix, snapshot).getRemote();
+            }
+        }
+        FilePath variablesFile = relocate(context.getVariablesFile(), prefix, snapshot);
+        DestroyQueue.Request request = new DestroyQueue.Request(build.getBuiltOnStr(), snapshot.getRemote(), variablesFile.getRemote(),
+                envs, config.getMaxParallelModules());
+        for (RootModule module : context.getModules()) {
+            RootModule relocated = new RootModule(module.getName(), relocate(module.getWorkspacePath(), prefix, snapshot),
+                    relocate(module.getWorkingDirectory(), prefix, snapshot), getUseRemoteState(), module.getDependencies(),
+                    module.getTerraformWorkspace(), module.getDataDir() == null ? null : relocate(module.getDataDir(), prefix, snapshot));
+            if (relocated.getDataDir() != null) {
+                // The snapshot's data directory lacks the provider links of the run.
+                WorkspaceMatrix.prepare(relocated);
+            }
+
+            ArgumentListBuilder workspaceDelete = null;
+            String terraformWorkspace = getWorkspace(context, module);
+            if (getMode() == Configuration.Mode.FILE && !terraformWorkspace.isEmpty() && !terraformWorkspace.equals("default")) {
+                workspaceDelete = getWorkspaceArgs(context, "delete", terraformWorkspace);
+            }
+            request.addModule(relocated, getDestroyArgs(context, relocated, variablesFile, false), workspaceDelete);
+        }
+
+        DestroyQueue.submit(build, request);
+        StateLockManager.holdForDestroy(build);
+        listener.getLogger().println(Messages.DestroyQueued());
+    }
+
+
+    /**
+     * Adds the provider API calls recorded in the provider log to the build, and archives the
+     * compressed log when the build failed or the job keeps it. The log is removed either way.
+     */
+    private void recordApiCalls(AbstractBuild build, ExecutionContext context, Launcher launcher, BuildListener listener, boolean failed) throws InterruptedException {
+        FilePath providerLog = context.getProviderLog();
+        if (providerLog == null) {
+            return;
+        }
+
+        try {
+            FilePath workingDirectory = context.getWorkingDirectory();
+            FilePath copy = failed || getKeepProviderLog() ? new FilePath(workingDirectory, ProviderApiStats.LOG_FILE_NAME + ".gz") : null;
+            ProviderApiStats stats = providerLog.act(new ProviderApiStats.Collect(copy == null ? null : copy.getRemote()));
+            if (stats == null) {
+                return;
+            }
+
+            listener.getLogger().println(Messages.ApiCallsRecorded(stats.getRequests(), stats.getEndpoints().size()));
+            if (stats.getRequests() > 0) {
+                build.addAction(new TerraformApiCallAction(stats));
+            }
+
+            if (copy != null) {
+                build.getArtifactManager().archive(workingDirectory, launcher, listener, Collections.singletonMap(copy.getName(), copy.getName()));
+                copy.delete();
+                listener.getLogger().println(Messages.ApiCallsLogArchived(copy.getName()));
+            }
+            providerLog.delete();
+        } catch (IOException ex) {
+            // Diagnostics never fail the build.
+            LOGGER.warning("Could not read the provider log: " + ex);
+            listener.getLogger().println(Messages.ApiCallsFailed(ex.getMessage()));
+        }
+    }
+
+
+    /**
+     * Environment of the commands of a root module, with its own data directory if it has one.
+     */
+    private String[] getEnvs(ExecutionContext context, RootModule module) {
+        FilePath dataDir = module.getDataDir();
+        return WorkspaceMatrix.withDataDir(context.getEnvs(), dataDir == null ? null : dataDir.getRemote());
+    }
+
+
+    /**
+     * Terraform workspace of a root module, empty if the build does not select one.
+     */
+    private String getWorkspace(ExecutionContext context, RootModule module) {
+        return module.getTerraformWorkspace() != null ? module.getTerraformWorkspace() : context.getWorkspace();
+    }
+
+
+    /**
+     * Maps a path in the workspace to the same path in the snapshot. All paths of a root
+     * module are in the workspace.
+     */
+    private static FilePath relocate(FilePath file, String workspace, FilePath snapshot) {
+        String path = relativize(file, workspace);
+        return path.isEmpty() ? snapshot : new FilePath(snapshot, path);
+    }
+
+
+    /**
+     * Returns the path of a file of the build workspace relative to the workspace, with forward slashes.
+     */
+    private static String relativize(FilePath file, String workspace) {
+        String path = file.getRemote();
+        return path.equals(workspace) ? "" : path.substring(workspace.length() + 1).replace('\\', '/');
+    }
+
+
+    /**
+     * Resolves the root modules of the build and everything their Terraform commands share, once per build.
+     */
+    private ExecutionContext createContext(AbstractBuild build, Launcher launcher, BuildListener listener, EnvVars env) throws Exception {
+        List<RootModule> modules = getRootModules(build, listener);
+        FilePath workingDirectory = modules.size() == 1 ? modules.get(0).getWorkingDirectory()
+                : new FilePath(build.getWorkspace(), RootModule.WORK_DIR_NAME);
+        workingDirectory.mkdirs();
+
+        List<RootModule> sharedModules = null;
+        List<String> workspaces = getMode() != Configuration.Mode.FILE || isNullOrEmpty(getTerraformWorkspaces())
+                ? Collections.<String>emptyList() : WorkspaceMatrix.parse(TokenMacro.expandAll(build, listener, getTerraformWorkspaces()));
+        if (!workspaces.isEmpty()) {
+            sharedModules = modules;
+            modules = WorkspaceMatrix.expand(modules, workspaces, getUseRemoteState());
+            listener.getLogger().println(Messages.MatrixRuns(modules.size(), workspaces.size()));
+        }
+
+        if (modules.size() == 1) {
+            build.addAction(new VariableInjectionAction("TF_CWD", modules.get(0).getWorkspacePath().getRemote()));
+        }
+
+        ProviderPluginCache providerCache = null;
+        if (getDoInit() && getUseProviderCache()) {
+            providerCache = ProviderPluginCache.forNode(Computer.currentComputer().getNode(), getProviderCacheQuota());
+            if (providerCache != null) {
+                listener.getLogger().println(Messages.ProviderCacheUsed(providerCache.getDirectory().getRemote()));
+            }
+        }
+
+        ModuleSourceCache moduleCache = null;
+        if (getUseModuleCache()) {
+            moduleCache = ModuleSourceCache.forNode(Computer.currentComputer().getNode(), getUseModuleCacheOffline());
+            if (moduleCache != null) {
+                listener.getLogger().println(Messages.ModuleCacheUsed(moduleCache.getDirectory().getRemote()));
+            }
+        }
+
+        String executable = getExecutable(build, env, listener, launcher);
+        FilePath mirrorConfigFile = getMirrorConfigFile(listener, workingDirectory);
+
+        Run<?, ?> savedPlanBuild = null;
+        if (!isNullOrEmpty(getPlanJob())) {
+            // A local state file in this workspace is not the state the plan job planned against.
+            if (!getUseRemoteState()) {
+                throw new Exception(Messages.SavedPlanLocalState());
+            }
+            savedPlanBuild = getSavedPlanBuild(build, listener);
+            listener.getLogger().println(Messages.SavedPlanUsed(savedPlanBuild.getFullDisplayName()));
+        }
+
+        // Terraform appends to the log, which must only hold this build's calls.
+        FilePath providerLog = null;
+        if (getUseApiDiagnostics()) {
+            providerLog = new FilePath(workingDirectory, ProviderApiStats.LOG_FILE_NAME);
+            if (providerLog.exists()) {
+                providerLog.delete();
+            }
+        }
+
+        String variables = TokenMacro.expandAll(build, listener, getVariables());
+        String workspace = isNullOrEmpty(getTerraformWorkspace()) ? "" : TokenMacro.expandAll(build, listener, getTerraformWorkspace());
+        String[] envs = promoteEnvVars(env, providerCache, mirrorConfigFile, providerLog);
+        int parallelism = getParallelism(build, listener);
+        boolean refresh = getRefresh(build, listener);
+        // Created last, nothing deletes it if the context is not created.
+        FilePath variablesFile = workingDirectory.createTextTempFile("variables", ".tfvars", variables);
+
+        ExecutionContext context = new ExecutionContext(workingDirectory, modules, sharedModules, executable, envs, variables,
+                variablesFile, workspace, parallelism, refresh);
+        context.setProviderCache(providerCache);
+        context.setModuleCache(moduleCache);
+        context.setProviderLog(providerLog);
+        context.setSavedPlanBuild(savedPlanBuild);
+        return context;
+    }
+
+
+    /**
+     * Returns false if plan and apply may skip refreshing the state, i.e. fast applies are
+     * enabled and the state was fully refreshed recently enough.
+     */
+    private boolean getRefresh(AbstractBuild build, BuildListener listener) {
+        if (!getUseFastApply() || getDoRefreshOnly()) {
+            return true;
+        }
+
+        long lastRefresh = StateRefreshRegistry.getLastRefresh(getStateKey(build.getParent(), getParameters(build)));
+        if (lastRefresh == 0) {
+            listener.getLogger().println(Messages.FastApplyNeverRefreshed());
+            return true;
+        }
+
+        long age = System.currentTimeMillis() - lastRefresh;
+        if (age > TimeUnit.MINUTES.toMillis(getMaxStateAge())) {
+            listener.getLogger().println(Messages.FastApplyStale(Util.getTimeSpanString(age), getMaxStateAge()));
+            return true;
+        }
+
+        listener.getLogger().println(Messages.FastApplyUsed(Util.getTimeSpanString(age)));
+        return false;
+    }
+
+
+    /**
+     * Returns the configured parallelism or, in adaptive mode, the one tuned from the previous
+     * build, which is then recorded for the next build.
+     */
+    private int getParallelism(AbstractBuild build, BuildListener listener) {
+        if (!getUseAdaptiveParallelism()) {
+            return getParallelism();
+        }
+
+        int initial = getParallelism() > 0 ? getParallelism() : TerraformParallelismAction.DEFAULT_PARALLELISM;
+        Run<?, ?> previousBuild = build.getPreviousCompletedBuild();
+        int parallelism = TerraformParallelismAction.adapt(previousBuild, initial, getMaxParallelism());
+
+        TerraformParallelismAction previous = previousBuild == null ? null : previousBuild.getAction(TerraformParallelismAction.class);
+        if (previous == null) {
+            listener.getLogger().println(Messages.ParallelismInitial(parallelism));
+        } else {
+            listener.getLogger().println(Messages.ParallelismAdapted(parallelism, previous.getParallelism(), previous.getThrottled()));
+        }
+
+        build.addAction(new TerraformParallelismAction(parallelism));
+        return parallelism;
+    }
+
+
+    /**
+     * Writes the CLI configuration pointing Terraform at the controller's provider mirror.
+     *
+     * @return the configuration file, or null if the provider mirror is not used
+     */
+    private FilePath getMirrorConfigFile(BuildListener listener, FilePath workingDirectory) throws Exception {
+        if (!getUseProviderMirror()) {
+            return null;
+        }
+
+        String mirrorUrl = TerraformProviderMirror.getMirrorUrl();
+        if (mirrorUrl == null) {
+            throw new Exception(Messages.ProviderMirrorNoRootUrl());
+        }
+        // Terraform rejects network mirrors which are not served over HTTPS.
+        if (!mirrorUrl.startsWith("https://")) {
+            throw new Exception(Messages.ProviderMirrorNotHttps(mirrorUrl));
+        }
+        listener.getLogger().println(Messages.ProviderMirrorUsed(mirrorUrl));
+
+        // TF_CLI_CONFIG_FILE replaces the user's CLI configuration, whose settings are kept.
+        String userConfig = TerraformProviderMirror.readUserCliConfig(workingDirectory);
+        FilePath configFile = new FilePath(workingDirectory, MIRROR_CONFIG_FILE_NAME);
+        configFile.write(TerraformProviderMirror.getCliConfig(mirrorUrl, userConfig), "UTF-8");
+        return configFile;
+    }
+
+
+    private String[] promoteEnvVars(EnvVars env, ProviderPluginCache providerCache, FilePath mirrorConfigFile, FilePath providerLog) {
+        String executionEnvironment = (environmentVariables == null ? "" : environmentVariables) + "\n" + ENVIRONMENT_VARIABLES;
+
+        // Split flat string into array of line-delimited string of name=value or name variables.
+        String envs[] = executionEnvironment.split("\\r?\\n\\r?");
+
+        List<String> result = new LinkedList<>();
+        // In-place replacement of <name> with build env value of matching name. If both
+        // execution <environmentVariables> and build <env> have variable, the environmentVariable
+        // wins as it is more explicitly scoped.
+        for (int i = 0; i < envs.length; ++i) {
+            String var = envs[i];
+            if (var.isEmpty()) continue;
+            if (var.indexOf('=') == -1) {
+                String value = env.get(var);
+                if (value != null) {
+                    var = var + '=' + value;
+                }
+            }
+
+            result.add(var);
+        }
+
+        // The plugin managed cache never overrides a cache directory configured for the job.
+        if (providerCache != null && !executionEnvironment.contains(PLUGIN_CACHE_VARIABLE + "=")) {
+            result.add(PLUGIN_CACHE_VARIABLE + "=" + providerCache.getDirectory().getRemote());
+        }
+
+        // Likewise for a CLI configuration the job brings itself.
+        if (mirrorConfigFile != null && !executionEnvironment.contains(CLI_CONFIG_VARIABLE + "=")) {
+            result.add(CLI_CONFIG_VARIABLE + "=" + mirrorConfigFile.getRemote());
+        }
+
+        // The job's own log settings win, in which case no API calls are recorded.
+        if (providerLog != null && !executionEnvironment.contains(LOG_PATH_VARIABLE + "=")) {
+            result.add(LOG_PATH_VARIABLE + "=" + providerLog.getRemote());
+            if (!executionEnvironment.contains(LOG_PROVIDER_VARIABLE + "=")) {
+                result.add(LOG_PROVIDER_VARIABLE + "=DEBUG");
+            }
+        }
+
+        return result.toArray(new String[0]);
+    }
+
+
+    /**
+     * Returns the root modules of the configuration, before any workspace matrix.
+     */
+    private List<RootModule> getRootModules(AbstractBuild build, final BuildListener listener) throws FileNotFoundException, Exception {
+        switch (getMode()) {
+            case INLINE:
+                FilePath workingDirectory = new FilePath(build.getWorkspace(), RootModule.WORK_DIR_NAME);
+                String inlineConfig = getInlineConfig();
+                inlineConfig = TokenMacro.expandAll(build, listener, inlineConfig);
+                return Collections.singletonList(new RootModule("", setupInlineDirectory(workingDirectory, inlineConfig), workingDirectory,
+                        getUseRemoteState(), Collections.<String>emptyList()));
+            case FILE:
+                String configPath = getFileConfig();
+                if (!isNullOrEmpty(configPath)) {
+                    configPath = TokenMacro.expandAll(build, listener, configPath);
+                }
+
+                return RootModule.resolve(build.getWorkspace(), configPath, getUseTerraformWorkspace(), getUseRemoteState());
+            default:
+                throw new Exception(Messages.InvalidConfigMode());
+        }
+    }
+
+
+    /**
+     * Writes the expanded inline configuration to a directory named after its digest, where
+     * Terraform runs. Builds with the same configuration thereby keep the providers and
+     * modules installed by init. Directories of configurations not used by the last builds
+     * are removed.
+     */
+    private FilePath setupInlineDirectory(FilePath workingDirectory, String inlineConfig) throws Exception {
+        FilePath directory = new FilePath(workingDirectory, INLINE_DIR_PREFIX + Util.getDigestOf(inlineConfig));
+        FilePath configFile = new FilePath(directory, CONFIG_FILE_NAME);
+        if (!configFile.exists()) {
+            directory.mkdirs();
+            configFile.write(inlineConfig, "UTF-8");
+        }
+        if (!configFile.exists()) {
+            throw new FileNotFoundException(Messages.ConfigurationNotCreated());
+        }
+        directory.touch(System.currentTimeMillis());
+
+        List<FilePath> unused = new ArrayList<>();
+        for (FilePath dir : workingDirectory.listDirectories()) {
+            if (dir.getName().startsWith(INLINE_DIR_PREFIX) && !dir.getName().equals(directory.getName())) {
+                unused.add(dir);
+            }
+        }
+        if (unused.size() >= MAX_INLINE_DIRS) {
+            final Map<FilePath, Long> lastModified = new HashMap<>();
+            for (FilePath dir : unused) {
+                lastModified.put(dir, dir.lastModified());
+            }
+            Collections.sort(unused, new Comparator<FilePath>() {
+                public int compare(FilePath a, FilePath b) {
+                    return Long.compare(lastModified.get(b), lastModified.get(a));
+                }
+            });
+            for (FilePath dir : unused.subList(MAX_INLINE_DIRS - 1, unused.size())) {
+                dir.deleteRecursive();
+            }
+        }
+        return directory;
+    }
+
+
+    private void deleteTemporaryFiles(ExecutionContext context) throws IOException, InterruptedException {
+        FilePath variablesFile = context.getVariablesFile();
+        if (variablesFile.exists())
+            variablesFile.delete();
+
+        for (RootModule module : context.getModules()) {
+            FilePath planFile = module.getPlanFile();
+            if (planFile != null && planFile.exists())
+                planFile.delete();
+
+            // Outputs may be sensitive.
+            FilePath outputs = TerraformOutputs.getDirectory(module);
+            if (outputs.exists())
+                outputs.deleteRecursive();
+        }
+    }
+
+
+    private boolean isNullOrEmpty(String value) {
+        return (value == null || value.trim().isEmpty()) ? true : false;
+    }
+
+
+    private String exceptionToString(Exception ex) {
+        StringWriter writer = new StringWriter();
+        ex.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+
+    @Extension
+    public static final class DescriptorImpl extends BuildWrapperDescriptor {
+
+        @CopyOnWrite
+        private volatile TerraformInstallation[] installations = new TerraformInstallation[0];
+
+        private boolean fetchUpstreamProviders;
+        private long providerMirrorQuota = DEFAULT_PROVIDER_MIRROR_QUOTA;
+
+
+        public DescriptorImpl() {
+            super(TerraformBuildWrapper.class);
+            load();
+        }
+
+
+        public TerraformInstallation[] getInstallations() {
+            return this.installations;
+        }
+
+
+        public void setInstallations(TerraformInstallation[] installations) {
+            this.installations = installations;
+            save();
+        }
+
+
+        /**
+         * Returns true if the provider mirror fetches the providers it does not have yet from
+         * their registries. Only takes effect while a job uses the mirror.
+         */
+        public boolean getFetchUpstreamProviders() {
+            return this.fetchUpstreamProviders;
+        }
+
+
+        /**
+         * Maximum size of the provider mirror store in megabytes, or 0 for no limit.
+         */
+        public long getProviderMirrorQuota() {
+            return this.providerMirrorQuota;
+        }
+
+
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            this.fetchUpstreamProviders = json.optBoolean("fetchUpstreamProviders");
+            this.providerMirrorQuota = Math.max(0, json.optLong("providerMirrorQuota", DEFAULT_PROVIDER_MIRROR_QUOTA));
+            save();
+            return true;
         }
 
 
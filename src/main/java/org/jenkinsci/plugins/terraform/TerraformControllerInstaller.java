@@ -0,0 +1,235 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.FilePath;
+import hudson.Extension;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+
+import hudson.remoting.VirtualChannel;
+
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstallerDescriptor;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Installs Terraform from archives held by the controller rather than downloading them on
+ * every node. The controller fetches each release archive once, verifies it against the
+ * published SHA256SUMS and streams it to the nodes over their remoting channel, a bounded
+ * number of nodes at a time. A node which already has the verified archive installed is
+ * not sent anything.
+ *
+ * On the node, archives are unpacked once into a {@link NodeBinaryStore} shared by all
+ * installations, and each installation home links to its release there.
+ */
+public class TerraformControllerInstaller extends ToolInstaller {
+
+    static final String DEFAULT_SOURCE = "https://releases.hashicorp.com/terraform";
+    static final String INSTALLED_FILE_NAME = ".terraform-archive";
+
+    private static final int MAX_TRANSFERS = Integer.getInteger(TerraformControllerInstaller.class.getName() + ".maxTransfers", 4);
+    private static final Semaphore TRANSFERS = new Semaphore(Math.max(1, MAX_TRANSFERS), true);
+
+    private final String version;
+    private final String source;
+    private final String localDirectory;
+
+
+    @DataBoundConstructor
+    public TerraformControllerInstaller(String label, String version, String source, String localDirectory) {
+        super(label);
+        this.version = Util.fixEmptyAndTrim(version);
+        this.source = Util.fixEmptyAndTrim(source);
+        this.localDirectory = Util.fixEmptyAndTrim(localDirectory);
+    }
+
+
+    public String getVersion() {
+        return this.version;
+    }
+
+
+    public String getSource() {
+        return this.source == null ? DEFAULT_SOURCE : this.source;
+    }
+
+
+    public String getLocalDirectory() {
+        return this.localDirectory;
+    }
+
+
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+        FilePath dir = preferredLocation(tool, node);
+        if (version == null) {
+            throw new IOException(Messages.ArchiveVersionMissing(tool.getName()));
+        }
+
+        // One call tells both the platform to install for and what is installed already.
+        Probe probe = dir.act(new ProbeInstallation());
+
+        String source = getSource();
+        while (source.endsWith("/")) {
+            source = source.substring(0, source.length() - 1);
+        }
+
+        TerraformArchiveStore store = TerraformArchiveStore.get();
+        String checksum = store.getChecksum(version, probe.platform, source, localDirectory, log);
+        if (checksum.equals(probe.installed)) {
+            return dir;
+        }
+
+        NodeBinaryStore binaries = NodeBinaryStore.forNode(node);
+        if (binaries == null) {
+            throw new IOException(Messages.NodeOffline(node.getDisplayName()));
+        }
+
+        // Another installation of the same release may already have brought the archive.
+        synchronized (binaries.lockFor(checksum)) {
+            if (!binaries.contains(checksum)) {
+                File archive = store.getArchive(version, probe.platform, checksum, source, localDirectory, log);
+                transfer(archive, checksum, binaries, node, log);
+                binaries.unpack(checksum);
+            }
+        }
+
+        binaries.link(checksum, dir);
+        return dir;
+    }
+
+
+    /**
+     * Sends the part of the archive the node does not have yet.
+     */
+    private static void transfer(File archive, String checksum, NodeBinaryStore binaries, Node node, TaskListener log) throws IOException, InterruptedException {
+        TRANSFERS.acquire();
+        try {
+            long received = binaries.getReceived(checksum);
+            if (received >= archive.length()) {
+                return;
+            }
+
+            if (received > 0) {
+                log.getLogger().println(Messages.ArchiveTransferResuming(archive.getName(), node.getDisplayName(), received));
+            } else {
+                log.getLogger().println(Messages.ArchiveTransferring(archive.getName(), node.getDisplayName()));
+            }
+
+            try (FileChannel channel = FileChannel.open(archive.toPath());
+                 OutputStream out = binaries.append(checksum)) {
+                channel.position(received);
+                Util.copyStream(Channels.newInputStream(channel), out);
+            }
+        } finally {
+            TRANSFERS.release();
+        }
+    }
+
+
+    /**
+     * Terraform release platform name of the current JVM, e.g. linux_amd64.
+     */
+    static String platformOf(String osName, String osArch) {
+        String os = osName.toLowerCase(Locale.ENGLISH);
+        String arch = osArch.toLowerCase(Locale.ENGLISH);
+
+        String platformOs;
+        if (os.contains("windows")) {
+            platformOs = "windows";
+        } else if (os.contains("mac") || os.contains("darwin")) {
+            platformOs = "darwin";
+        } else if (os.contains("freebsd")) {
+            platformOs = "freebsd";
+        } else if (os.contains("openbsd")) {
+            platformOs = "openbsd";
+        } else if (os.contains("sunos") || os.contains("solaris")) {
+            platformOs = "solaris";
+        } else {
+            platformOs = "linux";
+        }
+
+        String platformArch;
+        if (arch.equals("amd64") || arch.equals("x86_64")) {
+            platformArch = "amd64";
+        } else if (arch.equals("aarch64") || arch.equals("arm64")) {
+            platformArch = "arm64";
+        } else if (arch.startsWith("arm")) {
+            platformArch = "arm";
+        } else {
+            platformArch = "386";
+        }
+
+        return platformOs + "_" + platformArch;
+    }
+
+
+    private static final class Probe implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String platform;
+        private final String installed;
+
+
+        Probe(String platform, String installed) {
+            this.platform = platform;
+            this.installed = installed;
+        }
+    }
+
+
+    private static final class ProbeInstallation extends MasterToSlaveFileCallable<Probe> {
+
+        private static final long serialVersionUID = 1L;
+
+
+        public Probe invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            String platform = platformOf(System.getProperty("os.name"), System.getProperty("os.arch"));
+
+            String installed = null;
+            File marker = new File(dir, INSTALLED_FILE_NAME);
+            boolean windows = platform.startsWith("windows");
+            if (marker.isFile() && new File(dir, windows ? "terraform.exe" : "terraform").isFile()) {
+                installed = new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim();
+            }
+            return new Probe(platform, installed);
+        }
+    }
+
+
+    @Extension
+    public static final class DescriptorImpl extends ToolInstallerDescriptor<TerraformControllerInstaller> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.InstallFromController();
+        }
+
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == TerraformInstallation.class;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+import java.util.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Status and log of the destroy of a build queued by {@link DestroyQueue}, shown on the build page.
+ */
+public class TerraformDestroyAction implements RunAction2 {
+
+    static final String LOG_FILE_NAME = "terraform-destroy.log";
+
+    private static final Logger LOGGER = Logger.getLogger(TerraformDestroyAction.class.getName());
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCESS, FAILURE, INTERRUPTED
+    }
+
+    private final String snapshot;
+    private final long queued;
+    private Status status;
+    private long started;
+    private long finished;
+    private transient Run<?, ?> run;
+
+
+    TerraformDestroyAction(String snapshot) {
+        this.snapshot = snapshot;
+        this.queued = System.currentTimeMillis();
+        this.status = Status.QUEUED;
+    }
+
+
+    public synchronized Status getStatus() {
+        return this.status;
+    }
+
+
+    synchronized void setStatus(Status status) {
+        this.status = status;
+        if (status == Status.RUNNING) {
+            this.started = System.currentTimeMillis();
+        } else if (status != Status.QUEUED) {
+            this.finished = System.currentTimeMillis();
+        }
+
+        try {
+            run.save();
+        } catch (IOException ex) {
+            LOGGER.warning("Could not save " + run + ": " + ex);
+        }
+    }
+
+
+    /**
+     * Directory on the build node the destroy runs in, kept if destroy failed.
+     */
+    public String getSnapshot() {
+        return this.snapshot;
+    }
+
+
+    /**
+     * Time spent waiting for a destroy worker, or since queued if still waiting.
+     */
+    public synchronized String getQueuedDurationString() {
+        long end = started > 0 ? started : (status == Status.QUEUED ? System.currentTimeMillis() : queued);
+        return Util.getTimeSpanString(end - queued);
+    }
+
+
+    /**
+     * Duration of the destroy, or since started if still running, empty if not started.
+     */
+    public synchronized String getDurationString() {
+        if (started == 0) {
+            return "";
+        }
+        return Util.getTimeSpanString((finished > 0 ? finished : System.currentTimeMillis()) - started);
+    }
+
+
+    File getLogFile() {
+        return new File(run.getRootDir(), LOG_FILE_NAME);
+    }
+
+
+    public String getLog() throws IOException {
+        File log = getLogFile();
+        return log.isFile() ? new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8) : "";
+    }
+
+
+    public Run<?, ?> getRun() {
+        return this.run;
+    }
+
+
+    public String getIconFileName() {
+        return "edit-delete.png";
+    }
+
+
+    public String getDisplayName() {
+        return Messages.DestroyActionName();
+    }
+
+
+    public String getUrlName() {
+        return "terraform-destroy";
+    }
+
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    /**
+     * A destroy which was queued or running when Jenkins stopped will not complete.
+     */
+    public synchronized void onLoad(Run<?, ?> run) {
+        this.run = run;
+        if ((status == Status.QUEUED || status == Status.RUNNING) && !DestroyQueue.isPending(run.getExternalizableId())) {
+            status = Status.INTERRUPTED;
+        }
+    }
+}
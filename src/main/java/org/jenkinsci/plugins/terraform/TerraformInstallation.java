@@ -48,6 +48,15 @@ public class TerraformInstallation extends ToolInstallation implements Environme
 
 
     public TerraformInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
+        TerraformPreProvisioner.awaitInstall(node, getName(), log);
+        return install(node, log);
+    }
+
+
+    /**
+     * Resolves the installation on the node, running its installers if needed.
+     */
+    TerraformInstallation install(Node node, TaskListener log) throws IOException, InterruptedException {
         return new TerraformInstallation(getName(), translateFor(node, log), getProperties().toList());
     }
 
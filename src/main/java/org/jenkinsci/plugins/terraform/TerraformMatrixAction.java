@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import java.io.Serializable;
+
+
+/**
+ * Result of each run of a {@link WorkspaceMatrix}, shown on the build page.
+ */
+public class TerraformMatrixAction implements RunAction2 {
+
+    private final List<WorkspaceResult> results = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+
+    /**
+     * Returns the action of the given build, adding it if needed.
+     */
+    static TerraformMatrixAction forRun(Run<?, ?> run) {
+        synchronized (run) {
+            TerraformMatrixAction action = run.getAction(TerraformMatrixAction.class);
+            if (action == null) {
+                action = new TerraformMatrixAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+
+    public synchronized void add(WorkspaceResult result) {
+        results.add(result);
+    }
+
+
+    public synchronized List<WorkspaceResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(results));
+    }
+
+
+    public Run<?, ?> getRun() {
+        return this.run;
+    }
+
+
+    public String getIconFileName() {
+        return "folder.png";
+    }
+
+
+    public String getDisplayName() {
+        return Messages.MatrixActionName();
+    }
+
+
+    public String getUrlName() {
+        return "terraform-workspaces";
+    }
+
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public static class WorkspaceResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String workspace;
+        private final String module;
+        private final String status;
+        private final long duration;
+
+
+        public WorkspaceResult(String workspace, String module, String status, long duration) {
+            this.workspace = workspace;
+            this.module = module;
+            this.status = status;
+            this.duration = duration;
+        }
+
+
+        public String getWorkspace() {
+            return this.workspace;
+        }
+
+
+        /**
+         * Display name of the run, see {@link WorkspaceMatrix#expand}.
+         */
+        public String getModule() {
+            return this.module;
+        }
+
+
+        /**
+         * SUCCESS, FAILURE, or SKIPPED when a run of a root module it depends on did not succeed.
+         */
+        public String getStatus() {
+            return this.status;
+        }
+
+
+        public long getDuration() {
+            return this.duration;
+        }
+
+
+        public String getDurationString() {
+            return Util.getTimeSpanString(this.duration);
+        }
+    }
+}
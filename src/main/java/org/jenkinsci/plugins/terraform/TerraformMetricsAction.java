@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import java.io.Serializable;
+
+
+/**
+ * Duration of each Terraform phase of a build: every command launched for every root
+ * module, and the resolution of the executable on the build node.
+ */
+public class TerraformMetricsAction implements RunAction2 {
+
+    public static final String EXECUTABLE = "executable";
+    public static final String WORKSPACE = "workspace";
+    public static final String INIT = "init";
+    public static final String GET = "get";
+    public static final String REFRESH = "refresh";
+    public static final String STATE = "state";
+    public static final String PLAN = "plan";
+    public static final String SHOW = "show";
+    public static final String APPLY = "apply";
+    public static final String OUTPUT = "output";
+    public static final String DESTROY = "destroy";
+
+    static final String[] PHASES = { EXECUTABLE, WORKSPACE, INIT, GET, REFRESH, STATE, PLAN, SHOW, APPLY, OUTPUT, DESTROY };
+    private static final String[] COLORS = { "#b0b0b0", "#c9a0dc", "#f0ad4e", "#5bc0de", "#5cb85c", "#8fd1b5", "#9cc3e6", "#b39ddb", "#3d7cc9", "#e6c84f", "#d24939" };
+
+    private final List<PhaseMetric> metrics = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+
+    /**
+     * Returns the action of the given build, adding it if needed.
+     */
+    static TerraformMetricsAction forRun(Run<?, ?> run) {
+        synchronized (run) {
+            TerraformMetricsAction action = run.getAction(TerraformMetricsAction.class);
+            if (action == null) {
+                action = new TerraformMetricsAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+
+    public synchronized void add(PhaseMetric metric) {
+        metrics.add(metric);
+    }
+
+
+    public synchronized List<PhaseMetric> getMetrics() {
+        return Collections.unmodifiableList(new ArrayList<>(metrics));
+    }
+
+
+    /**
+     * Returns the total duration of each phase over all root modules, in milliseconds.
+     */
+    public synchronized Map<String, Long> getPhaseTotals() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (String phase : PHASES) {
+            totals.put(phase, 0L);
+        }
+        for (PhaseMetric metric : metrics) {
+            Long total = totals.get(metric.getPhase());
+            totals.put(metric.getPhase(), (total == null ? 0 : total) + metric.getDuration());
+        }
+        return totals;
+    }
+
+
+    public long getTotal() {
+        long total = 0;
+        for (long duration : getPhaseTotals().values()) {
+            total += duration;
+        }
+        return total;
+    }
+
+
+    public static String getPhaseColor(String phase) {
+        for (int i = 0; i < PHASES.length; ++i) {
+            if (PHASES[i].equals(phase)) {
+                return COLORS[i];
+            }
+        }
+        return COLORS[0];
+    }
+
+
+    public static String getDurationString(long duration) {
+        return Util.getTimeSpanString(duration);
+    }
+
+
+    public Run<?, ?> getRun() {
+        return this.run;
+    }
+
+
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+
+    public String getDisplayName() {
+        return Messages.MetricsActionName();
+    }
+
+
+    public String getUrlName() {
+        return "terraform-metrics";
+    }
+
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public static class PhaseMetric implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String module;
+        private final String phase;
+        private final long duration;
+        private final long startOverhead;
+        private final int exitCode;
+
+
+        public PhaseMetric(String module, String phase, long duration, long startOverhead, int exitCode) {
+            this.module = module;
+            this.phase = phase;
+            this.duration = duration;
+            this.startOverhead = startOverhead;
+            this.exitCode = exitCode;
+        }
+
+
+        /**
+         * Root module the phase ran for, empty for the build's only root module or for build-wide phases.
+         */
+        public String getModule() {
+            return this.module;
+        }
+
+
+        public String getPhase() {
+            return this.phase;
+        }
+
+
+        /**
+         * Wall-clock duration of the phase in milliseconds, including process start.
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+
+        /**
+         * Time spent starting the process on the build node, in milliseconds.
+         */
+        public long getStartOverhead() {
+            return this.startOverhead;
+        }
+
+
+        public int getExitCode() {
+            return this.exitCode;
+        }
+
+
+        public String getDurationString() {
+            return Util.getTimeSpanString(this.duration);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+import hudson.model.Run;
+
+import jenkins.model.Jenkins;
+
+
+/**
+ * Receives the duration of each Terraform phase of a build as soon as it completes,
+ * e.g. to publish them to a Prometheus or Dropwizard metrics registry.
+ */
+public abstract class TerraformMetricsListener implements ExtensionPoint {
+
+    /**
+     * Called after each Terraform command launched by a build, and after each resolution of the executable.
+     */
+    public abstract void onPhaseCompleted(Run<?, ?> run, TerraformMetricsAction.PhaseMetric metric);
+
+
+    public static ExtensionList<TerraformMetricsListener> all() {
+        return Jenkins.getInstance().getExtensionList(TerraformMetricsListener.class);
+    }
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.Action;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+
+/**
+ * Trend of the Terraform phase durations over the recent builds of a project,
+ * shown on the project page.
+ */
+public class TerraformMetricsProjectAction implements Action {
+
+    private static final int MAX_BUILDS = 30;
+
+    private final Job<?, ?> job;
+
+
+    public TerraformMetricsProjectAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+
+    public Job<?, ?> getJob() {
+        return this.job;
+    }
+
+
+    /**
+     * Returns the metrics recorded by the most recent builds, oldest first. Only the last
+     * builds are looked at, whether they recorded metrics or not, so a project with few
+     * Terraform builds does not load its whole history on every page view.
+     */
+    public List<TerraformMetricsAction> getBuilds() {
+        List<TerraformMetricsAction> result = new ArrayList<>();
+        Run<?, ?> run = job.getLastBuild();
+        for (int i = 0; run != null && i < MAX_BUILDS; ++i, run = run.getPreviousBuild()) {
+            TerraformMetricsAction action = run.getAction(TerraformMetricsAction.class);
+            if (action != null) {
+                result.add(action);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+
+    /**
+     * Returns the longest total duration of the given builds, the full width of the trend.
+     */
+    public long getMaxTotal(List<TerraformMetricsAction> builds) {
+        long max = 1;
+        for (TerraformMetricsAction action : builds) {
+            max = Math.max(max, action.getTotal());
+        }
+        return max;
+    }
+
+
+    public String[] getPhases() {
+        return TerraformMetricsAction.PHASES.clone();
+    }
+
+
+    public String getIconFileName() {
+        return null;
+    }
+
+
+    public String getDisplayName() {
+        return Messages.MetricsActionName();
+    }
+
+
+    public String getUrlName() {
+        return null;
+    }
+}
@@ -0,0 +1,172 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+
+import hudson.model.AbstractBuild;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Exposes the outputs of a root module, as read once with <code>terraform output -json</code>,
+ * to the build steps as environment variables.
+ *
+ * Each output becomes TF_OUTPUT_&lt;name&gt; (prefixed with the root module name when the build
+ * has several), holding strings as is and other values as JSON. Sensitive outputs and values
+ * longer than {@link #MAX_VARIABLE_LENGTH} are written to a file instead, whose path is given
+ * by TF_OUTPUT_&lt;name&gt;_FILE, so they are only read by the steps needing them and do not end
+ * up in the environment of every process. TF_OUTPUTS_FILE points to the whole JSON document.
+ * The files are removed when the build completes. Names are reduced to letters, digits and
+ * underscores, and outputs whose variables would have the same name are refused.
+ */
+class TerraformOutputs {
+
+    static final String OUTPUTS_DIR_NAME = "outputs";
+    static final String OUTPUTS_FILE_NAME = "outputs.json";
+    static final String VARIABLE_PREFIX = "TF_OUTPUT_";
+    static final int MAX_VARIABLE_LENGTH = 4096;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+
+    private TerraformOutputs() {
+    }
+
+
+    /**
+     * Returns the directory holding the output files of a root module.
+     */
+    static FilePath getDirectory(RootModule module) {
+        return new FilePath(module.getWorkingDirectory(), OUTPUTS_DIR_NAME);
+    }
+
+
+    /**
+     * Adds the outputs of a root module to the environment of the build.
+     *
+     * @param json output of <code>terraform output -json</code>
+     * @param prefix prefix of the variable names after TF_OUTPUT_, empty for the only root module
+     * @return the number of outputs
+     */
+    static int inject(AbstractBuild build, RootModule module, byte[] json, String prefix) throws IOException, InterruptedException {
+        Map<String, Output> outputs = parse(json, prefix);
+
+        FilePath directory = getDirectory(module);
+        directory.mkdirs();
+        directory.chmod(0700);
+
+        FilePath all = new FilePath(directory, OUTPUTS_FILE_NAME);
+        all.write(new String(json, StandardCharsets.UTF_8), "UTF-8");
+        all.chmod(0600);
+        build.addAction(new VariableInjectionAction("TF_OUTPUTS_" + prefix + "FILE", all.getRemote()));
+
+        for (Map.Entry<String, Output> output : outputs.entrySet()) {
+            if (output.getValue().isFile()) {
+                FilePath file = new FilePath(directory, output.getValue().getFileName());
+                file.write(output.getValue().getText(), "UTF-8");
+                file.chmod(0600);
+                build.addAction(new VariableInjectionAction(output.getKey(), file.getRemote()));
+            } else {
+                build.addAction(new VariableInjectionAction(output.getKey(), output.getValue().getText()));
+            }
+        }
+        return outputs.size();
+    }
+
+
+    /**
+     * Reads the outputs of a root module.
+     *
+     * @param json output of <code>terraform output -json</code>
+     * @param prefix prefix of the variable names after TF_OUTPUT_
+     * @return the outputs, by the name of their variable
+     * @throws IOException if the document is invalid, or if two outputs have the same variable name
+     */
+    static Map<String, Output> parse(byte[] json, String prefix) throws IOException {
+        JsonNode outputs = JSON.readTree(json);
+        if (outputs == null || !outputs.isObject()) {
+            throw new IOException(Messages.OutputsInvalid());
+        }
+
+        Map<String, Output> result = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = outputs.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> output = it.next();
+            JsonNode value = output.getValue().path("value");
+            String text = value.isTextual() ? value.asText() : JSON.writeValueAsString(value);
+            boolean file = output.getValue().path("sensitive").asBoolean() || text.length() > MAX_VARIABLE_LENGTH;
+            String name = VARIABLE_PREFIX + prefix + toVariableName(output.getKey()) + (file ? "_FILE" : "");
+
+            // Also covers the files, named after the variables.
+            Output other = result.put(name, new Output(output.getKey(), text, file));
+            if (other != null) {
+                throw new IOException(Messages.OutputsNameCollision(other.getName(), output.getKey(), name));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Turns an output or root module name into a portable environment variable name.
+     */
+    static String toVariableName(String name) {
+        return name.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+
+    /**
+     * Value of an output, exported either in its variable or in a file.
+     */
+    static final class Output {
+
+        private final String name;
+        private final String text;
+        private final boolean file;
+
+
+        Output(String name, String text, boolean file) {
+            this.name = name;
+            this.text = text;
+            this.file = file;
+        }
+
+
+        /**
+         * Name of the output in the configuration.
+         */
+        String getName() {
+            return this.name;
+        }
+
+
+        /**
+         * Strings as is, other values as JSON.
+         */
+        String getText() {
+            return this.text;
+        }
+
+
+        /**
+         * Whether the value is written to a file, whose path is in the variable.
+         */
+        boolean isFile() {
+            return this.file;
+        }
+
+
+        String getFileName() {
+            return toVariableName(this.name);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.model.Run;
+import hudson.model.Result;
+import hudson.model.InvisibleAction;
+
+
+/**
+ * The -parallelism a build ran plan, apply and destroy with, whether apply or destroy
+ * actually ran, and how many throttling errors the providers reported meanwhile. The
+ * actions of the previous builds form the per-job history the adaptive parallelism is
+ * tuned from.
+ */
+public class TerraformParallelismAction extends InvisibleAction {
+
+    /** Terraform's own default. */
+    static final int DEFAULT_PARALLELISM = 10;
+
+    private final int parallelism;
+    private int throttled;
+    private boolean applied;
+
+
+    TerraformParallelismAction(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+
+    int getParallelism() {
+        return this.parallelism;
+    }
+
+
+    synchronized int getThrottled() {
+        return this.throttled;
+    }
+
+
+    synchronized void addThrottled(int count) {
+        this.throttled += count;
+    }
+
+
+    /**
+     * Returns true if the build ran apply or destroy, which is when the parallelism matters.
+     */
+    synchronized boolean isApplied() {
+        return this.applied;
+    }
+
+
+    synchronized void setApplied() {
+        this.applied = true;
+    }
+
+
+    /**
+     * Chooses the parallelism of the next build from the previous build: halved after
+     * throttling, raised by a quarter after a successful build which ran apply or destroy
+     * without throttling, and otherwise unchanged, always within 1 and the given maximum.
+     * Plans without changes, builds which do not apply and refresh-only builds say nothing
+     * about how much parallelism the providers accept.
+     */
+    static int adapt(Run<?, ?> previousBuild, int initial, int max) {
+        TerraformParallelismAction previous = previousBuild == null ? null : previousBuild.getAction(TerraformParallelismAction.class);
+        return adapt(previous, previous == null ? null : previousBuild.getResult(), initial, max);
+    }
+
+
+    /**
+     * @param previous action of the previous build, or null if there is none
+     * @param result result of the previous build
+     */
+    static int adapt(TerraformParallelismAction previous, Result result, int initial, int max) {
+        if (previous == null) {
+            return Math.max(1, Math.min(max, initial));
+        }
+
+        int current = previous.getParallelism();
+        int next;
+        if (previous.getThrottled() > 0) {
+            next = current / 2;
+        } else if (result == Result.SUCCESS && previous.isApplied()) {
+            next = current + Math.max(1, current / 4);
+        } else {
+            next = current;
+        }
+        return Math.max(1, Math.min(max, next));
+    }
+}
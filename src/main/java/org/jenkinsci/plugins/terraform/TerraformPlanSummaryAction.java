@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+
+/**
+ * Summaries of the plans of a build, one per root module, see {@link PlanSummary}.
+ */
+public class TerraformPlanSummaryAction implements RunAction2 {
+
+    private final List<PlanSummary> summaries = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+
+    /**
+     * Returns the action of the given build, adding it if needed.
+     */
+    static TerraformPlanSummaryAction forRun(Run<?, ?> run) {
+        synchronized (run) {
+            TerraformPlanSummaryAction action = run.getAction(TerraformPlanSummaryAction.class);
+            if (action == null) {
+                action = new TerraformPlanSummaryAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+
+    public synchronized void add(PlanSummary summary) {
+        summaries.add(summary);
+    }
+
+
+    public synchronized List<PlanSummary> getSummaries() {
+        return Collections.unmodifiableList(new ArrayList<>(summaries));
+    }
+
+
+    public PlanSummary.Action[] getActions() {
+        return PlanSummary.Action.values();
+    }
+
+
+    public String getOmittedMessage(PlanSummary summary) {
+        return Messages.PlanSummaryOmitted(summary.getOmitted());
+    }
+
+
+    public Run<?, ?> getRun() {
+        return this.run;
+    }
+
+
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+
+    public String getDisplayName() {
+        return Messages.PlanSummaryActionName();
+    }
+
+
+    public String getUrlName() {
+        return "terraform-plan";
+    }
+
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+}
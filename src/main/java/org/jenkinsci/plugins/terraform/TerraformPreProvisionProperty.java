@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+import hudson.Extension;
+
+import hudson.model.Label;
+import hudson.model.Node;
+
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolPropertyDescriptor;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+
+/**
+ * Installs a Terraform installation on matching nodes as soon as they come online,
+ * rather than when the first build needs it.
+ */
+public class TerraformPreProvisionProperty extends ToolProperty<TerraformInstallation> {
+
+    private final String label;
+
+
+    @DataBoundConstructor
+    public TerraformPreProvisionProperty(String label) {
+        this.label = Util.fixEmptyAndTrim(label);
+    }
+
+
+    /**
+     * Label expression selecting the nodes to install on, null for every node.
+     */
+    public String getLabel() {
+        return this.label;
+    }
+
+
+    boolean appliesTo(Node node) {
+        if (label == null) {
+            return true;
+        }
+        Label expression = Jenkins.getInstance().getLabel(label);
+        return expression != null && expression.contains(node);
+    }
+
+
+    @Override
+    public Class<TerraformInstallation> type() {
+        return TerraformInstallation.class;
+    }
+
+
+    @Extension
+    public static final class DescriptorImpl extends ToolPropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.PreProvisionPropertyName();
+        }
+
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == TerraformInstallation.class;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Extension;
+
+import hudson.model.Node;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+
+import hudson.slaves.ComputerListener;
+
+import hudson.util.LogTaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.io.IOException;
+
+
+/**
+ * Installs the Terraform installations carrying a {@link TerraformPreProvisionProperty} on
+ * each node when it comes online, in the background and a bounded number at a time.
+ *
+ * A build needing an installation which is still being installed on its node waits for that
+ * install to finish instead of starting its own.
+ */
+@Extension
+public class TerraformPreProvisioner extends ComputerListener {
+
+    private static final int MAX_INSTALLS = Integer.getInteger(TerraformPreProvisioner.class.getName() + ".maxInstalls", 2);
+    private static final Logger LOGGER = Logger.getLogger(TerraformPreProvisioner.class.getName());
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(1, MAX_INSTALLS),
+            new NamingThreadFactory(new DaemonThreadFactory(), "TerraformPreProvisioner"));
+    private static final Map<String, Future<?>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+
+    @Override
+    public void onOnline(Computer computer, TaskListener listener) throws IOException, InterruptedException {
+        final Node node = computer.getNode();
+        if (node == null) {
+            return;
+        }
+
+        TerraformInstallation[] installations = Jenkins.getInstance()
+                .getDescriptorByType(TerraformBuildWrapper.DescriptorImpl.class).getInstallations();
+        for (final TerraformInstallation installation : installations) {
+            TerraformPreProvisionProperty property = installation.getProperties().get(TerraformPreProvisionProperty.class);
+            if (property == null || !property.appliesTo(node)) {
+                continue;
+            }
+
+            final String key = key(node, installation.getName());
+            FutureTask<Void> install = new FutureTask<>(new Callable<Void>() {
+                public Void call() throws Exception {
+                    try {
+                        LOGGER.fine("Pre-provisioning " + installation.getName() + " on " + node.getNodeName());
+                        installation.install(node, new LogTaskListener(LOGGER, Level.FINE));
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.WARNING, "Failed to pre-provision " + installation.getName() + " on " + node.getNodeName(), ex);
+                        throw ex;
+                    } finally {
+                        IN_FLIGHT.remove(key);
+                    }
+                    return null;
+                }
+            });
+
+            // Registered before it starts, so that it is only removed once finished.
+            if (IN_FLIGHT.putIfAbsent(key, install) == null) {
+                EXECUTOR.execute(install);
+            }
+        }
+    }
+
+
+    /**
+     * Waits for the background install of the installation on the node, if one is in progress.
+     * A failed background install is only logged, the caller installs again itself.
+     */
+    static void awaitInstall(Node node, String installation, TaskListener listener) throws InterruptedException {
+        Future<?> install = IN_FLIGHT.get(key(node, installation));
+        if (install == null) {
+            return;
+        }
+
+        listener.getLogger().println(Messages.PreProvisionWaiting(installation, node.getDisplayName()));
+        try {
+            install.get();
+        } catch (ExecutionException ex) {
+            listener.getLogger().println(Messages.PreProvisionFailed(installation, ex.getCause()));
+        }
+    }
+
+
+    private static String key(Node node, String installation) {
+        return node.getNodeName() + ":" + installation;
+    }
+}
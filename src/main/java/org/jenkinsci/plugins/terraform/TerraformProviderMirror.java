@@ -0,0 +1,220 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Extension;
+import hudson.FilePath;
+
+import hudson.model.UnprotectedRootAction;
+import hudson.model.BuildableItemWithBuildWrappers;
+
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+
+import hudson.remoting.VirtualChannel;
+
+import jenkins.model.Jenkins;
+import jenkins.MasterToSlaveFileCallable;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+
+import java.net.HttpURLConnection;
+
+import javax.servlet.ServletException;
+
+
+/**
+ * Terraform provider network mirror served by the controller
+ * (https://www.terraform.io/docs/internals/provider-network-mirror-protocol.html), backed
+ * by a {@link ProviderMirrorStore}.
+ *
+ * The endpoint does not require authentication, as Terraform cannot authenticate with
+ * Jenkins credentials. It only serves public provider packages. Anonymous requests must
+ * not make the controller download arbitrary packages, so it only fetches from the upstream
+ * registries allowed for the store if fetching is enabled in the global configuration and
+ * a job uses the mirror; otherwise only the packages already in the store are served.
+ */
+@Extension
+public class TerraformProviderMirror implements UnprotectedRootAction {
+
+    static final String URL_NAME = "terraform-providers";
+
+    private static final long USAGE_TTL = TimeUnit.MINUTES.toMillis(1);
+    private static final Pattern PROVIDER_INSTALLATION = Pattern.compile("(?m)^\\s*provider_installation\\s*\\{");
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Logger LOGGER = Logger.getLogger(TerraformProviderMirror.class.getName());
+
+    private static volatile long usageCheckedAt;
+    private static volatile boolean used;
+
+
+    public String getIconFileName() {
+        return null;
+    }
+
+
+    public String getDisplayName() {
+        return Messages.ProviderMirrorName();
+    }
+
+
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+
+    /**
+     * Returns the URL of the mirror, or null if the Jenkins URL is not configured.
+     */
+    static String getMirrorUrl() {
+        String rootUrl = Jenkins.getInstance().getRootUrl();
+        return rootUrl == null ? null : rootUrl + URL_NAME + "/";
+    }
+
+
+    /**
+     * Returns a Terraform CLI configuration installing all providers from the given mirror,
+     * keeping the other settings (credentials, host blocks...) of the given user configuration.
+     *
+     * @param userConfig the CLI configuration Terraform would otherwise use, or null
+     * @throws IOException if the user configuration already selects how providers are installed
+     */
+    static String getCliConfig(String mirrorUrl, String userConfig) throws IOException {
+        StringBuilder config = new StringBuilder();
+        if (userConfig != null) {
+            if (PROVIDER_INSTALLATION.matcher(userConfig).find()) {
+                throw new IOException(Messages.ProviderMirrorInstallationConfigured());
+            }
+            config.append(userConfig).append('\n');
+        }
+        return config.append("provider_installation {\n")
+                     .append("  network_mirror {\n")
+                     .append("    url = \"").append(mirrorUrl).append("\"\n")
+                     .append("  }\n")
+                     .append("}\n").toString();
+    }
+
+
+    /**
+     * Returns the CLI configuration Terraform uses on the node of the given directory when
+     * TF_CLI_CONFIG_FILE is not set by the job, or null if there is none.
+     */
+    static String readUserCliConfig(FilePath directory) throws IOException, InterruptedException {
+        return directory.act(new ReadUserCliConfig());
+    }
+
+
+    /**
+     * Returns true if a job selects Use Jenkins Provider Mirror. The jobs are checked at most
+     * once a minute, and as the system, since the endpoint is called anonymously.
+     */
+    static boolean isUsed() {
+        long now = System.currentTimeMillis();
+        if (now - usageCheckedAt > USAGE_TTL) {
+            boolean result = false;
+            try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+                for (BuildableItemWithBuildWrappers item : Jenkins.getInstance().getAllItems(BuildableItemWithBuildWrappers.class)) {
+                    TerraformBuildWrapper wrapper = item.getBuildWrappersList().get(TerraformBuildWrapper.class);
+                    if (wrapper != null && wrapper.getUseProviderMirror()) {
+                        result = true;
+                        break;
+                    }
+                }
+            }
+            used = result;
+            usageCheckedAt = now;
+        }
+        return used;
+    }
+
+
+    /**
+     * Serves HOSTNAME/NAMESPACE/TYPE/index.json, HOSTNAME/NAMESPACE/TYPE/VERSION.json and the
+     * package files those refer to.
+     */
+    public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        String[] path = req.getRestOfPath().replaceFirst("^/", "").split("/");
+        if (path.length != 4) {
+            rsp.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+            return;
+        }
+        for (String segment : path) {
+            if (!ProviderMirrorStore.isValidName(segment)) {
+                rsp.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+                return;
+            }
+        }
+
+        String host = path[0].toLowerCase();
+        String namespace = path[1].toLowerCase();
+        String type = path[2].toLowerCase();
+        String name = path[3];
+        TerraformBuildWrapper.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(TerraformBuildWrapper.DescriptorImpl.class);
+        ProviderMirrorStore store = ProviderMirrorStore.get(descriptor.getFetchUpstreamProviders() && isUsed(),
+                descriptor.getProviderMirrorQuota());
+
+        try {
+            if (name.equals("index.json")) {
+                sendJson(rsp, store.getIndex(host, namespace, type));
+            } else if (name.endsWith(".json")) {
+                ObjectNode version = store.getVersion(host, namespace, type, name.substring(0, name.length() - ".json".length()));
+                if (version == null) {
+                    rsp.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+                } else {
+                    sendJson(rsp, version);
+                }
+            } else {
+                File archive = store.getArchive(host, namespace, type, name);
+                if (archive == null) {
+                    rsp.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+                } else {
+                    rsp.setContentType("application/zip");
+                    rsp.serveFile(req, archive.toURI().toURL());
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warning("Could not serve " + req.getRestOfPath() + ": " + ex);
+            rsp.sendError(HttpURLConnection.HTTP_BAD_GATEWAY);
+        }
+    }
+
+
+    private static void sendJson(StaplerResponse rsp, ObjectNode json) throws IOException {
+        rsp.setContentType("application/json");
+        JSON.writeValue(rsp.getOutputStream(), json);
+    }
+
+
+    private static final class ReadUserCliConfig extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+
+        public String invoke(File directory, VirtualChannel channel) throws IOException, InterruptedException {
+            String configFile = System.getenv("TF_CLI_CONFIG_FILE");
+            File file;
+            if (configFile != null && !configFile.isEmpty()) {
+                file = new File(configFile);
+            } else if (File.pathSeparatorChar == ';') {
+                String appData = System.getenv("APPDATA");
+                file = appData == null ? null : new File(appData, "terraform.rc");
+            } else {
+                file = new File(System.getProperty("user.home"), ".terraformrc");
+            }
+            return file == null || !file.isFile() ? null : new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+    }
+}
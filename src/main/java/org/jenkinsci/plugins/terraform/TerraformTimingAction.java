@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Util;
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import java.io.Serializable;
+
+
+/**
+ * Per-resource refresh and apply timings of a build, recorded from the machine-readable
+ * Terraform output. Shown as a table of the slowest resources and a timeline.
+ */
+public class TerraformTimingAction implements RunAction2 {
+
+    static final String REFRESH = "refresh";
+    static final String APPLY = "apply";
+
+    private final List<ResourceTiming> resources = new ArrayList<>();
+    private transient Run<?, ?> run;
+    // Start and end of the whole run, computed once for the rows of the timeline.
+    private transient long[] bounds;
+
+
+    /**
+     * Returns the action of the given build, adding it if needed.
+     */
+    static TerraformTimingAction forRun(Run<?, ?> run) {
+        synchronized (run) {
+            TerraformTimingAction action = run.getAction(TerraformTimingAction.class);
+            if (action == null) {
+                action = new TerraformTimingAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+
+    public synchronized void add(ResourceTiming timing) {
+        resources.add(timing);
+        bounds = null;
+    }
+
+
+    public Run<?, ?> getRun() {
+        return this.run;
+    }
+
+
+    /**
+     * Returns the recorded resources, slowest first.
+     */
+    public synchronized List<ResourceTiming> getSlowestResources() {
+        List<ResourceTiming> result = new ArrayList<>(resources);
+        Collections.sort(result, new Comparator<ResourceTiming>() {
+            public int compare(ResourceTiming a, ResourceTiming b) {
+                return Long.compare(b.getDuration(), a.getDuration());
+            }
+        });
+        return result;
+    }
+
+
+    /**
+     * Returns the recorded resources in start order.
+     */
+    public synchronized List<ResourceTiming> getTimeline() {
+        List<ResourceTiming> result = new ArrayList<>(resources);
+        Collections.sort(result, new Comparator<ResourceTiming>() {
+            public int compare(ResourceTiming a, ResourceTiming b) {
+                return Long.compare(a.getStart(), b.getStart());
+            }
+        });
+        return result;
+    }
+
+
+    private synchronized long[] getBounds() {
+        if (bounds == null) {
+            long start = Long.MAX_VALUE;
+            long end = 0;
+            for (ResourceTiming timing : resources) {
+                start = Math.min(start, timing.getStart());
+                end = Math.max(end, timing.getEnd());
+            }
+            bounds = new long[] { resources.isEmpty() ? 0 : start, end };
+        }
+        return bounds;
+    }
+
+
+    public long getStart() {
+        return getBounds()[0];
+    }
+
+
+    public long getEnd() {
+        return getBounds()[1];
+    }
+
+
+    /**
+     * Position of a resource on the timeline, as a percentage of the whole run.
+     */
+    public double getOffsetPercent(ResourceTiming timing) {
+        long[] bounds = getBounds();
+        long total = Math.max(1, bounds[1] - bounds[0]);
+        return 100.0 * (timing.getStart() - bounds[0]) / total;
+    }
+
+
+    /**
+     * Length of a resource on the timeline, as a percentage of the whole run.
+     */
+    public double getWidthPercent(ResourceTiming timing) {
+        long[] bounds = getBounds();
+        long total = Math.max(1, bounds[1] - bounds[0]);
+        return Math.max(0.2, 100.0 * timing.getDuration() / total);
+    }
+
+
+    public String getTotalDurationString() {
+        long[] bounds = getBounds();
+        return Util.getTimeSpanString(bounds[1] - bounds[0]);
+    }
+
+
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+
+    public String getDisplayName() {
+        return Messages.TimingActionName();
+    }
+
+
+    public String getUrlName() {
+        return "terraform-timing";
+    }
+
+
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+
+    public static class ResourceTiming implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String module;
+        private final String address;
+        private final String phase;
+        private final String action;
+        private final long start;
+        private final long end;
+        private final boolean failed;
+
+
+        public ResourceTiming(String module, String address, String phase, String action, long start, long end, boolean failed) {
+            this.module = module;
+            this.address = address;
+            this.phase = phase;
+            this.action = action;
+            this.start = start;
+            this.end = end;
+            this.failed = failed;
+        }
+
+
+        public String getModule() {
+            return this.module;
+        }
+
+
+        public String getAddress() {
+            return this.address;
+        }
+
+
+        public String getPhase() {
+            return this.phase;
+        }
+
+
+        public String getAction() {
+            return this.action == null ? "" : this.action;
+        }
+
+
+        public long getStart() {
+            return this.start;
+        }
+
+
+        public long getEnd() {
+            return this.end;
+        }
+
+
+        public long getDuration() {
+            return Math.max(0, this.end - this.start);
+        }
+
+
+        public String getDurationString() {
+            return Util.getTimeSpanString(getDuration());
+        }
+
+
+        public boolean isFailed() {
+            return this.failed;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.util.regex.Pattern;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Passes Terraform output through unchanged while counting the lines reporting that a
+ * provider API throttled or rate limited the requests, e.g. HTTP 429 responses and the
+ * throttling errors of the major cloud providers.
+ *
+ * Plans list attributes such as throttling_burst_limit or rate_limit, so the throttling
+ * wording is only looked for in error and diagnostic lines ("Error:" and the lines of a
+ * diagnostic box), while the HTTP 429 status is recognized anywhere.
+ */
+class ThrottleDetectingOutputStream extends LineTransformationOutputStream {
+
+    private static final Pattern STATUS = Pattern.compile(
+            "(?i)(status ?code:? ?429\\b|error:? ?429\\b|http ?429\\b|\\b429 too many requests)");
+    private static final Pattern DIAGNOSTIC = Pattern.compile("^\\s*(?:\u2502|Error:)");
+    private static final Pattern THROTTLED = Pattern.compile(
+            "(?i)(too ?many ?requests|throttl|rate ?exceeded|rate.?limit|request ?limit ?exceeded|\\bslowdown\\b)");
+    private static final Pattern ESCAPE = Pattern.compile("\\u001B\\[[0-9;]*m");
+
+    private final OutputStream out;
+    private int throttled;
+
+
+    ThrottleDetectingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+
+    static boolean isThrottled(String line) {
+        if (STATUS.matcher(line).find()) {
+            return true;
+        }
+        String text = ESCAPE.matcher(line).replaceAll("");
+        return DIAGNOSTIC.matcher(text).find() && THROTTLED.matcher(text).find();
+    }
+
+
+    /**
+     * Number of lines reporting throttling so far.
+     */
+    int getThrottled() {
+        return this.throttled;
+    }
+
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        if (isThrottled(new String(b, 0, len, StandardCharsets.UTF_8))) {
+            ++throttled;
+        }
+        out.write(b, 0, len);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        // Only flushes the last line, the stream written to stays open.
+        super.close();
+        out.flush();
+    }
+}
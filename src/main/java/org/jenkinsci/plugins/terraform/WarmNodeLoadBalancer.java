@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.init.Initializer;
+import hudson.init.InitMilestone;
+
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.LoadBalancer;
+
+import hudson.model.queue.MappingWorksheet;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import hudson.model.queue.MappingWorksheet.ExecutorChunk;
+
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.logging.Logger;
+
+
+/**
+ * Sends a Terraform job to the available node which already holds most of its state, as
+ * scored by {@link WarmNodeRegistry}, so that it does not pay again for the executable
+ * install, provider downloads and module fetch.
+ *
+ * Only nodes with an idle executor are considered, so a job whose warm nodes are all busy
+ * is not held back. Other jobs, and Terraform jobs without any warm idle node, are mapped
+ * by the load balancer this one decorates.
+ */
+public final class WarmNodeLoadBalancer extends LoadBalancer {
+
+    private static final boolean DISABLED = Boolean.getBoolean(WarmNodeLoadBalancer.class.getName() + ".disabled");
+    private static final Logger LOGGER = Logger.getLogger(WarmNodeLoadBalancer.class.getName());
+
+    private final LoadBalancer fallback;
+
+
+    WarmNodeLoadBalancer(LoadBalancer fallback) {
+        this.fallback = fallback;
+    }
+
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void install() {
+        if (DISABLED) {
+            return;
+        }
+
+        Queue queue = Jenkins.getInstance().getQueue();
+        LoadBalancer current = queue.getLoadBalancer();
+        if (!(current instanceof WarmNodeLoadBalancer)) {
+            queue.setLoadBalancer(new WarmNodeLoadBalancer(current));
+            LOGGER.info("Installed warm node load balancer in front of " + current);
+        }
+    }
+
+
+    @Override
+    public Mapping map(Queue.Task task, MappingWorksheet worksheet) {
+        TerraformBuildWrapper wrapper = TerraformBuildWrapper.forTask(task);
+        // Tasks split into several work chunks are left to the default strategy.
+        if (wrapper == null || worksheet.works.size() != 1) {
+            return fallback.map(task, worksheet);
+        }
+
+        String job = ((Item) task).getFullName();
+        final Map<ExecutorChunk, Integer> scores = new HashMap<>();
+        List<ExecutorChunk> warm = new ArrayList<>();
+        for (ExecutorChunk chunk : worksheet.works(0).applicableExecutorChunks()) {
+            int score = WarmNodeRegistry.score(job, wrapper.getTerraformInstallation(), chunk.node.getNodeName());
+            if (score > 0) {
+                scores.put(chunk, score);
+                warm.add(chunk);
+            }
+        }
+
+        Collections.sort(warm, new Comparator<ExecutorChunk>() {
+            public int compare(ExecutorChunk a, ExecutorChunk b) {
+                return Integer.compare(scores.get(b), scores.get(a));
+            }
+        });
+
+        Mapping mapping = worksheet.new Mapping();
+        for (ExecutorChunk chunk : warm) {
+            mapping.assign(0, chunk);
+            if (mapping.isCompletelyValid()) {
+                return mapping;
+            }
+        }
+
+        return fallback.map(task, worksheet);
+    }
+}
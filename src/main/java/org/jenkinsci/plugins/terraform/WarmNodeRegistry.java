@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.Extension;
+
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.listeners.ItemListener;
+
+import jenkins.model.NodeListener;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Remembers, on the controller, which nodes hold the state a Terraform job would otherwise
+ * have to rebuild: the job's initialized working directory (.terraform), the job's Terraform
+ * installation and a populated provider cache.
+ *
+ * The registry is a scheduling hint only. It is kept in memory, starts empty after a restart
+ * and is filled again as builds complete. Deleted nodes and jobs are removed from it, and
+ * renamed ones are recorded under their new name, so it does not grow with ephemeral agents.
+ */
+final class WarmNodeRegistry {
+
+    static final int WORKSPACE_SCORE = 4;
+    static final int INSTALLATION_SCORE = 2;
+    static final int PROVIDER_CACHE_SCORE = 1;
+
+    private static final Map<String, Set<String>> JOB_NODES = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> INSTALLATION_NODES = new ConcurrentHashMap<>();
+    private static final Set<String> PROVIDER_CACHE_NODES = ConcurrentHashMap.newKeySet();
+
+
+    private WarmNodeRegistry() {
+    }
+
+
+    /**
+     * Records that the job initialized its root modules on the node.
+     */
+    static void recordWorkspace(String job, String node) {
+        JOB_NODES.computeIfAbsent(job, k -> ConcurrentHashMap.<String>newKeySet()).add(node);
+    }
+
+
+    /**
+     * Records that the installation was resolved, and installed if needed, on the node.
+     */
+    static void recordInstallation(String installation, String node) {
+        if (installation != null) {
+            INSTALLATION_NODES.computeIfAbsent(installation, k -> ConcurrentHashMap.<String>newKeySet()).add(node);
+        }
+    }
+
+
+    static void recordProviderCache(String node) {
+        PROVIDER_CACHE_NODES.add(node);
+    }
+
+
+    /**
+     * Returns how much of the job's state is already present on the node, 0 for a cold node.
+     */
+    static int score(String job, String installation, String node) {
+        int score = 0;
+        if (contains(JOB_NODES, job, node)) {
+            score += WORKSPACE_SCORE;
+        }
+        if (installation != null && contains(INSTALLATION_NODES, installation, node)) {
+            score += INSTALLATION_SCORE;
+        }
+        if (PROVIDER_CACHE_NODES.contains(node)) {
+            score += PROVIDER_CACHE_SCORE;
+        }
+        return score;
+    }
+
+
+    private static boolean contains(Map<String, Set<String>> map, String key, String node) {
+        Set<String> nodes = map.get(key);
+        return nodes != null && nodes.contains(node);
+    }
+
+
+    /**
+     * Forgets a node, or records what it holds under its new name.
+     *
+     * @param newName new name of the node, or null if it was deleted
+     */
+    static void moveNode(String node, String newName) {
+        for (Map<String, Set<String>> map : Arrays.asList(JOB_NODES, INSTALLATION_NODES)) {
+            for (Set<String> nodes : map.values()) {
+                if (nodes.remove(node) && newName != null) {
+                    nodes.add(newName);
+                }
+            }
+            map.values().removeIf(Set::isEmpty);
+        }
+        if (PROVIDER_CACHE_NODES.remove(node) && newName != null) {
+            PROVIDER_CACHE_NODES.add(newName);
+        }
+    }
+
+
+    /**
+     * Forgets a job, or records its nodes under its new full name.
+     *
+     * @param newName new full name of the job, or null if it was deleted
+     */
+    static void moveJob(String job, String newName) {
+        Set<String> nodes = JOB_NODES.remove(job);
+        if (nodes != null && newName != null) {
+            JOB_NODES.computeIfAbsent(newName, k -> ConcurrentHashMap.<String>newKeySet()).addAll(nodes);
+        }
+    }
+
+
+    @Extension
+    public static final class Nodes extends NodeListener {
+
+        @Override
+        protected void onUpdated(Node oldOne, Node newOne) {
+            if (!oldOne.getNodeName().equals(newOne.getNodeName())) {
+                moveNode(oldOne.getNodeName(), newOne.getNodeName());
+            }
+        }
+
+
+        @Override
+        protected void onDeleted(Node node) {
+            moveNode(node.getNodeName(), null);
+        }
+    }
+
+
+    @Extension
+    public static final class Items extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            moveJob(item.getFullName(), null);
+        }
+
+
+        /**
+         * Called for renamed and moved jobs, including the jobs of a renamed folder.
+         */
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            moveJob(oldFullName, newFullName);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.FilePath;
+
+import hudson.remoting.VirtualChannel;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Runs the same configuration in several Terraform workspaces at once, e.g. one per tenant.
+ *
+ * Every root module of the build becomes one run per workspace, scheduled like the root
+ * modules themselves. Each run has its own working directory and Terraform data directory
+ * (TF_DATA_DIR), so selecting a workspace only writes the run's own environment file. The
+ * root modules are initialized once, in their default .terraform directory, and the data
+ * directory of each run links to the providers and modules installed there and holds a
+ * copy of the backend configuration.
+ */
+final class WorkspaceMatrix {
+
+    static final String MATRIX_DIR_NAME = "workspaces";
+    static final String DATA_DIR_VARIABLE = "TF_DATA_DIR";
+
+    /**
+     * Data directory entries shared by the runs: installed providers (and their pre-0.13
+     * location) and modules.
+     */
+    private static final String[] SHARED_ENTRIES = { "providers", "plugins", "modules" };
+    private static final String BACKEND_FILE_NAME = "terraform.tfstate";
+
+
+    private WorkspaceMatrix() {
+    }
+
+
+    /**
+     * Parses the workspace names, one per line or separated by commas, ignoring duplicates.
+     */
+    static List<String> parse(String workspaces) {
+        Set<String> result = new LinkedHashSet<>();
+        if (workspaces != null) {
+            for (String workspace : workspaces.split("[,\\s]+")) {
+                if (!workspace.isEmpty()) {
+                    result.add(workspace);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+
+    /**
+     * Returns one run per root module and workspace. A run depends on the runs of the same
+     * workspace for the root modules its module depends on.
+     */
+    static List<RootModule> expand(List<RootModule> modules, List<String> workspaces, boolean useRemoteState) {
+        List<RootModule> result = new ArrayList<>();
+        for (String workspace : workspaces) {
+            for (RootModule module : modules) {
+                List<String> dependencies = new ArrayList<>();
+                for (String dependency : module.getDependencies()) {
+                    dependencies.add(nameOf(dependency, workspace));
+                }
+
+                FilePath workingDirectory = new FilePath(module.getWorkingDirectory(),
+                        MATRIX_DIR_NAME + "/" + workspace.replaceAll("[^A-Za-z0-9._-]", "_"));
+                result.add(new RootModule(nameOf(module.getName(), workspace), module.getWorkspacePath(), workingDirectory,
+                        useRemoteState, dependencies, workspace, new FilePath(workingDirectory, RootModule.DATA_DIR_NAME)));
+            }
+        }
+        return result;
+    }
+
+
+    private static String nameOf(String module, String workspace) {
+        return module.isEmpty() ? workspace : module + "@" + workspace;
+    }
+
+
+    /**
+     * Adds TF_DATA_DIR to the environment of the commands of a run.
+     */
+    static String[] withDataDir(String[] envs, String dataDir) {
+        if (dataDir == null) {
+            return envs;
+        }
+        String[] result = Arrays.copyOf(envs, envs.length + 1);
+        result[envs.length] = DATA_DIR_VARIABLE + "=" + dataDir;
+        return result;
+    }
+
+
+    /**
+     * Sets up the data directory of a run from the data directory its root module was initialized in.
+     */
+    static void prepare(RootModule run) throws IOException, InterruptedException {
+        run.getWorkspacePath().act(new PrepareDataDir(run.getDataDir().getRemote()));
+    }
+
+
+    private static final class PrepareDataDir extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String dataDir;
+
+
+        PrepareDataDir(String dataDir) {
+            this.dataDir = dataDir;
+        }
+
+
+        public Void invoke(File workspacePath, VirtualChannel channel) throws IOException, InterruptedException {
+            Path shared = new File(workspacePath, RootModule.DATA_DIR_NAME).toPath();
+            Path target = new File(dataDir).toPath();
+            Files.createDirectories(target);
+
+            // Init may have changed the backend since the last run.
+            Path backend = shared.resolve(BACKEND_FILE_NAME);
+            if (Files.isRegularFile(backend)) {
+                Files.copy(backend, target.resolve(BACKEND_FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            for (String name : SHARED_ENTRIES) {
+                Path source = shared.resolve(name);
+                Path link = target.resolve(name);
+                if (!Files.isDirectory(source) || Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                try {
+                    // Relative, so a copy of the workspace still links to its own copy.
+                    Files.createSymbolicLink(link, link.getParent().relativize(source));
+                } catch (IOException | UnsupportedOperationException ex) {
+                    new FilePath(source.toFile()).copyRecursiveTo(new FilePath(link.toFile()));
+                }
+            }
+            return null;
+        }
+    }
+}
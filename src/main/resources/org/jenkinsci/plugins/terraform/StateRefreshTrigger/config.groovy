@@ -0,0 +1,8 @@
+package org.jenkinsci.plugins.terraform.StateRefreshTrigger;
+
+f = namespace('/lib/form')
+
+
+f.entry(field: 'maxAge', title: _('Maximum State Age (minutes)'), description: 'Build when the state of the job was last refreshed longer ago') {
+    f.number(clazz: 'positive-number', min: 1, default: 30);
+}
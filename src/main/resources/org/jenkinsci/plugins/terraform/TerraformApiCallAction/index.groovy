@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.terraform.TerraformApiCallAction;
+
+l = namespace(lib.LayoutTagLib)
+st = namespace('jelly:stapler')
+
+
+l.layout(title: my.displayName) {
+    l.side_panel() {
+        st.include(it: my.run, page: 'sidepanel.jelly', optional: true)
+    }
+
+    l.main_panel() {
+        h1(my.displayName)
+
+        p(_('Requests') + ': ' + my.requests)
+
+        table(class: 'sortable pane bigtable', style: 'width: 100%') {
+            tr {
+                th(_('Provider'))
+                th(_('Endpoint'))
+                th(_('Requests'))
+                th(_('Retried (429/5xx)'))
+                th(_('p50'))
+                th(_('p90'))
+                th(_('p99'))
+                th(_('Max'))
+                th(initialSortDir: 'up', _('Total'))
+            }
+            for (endpoint in my.endpoints) {
+                tr(style: endpoint.retried > 0 ? 'color: #d24939' : '') {
+                    td(endpoint.provider)
+                    td(endpoint.name)
+                    td(endpoint.requests)
+                    td(endpoint.retried)
+                    td(data: endpoint.getPercentile(0.5), endpoint.getPercentileString(0.5))
+                    td(data: endpoint.getPercentile(0.9), endpoint.getPercentileString(0.9))
+                    td(data: endpoint.getPercentile(0.99), endpoint.getPercentileString(0.99))
+                    td(data: endpoint.max, my.getDurationString(endpoint.max))
+                    td(data: endpoint.total, my.getDurationString(endpoint.total))
+                }
+            }
+        }
+    }
+}
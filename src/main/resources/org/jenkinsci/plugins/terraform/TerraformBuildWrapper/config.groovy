@@ -18,10 +18,38 @@ f.block() {
                 f.checkbox();
             }
 
+            f.entry(field:'useIncrementalInit', title: _('Skip unchanged init'), description: 'Skip terraform init and get when the root module has not changed since the last init') {
+                f.checkbox();
+            }
+
+            f.entry(field:'doPlan', title: _('Plan before apply'), description: 'Run terraform plan and apply the saved plan only if it contains changes') {
+                f.checkbox();
+            }
+
             f.entry(field:'doNotApply', title: _('Do not apply automatically'), description: 'Do everything except apply') {
                 f.checkbox();
             }
 
+            f.entry(field:'doSummarizePlan', title: _('Summarize plan'), description: 'Show the changes of each plan on the build page (requires Plan before apply)') {
+                f.checkbox();
+            }
+
+            f.entry(field:'doExportOutputs', title: _('Export outputs'), description: 'Read the outputs once after apply and expose them to the build steps as TF_OUTPUT_* variables') {
+                f.checkbox();
+            }
+
+            f.entry(field:'doArchivePlan', title: _('Archive plan'), description: 'Archive the saved plan for an apply job (requires Plan before apply)') {
+                f.checkbox();
+            }
+
+            f.entry(field:'planJob', title: _('Apply Plan From Job (Optional)'), description: 'Apply the plan archived by this job instead of planning. Leave blank to plan as usual.') {
+                f.textbox();
+            }
+
+            f.entry(field:'planBuild', title: _('Plan Build Number (Optional)'), description: 'Build of the plan job to apply. Leave blank for the upstream build, or else the last successful build.') {
+                f.textbox();
+            }
+
             f.radioBlock(checked: descriptor.isInlineConfigChecked(instance), name: 'config', value: 'inline', title: 'Configuration Text') {
                 f.entry(title: 'Terraform Text Configuration', field: 'inlineConfig', description: 'Inline configuration') {
                     f.textarea();
@@ -29,8 +57,12 @@ f.block() {
             }
 
             f.radioBlock(checked: descriptor.isFileConfigChecked(instance), name: 'config', value: 'file', title: 'Configuration Path') {
-                f.entry(title: 'Terraform Root Module Path', field: 'fileConfig', description: 'Relative Path to workspace directory containing configuration files for the Root Module (TF_CWD)') {
-                    f.textbox();
+                f.entry(title: 'Terraform Root Module Path', field: 'fileConfig', description: 'Relative Path to workspace directory containing configuration files for the Root Module (TF_CWD), or one path per line for multiple Root Modules') {
+                    f.expandableTextbox();
+                }
+
+                f.entry(title: 'Maximum Parallel Root Modules', field: 'maxParallelModules', description: 'Maximum number of Root Modules run at the same time') {
+                    f.number(clazz: 'positive-number', min: 1, default: 4);
                 }
 
                 f.entry(field:'useTerraformWorkspace', title: _('Use Terraform Workspace'), description: 'Use Terraform-style ${TF_CWD}/.terraform (selected) or Jenkins-style ${WORKSPACE}/terraform-plugin (not selected)') {
@@ -40,6 +72,10 @@ f.block() {
                 f.entry(field: 'terraformWorkspace', title: _('Workspace Name (Optional)'), description: 'Run terraform workspace command prior to apply. Leave blank to skip workspace selection.') {
                     f.textbox();
                 }
+
+                f.entry(field: 'terraformWorkspaces', title: _('Workspace Matrix (Optional)'), description: 'Workspace names, one per line, to plan and apply in at the same time. Overrides the workspace name.') {
+                    f.expandableTextbox();
+                }
             }
 
             f.entry(field: 'variables', title: _('Resource Variables (Optional)'), description: 'Resource variables will be passed to Terraform as a file (TF_VAR)') {
@@ -59,11 +95,56 @@ f.block() {
                     f.textbox();
                 }
 
+                f.entry(field: 'useAsyncDestroy', title: _('Destroy in the background'),
+                        description: 'Queue destroy on build completion and free the executor right away') {
+                    f.checkbox();
+                }
+
                 f.entry(field:'doNotLock', title: _('Do not use state locking'),
                         description: 'Skip state locking') {
                     f.checkbox();
                 }
 
+                f.entry(field: 'parallelism', title: _('Parallelism'),
+                        description: 'Number of concurrent operations of plan, apply and destroy (-parallelism), 0 for the Terraform default of 10') {
+                    f.number(clazz: 'positive-number', min: 0, default: 0);
+                }
+
+                f.entry(field: 'useAdaptiveParallelism', title: _('Adaptive Parallelism'),
+                        description: 'Tune the parallelism of each build from the throttling errors of the previous build') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'maxParallelism', title: _('Maximum Adaptive Parallelism'),
+                        description: 'Upper bound of the adaptive parallelism') {
+                    f.number(clazz: 'positive-number', min: 1, default: 50);
+                }
+
+                f.entry(field: 'useStateLock', title: _('Lock state in Jenkins'),
+                        description: 'Keep builds on the same state in the queue until the build holding it completes') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'stateName', title: _('State Name (Optional)'),
+                        description: 'Jobs with the same state name share the state lock and the state refresh time. Leave blank to identify the state by job, root module and workspace.') {
+                    f.textbox();
+                }
+
+                f.entry(field: 'doRefreshOnly', title: _('Refresh state only'),
+                        description: 'Run terraform apply -refresh-only instead of plan and apply, e.g. in a scheduled refresh job') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useFastApply', title: _('Skip refresh of a recently refreshed state'),
+                        description: 'Run plan and apply with -refresh=false while the state was fully refreshed recently') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'maxStateAge', title: _('Maximum State Age (minutes)'),
+                        description: 'Plan and apply refresh the state again once it was last refreshed longer ago') {
+                    f.number(clazz: 'positive-number', min: 1, default: 60);
+                }
+
                 f.entry(field: 'useRemoteState', title: _('Use Remote State'),
                         description: 'Use Terraform backend provider remote state') {
                     f.checkbox();
@@ -72,6 +153,56 @@ f.block() {
                 f.entry(field: 'useColorizedStdout', title: _('Colorized stdout')) {
                     f.checkbox();
                 }
+
+                f.entry(field: 'useCompactOutput', title: _('Compact console output'),
+                        description: 'Count resource progress lines instead of logging them and archive the full output compressed') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useApiDiagnostics', title: _('Record provider API calls'),
+                        description: 'Log provider requests to a file on the node and show the latency per provider and endpoint') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'keepProviderLog', title: _('Keep the provider log'),
+                        description: 'Archive the compressed provider log even if the build succeeded') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useJsonOutput', title: _('Record resource timings'),
+                        description: 'Run plan, apply and destroy with -json and record how long each resource takes') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useAgentExecution', title: _('Run sequence on the node in one call'),
+                        description: 'Send the whole workspace, init, get, plan and apply sequence to the build node at once') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useProviderCache', title: _('Use Shared Provider Cache'),
+                        description: 'Share downloaded providers between builds on the same node (TF_PLUGIN_CACHE_DIR)') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'providerCacheQuota', title: _('Provider Cache Quota (MB)'),
+                        description: 'Least recently used providers are evicted above this size, 0 disables eviction') {
+                    f.number(clazz: 'positive-number', min: 0, default: 2048);
+                }
+
+                f.entry(field: 'useProviderMirror', title: _('Use Jenkins Provider Mirror'),
+                        description: 'Install providers from the network mirror served by the Jenkins controller') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useModuleCache', title: _('Use Shared Module Cache'),
+                        description: 'Share downloaded modules with a pinned version between builds and jobs on the same node') {
+                    f.checkbox();
+                }
+
+                f.entry(field: 'useModuleCacheOffline', title: _('Offline Module Cache'),
+                        description: 'Fail instead of downloading modules which are not in the shared module cache') {
+                    f.checkbox();
+                }
             }
         }
     }
@@ -0,0 +1,16 @@
+package org.jenkinsci.plugins.terraform.TerraformBuildWrapper;
+
+f = namespace('/lib/form')
+
+
+f.section(title: _('Terraform Provider Mirror')) {
+    f.entry(field: 'fetchUpstreamProviders', title: _('Fetch providers from their registries'),
+            description: 'Download providers which are not in the mirror yet, while a job uses the mirror') {
+        f.checkbox();
+    }
+
+    f.entry(field: 'providerMirrorQuota', title: _('Provider Mirror Quota (MB)'),
+            description: 'The oldest provider packages are evicted above this size, 0 disables eviction') {
+        f.number(clazz: 'positive-number', min: 0, default: 10240);
+    }
+}
@@ -0,0 +1,22 @@
+package org.jenkinsci.plugins.terraform.TerraformControllerInstaller;
+
+f = namespace('/lib/form')
+
+
+f.entry(field: 'label', title: _('Label')) {
+    f.textbox();
+}
+
+f.entry(field: 'version', title: _('Version'), description: 'Terraform release to install, e.g. 1.5.7') {
+    f.textbox();
+}
+
+f.entry(field: 'localDirectory', title: _('Local Directory (Optional)'), description: 'Directory on the controller holding release archives and SHA256SUMS files to import instead of downloading them') {
+    f.textbox();
+}
+
+f.advanced() {
+    f.entry(field: 'source', title: _('Release Site'), description: 'Base URL of the Terraform releases') {
+        f.textbox(default: org.jenkinsci.plugins.terraform.TerraformControllerInstaller.DEFAULT_SOURCE);
+    }
+}
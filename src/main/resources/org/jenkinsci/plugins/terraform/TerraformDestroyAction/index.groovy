@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.terraform.TerraformDestroyAction;
+
+l = namespace(lib.LayoutTagLib)
+st = namespace('jelly:stapler')
+
+
+l.layout(title: my.displayName) {
+    l.side_panel() {
+        st.include(it: my.run, page: 'sidepanel.jelly', optional: true)
+    }
+
+    l.main_panel() {
+        h1(my.displayName)
+
+        table(class: 'pane bigtable') {
+            tr {
+                td(_('Status'))
+                td(my.status)
+            }
+            tr {
+                td(_('Queued for'))
+                td(my.queuedDurationString)
+            }
+            tr {
+                td(_('Duration'))
+                td(my.durationString)
+            }
+            tr {
+                td(_('Snapshot'))
+                td(my.snapshot)
+            }
+        }
+
+        h2(_('Log'))
+        pre(class: 'console-output', my.log)
+    }
+}
@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.terraform.TerraformMatrixAction;
+
+l = namespace(lib.LayoutTagLib)
+st = namespace('jelly:stapler')
+
+
+l.layout(title: my.displayName) {
+    l.side_panel() {
+        st.include(it: my.run, page: 'sidepanel.jelly', optional: true)
+    }
+
+    l.main_panel() {
+        h1(my.displayName)
+
+        table(class: 'sortable pane bigtable', style: 'width: 100%') {
+            tr {
+                th(_('Workspace'))
+                th(_('Run'))
+                th(_('Status'))
+                th(_('Duration'))
+            }
+            for (result in my.results) {
+                tr(style: result.status == 'SUCCESS' ? '' : 'color: #d24939') {
+                    td(result.workspace)
+                    td(result.module)
+                    td(result.status)
+                    td(data: result.duration, result.durationString)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.terraform.TerraformMetricsAction;
+
+l = namespace(lib.LayoutTagLib)
+st = namespace('jelly:stapler')
+
+
+l.layout(title: my.displayName) {
+    l.side_panel() {
+        st.include(it: my.run, page: 'sidepanel.jelly', optional: true)
+    }
+
+    l.main_panel() {
+        h1(my.displayName)
+
+        h2(_('Phases'))
+        table(class: 'pane bigtable', style: 'width: 100%') {
+            tr {
+                th(_('Phase'))
+                th(_('Duration'))
+            }
+            for (phase in my.phaseTotals.entrySet()) {
+                if (phase.value > 0) {
+                    tr {
+                        td {
+                            span(style: "display: inline-block; width: 10px; height: 10px; background: ${my.getPhaseColor(phase.key)}")
+                            text(' ' + phase.key)
+                        }
+                        td(my.getDurationString(phase.value))
+                    }
+                }
+            }
+        }
+
+        h2(_('Commands'))
+        table(class: 'sortable pane bigtable', style: 'width: 100%') {
+            tr {
+                th(_('Root module'))
+                th(_('Phase'))
+                th(_('Exit code'))
+                th(_('Process start'))
+                th(_('Duration'))
+            }
+            for (metric in my.metrics) {
+                tr {
+                    td(metric.module)
+                    td(metric.phase)
+                    td(metric.exitCode)
+                    td(data: metric.startOverhead, my.getDurationString(metric.startOverhead))
+                    td(data: metric.duration, metric.durationString)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.terraform.TerraformMetricsProjectAction;
+
+
+def builds = my.builds
+if (!builds.isEmpty()) {
+    def max = my.getMaxTotal(builds)
+
+    div(class: 'test-trend-caption') {
+        text(my.displayName)
+    }
+
+    table(style: 'width: 500px; border-collapse: collapse') {
+        for (build in builds) {
+            tr(title: my.phases.findAll { build.phaseTotals[it] > 0 }.collect { it + ': ' + build.getDurationString(build.phaseTotals[it]) }.join(', ')) {
+                td(style: 'width: 50px; font-size: 90%') {
+                    a(href: "${rootURL}/${build.run.url}terraform-metrics/", "#${build.run.number}")
+                }
+                td {
+                    div(style: 'height: 10px; white-space: nowrap; line-height: 0') {
+                        for (phase in my.phases) {
+                            def duration = build.phaseTotals[phase]
+                            if (duration > 0) {
+                                span(style: "display: inline-block; height: 10px; width: ${100.0 * duration / max}%; background: ${build.getPhaseColor(phase)}")
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    div(style: 'font-size: 90%') {
+        for (phase in my.phases) {
+            span(style: "display: inline-block; width: 10px; height: 10px; background: ${org.jenkinsci.plugins.terraform.TerraformMetricsAction.getPhaseColor(phase)}")
+            text(' ' + phase + ' ')
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.terraform.TerraformPlanSummaryAction;
+
+l = namespace(lib.LayoutTagLib)
+st = namespace('jelly:stapler')
+
+
+l.layout(title: my.displayName) {
+    l.side_panel() {
+        st.include(it: my.run, page: 'sidepanel.jelly', optional: true)
+    }
+
+    l.main_panel() {
+        h1(my.displayName)
+
+        for (summary in my.summaries) {
+            if (summary.module) {
+                h2(summary.module)
+            }
+
+            table(class: 'sortable pane bigtable', style: 'width: 100%') {
+                tr {
+                    th(_('Module'))
+                    th(_('Resource type'))
+                    for (action in my.actions) {
+                        th(action.name().toLowerCase())
+                    }
+                }
+                for (count in summary.counts) {
+                    tr {
+                        td(count.module)
+                        td(count.type)
+                        for (action in my.actions) {
+                            td(count.getCount(action))
+                        }
+                    }
+                }
+                tr {
+                    td(_('Total'))
+                    td()
+                    for (action in my.actions) {
+                        td(summary.getTotal(action))
+                    }
+                }
+            }
+
+            table(class: 'pane bigtable', style: 'width: 100%') {
+                tr {
+                    th(_('Address'))
+                    th(_('Action'))
+                }
+                for (change in summary.changes) {
+                    tr {
+                        td(change.address)
+                        td(change.action.name().toLowerCase())
+                    }
+                }
+            }
+            if (summary.omitted > 0) {
+                p(my.getOmittedMessage(summary))
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.jenkinsci.plugins.terraform.TerraformPreProvisionProperty;
+
+f = namespace('/lib/form')
+
+
+f.entry(field: 'label', title: _('Label (Optional)'), description: 'Only install on nodes matching this label expression') {
+    f.textbox();
+}
@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.terraform.TerraformTimingAction;
+
+l = namespace(lib.LayoutTagLib)
+st = namespace('jelly:stapler')
+
+
+l.layout(title: my.displayName) {
+    l.side_panel() {
+        st.include(it: my.run, page: 'sidepanel.jelly', optional: true)
+    }
+
+    l.main_panel() {
+        h1(my.displayName)
+
+        p(_('Total duration') + ': ' + my.totalDurationString)
+
+        h2(_('Slowest resources'))
+        table(class: 'sortable pane bigtable', style: 'width: 100%') {
+            tr {
+                th(_('Resource'))
+                th(_('Root module'))
+                th(_('Phase'))
+                th(_('Action'))
+                th(initialSortDir: 'up', _('Duration'))
+            }
+            for (resource in my.slowestResources) {
+                tr(style: resource.failed ? 'color: #d24939' : '') {
+                    td(resource.address)
+                    td(resource.module)
+                    td(resource.phase)
+                    td(resource.action)
+                    td(data: resource.duration, resource.durationString)
+                }
+            }
+        }
+
+        h2(_('Timeline'))
+        table(class: 'pane', style: 'width: 100%') {
+            for (resource in my.timeline) {
+                tr {
+                    td(style: 'width: 30%; white-space: nowrap', resource.address)
+                    td {
+                        div(style: 'position: relative; height: 12px') {
+                            def color = resource.failed ? '#d24939' : (resource.phase == 'refresh' ? '#9cc3e6' : '#3d7cc9')
+                            div(title: "${resource.phase} ${resource.action} ${resource.durationString}",
+                                style: "position: absolute; height: 100%; background: ${color}; " +
+                                       "left: ${my.getOffsetPercent(resource)}%; width: ${my.getWidthPercent(resource)}%")
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.ByteArrayOutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class CompactLogOutputStreamTest {
+
+    private static final String ESC = "\u001B";
+
+    private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream fullLog = new ByteArrayOutputStream() {
+        @Override
+        public void close() {
+            fullLogClosed = true;
+        }
+    };
+    private boolean fullLogClosed;
+
+
+    private void write(String... lines) throws IOException {
+        try (CompactLogOutputStream out = new CompactLogOutputStream(
+                new PrintStream(console, true, "UTF-8"), fullLog, TerraformMetricsAction.APPLY)) {
+            for (String line : lines) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+
+    private String getConsole() {
+        return new String(console.toByteArray(), StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+    }
+
+
+    private static String progress(int refreshed, int created, int updated, int destroyed, int inProgress) {
+        return Messages.CompactProgress(TerraformMetricsAction.APPLY, refreshed, created, updated, destroyed, inProgress) + "\n";
+    }
+
+
+    @Test
+    public void testProgressLinesAreCounted() throws Exception {
+        write("aws_vpc.main: Refreshing state... [id=vpc-0a1b2c3d]",
+                "data.aws_ami.ubuntu: Reading...",
+                "data.aws_ami.ubuntu: Read complete after 1s [id=ami-0abcdef1234567890]",
+                "aws_instance.web: Creating...",
+                "aws_instance.web: Still creating... [10s elapsed]",
+                "aws_instance.web: Creation complete after 12s [id=i-0123456789abcdef0]",
+                "aws_s3_bucket.logs: Modifying... [id=logs]",
+                "aws_s3_bucket.logs: Modifications complete after 1s [id=logs]",
+                "aws_security_group.old: Destroying... [id=sg-0123456789abcdef0]",
+                "aws_security_group.old: Still destroying... [id=sg-0123456789abcdef0, 10s elapsed]",
+                "aws_security_group.old: Destruction complete after 14s",
+                "module.db.aws_db_instance.main: Creating...",
+                "",
+                "Apply complete! Resources: 1 added, 1 changed, 1 destroyed.");
+
+        assertEquals("\nApply complete! Resources: 1 added, 1 changed, 1 destroyed.\n" + progress(2, 1, 1, 1, 1), getConsole());
+    }
+
+
+    @Test
+    public void testColoredProgressLinesAreCounted() throws Exception {
+        write(ESC + "[0m" + ESC + "[1maws_instance.web: Creating..." + ESC + "[0m" + ESC + "[0m",
+                ESC + "[0m" + ESC + "[1maws_instance.web: Creation complete after 2s [id=i-0123456789abcdef0]" + ESC + "[0m");
+
+        assertEquals(progress(0, 1, 0, 0, 0), getConsole());
+    }
+
+
+    @Test
+    public void testErrorsAndWarningsPassThrough() throws Exception {
+        String[] lines = {
+                ESC + "[31m" + "\u2577" + ESC + "[0m" + ESC + "[0m",
+                ESC + "[31m" + "\u2502" + ESC + "[0m " + ESC + "[1m" + ESC + "[31mError: " + ESC + "[0m" + ESC + "[0m" + ESC
+                        + "[1mcreating EC2 Instance: UnauthorizedOperation: You are not authorized to perform this operation." + ESC + "[0m",
+                ESC + "[31m" + "\u2502" + ESC + "[0m " + ESC + "[0m  with aws_instance.web,",
+                ESC + "[31m" + "\u2575" + ESC + "[0m" + ESC + "[0m",
+                "Error: aws_instance.web: Creation failed",
+                "Warning: Argument is deprecated",
+                "  on main.tf line 12, in resource \"aws_s3_bucket\" \"logs\":",
+        };
+        write(lines);
+
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(line).append('\n');
+        }
+        assertEquals(expected.toString(), getConsole());
+    }
+
+
+    @Test
+    public void testFullLogHasEveryLine() throws Exception {
+        write("aws_instance.web: Creating...", "Error: timeout while waiting for state to become 'running'");
+
+        assertEquals("aws_instance.web: Creating...\nError: timeout while waiting for state to become 'running'\n",
+                new String(fullLog.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(fullLogClosed);
+        assertEquals("Error: timeout while waiting for state to become 'running'\n" + progress(0, 0, 0, 0, 1), getConsole());
+    }
+
+
+    @Test
+    public void testNoProgressWithoutResources() throws Exception {
+        write("No changes. Your infrastructure matches the configuration.");
+
+        assertEquals("No changes. Your infrastructure matches the configuration.\n", getConsole());
+    }
+}
@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.ByteArrayOutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+
+
+public class JsonLogOutputStreamTest {
+
+    private static final String APPLY_START =
+            "{\"@level\":\"info\",\"@message\":\"aws_instance.web: Creating...\",\"@module\":\"terraform.ui\","
+            + "\"@timestamp\":\"2021-05-25T13:32:41.000000-04:00\",\"hook\":{\"resource\":{\"addr\":\"aws_instance.web\","
+            + "\"module\":\"\",\"resource\":\"aws_instance.web\",\"implied_provider\":\"aws\",\"resource_type\":\"aws_instance\","
+            + "\"resource_name\":\"web\",\"resource_key\":null},\"action\":\"create\"},\"type\":\"apply_start\"}";
+
+    private static final String APPLY_COMPLETE =
+            "{\"@level\":\"info\",\"@message\":\"aws_instance.web: Creation complete after 12s [id=i-0abc]\",\"@module\":\"terraform.ui\","
+            + "\"@timestamp\":\"2021-05-25T13:32:53.000000-04:00\",\"hook\":{\"resource\":{\"addr\":\"aws_instance.web\","
+            + "\"module\":\"\",\"resource\":\"aws_instance.web\",\"implied_provider\":\"aws\",\"resource_type\":\"aws_instance\","
+            + "\"resource_name\":\"web\",\"resource_key\":null},\"action\":\"create\",\"id_key\":\"id\",\"id_value\":\"i-0abc\","
+            + "\"elapsed_seconds\":12},\"type\":\"apply_complete\"}";
+
+    private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+    private final TerraformTimingAction timings = new TerraformTimingAction();
+
+
+    private void write(String... lines) throws IOException {
+        try (JsonLogOutputStream out = new JsonLogOutputStream(
+                new PrintStream(console, true, "UTF-8"), "network", timings)) {
+            for (String line : lines) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+
+    private String getConsole() {
+        return new String(console.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+
+    @Test
+    public void testApplyStartAndComplete() throws Exception {
+        write(APPLY_START, APPLY_COMPLETE);
+
+        List<TerraformTimingAction.ResourceTiming> resources = timings.getTimeline();
+        assertEquals(1, resources.size());
+        TerraformTimingAction.ResourceTiming timing = resources.get(0);
+        assertEquals("network", timing.getModule());
+        assertEquals("aws_instance.web", timing.getAddress());
+        assertEquals(TerraformTimingAction.APPLY, timing.getPhase());
+        assertEquals("create", timing.getAction());
+        assertEquals(12000L, timing.getDuration());
+        assertFalse(timing.isFailed());
+
+        assertTrue(getConsole().contains("aws_instance.web: Creating..."));
+        assertTrue(getConsole().contains("aws_instance.web: Creation complete after 12s [id=i-0abc]"));
+        assertFalse(getConsole().contains("@timestamp"));
+    }
+
+
+    @Test
+    public void testCompleteWithoutStartUsesElapsedSeconds() throws Exception {
+        write(APPLY_COMPLETE);
+
+        TerraformTimingAction.ResourceTiming timing = timings.getTimeline().get(0);
+        assertEquals(12000L, timing.getDuration());
+    }
+
+
+    @Test
+    public void testApplyErroredIsFailed() throws Exception {
+        write(APPLY_START,
+                "{\"@level\":\"error\",\"@message\":\"aws_instance.web: Creation errored after 3s\",\"@module\":\"terraform.ui\","
+                + "\"@timestamp\":\"2021-05-25T13:32:44.000000-04:00\",\"hook\":{\"resource\":{\"addr\":\"aws_instance.web\"},"
+                + "\"action\":\"create\",\"elapsed_seconds\":3},\"type\":\"apply_errored\"}");
+
+        TerraformTimingAction.ResourceTiming timing = timings.getTimeline().get(0);
+        assertEquals(3000L, timing.getDuration());
+        assertTrue(timing.isFailed());
+    }
+
+
+    @Test
+    public void testRefreshIsRecordedAsRefresh() throws Exception {
+        write("{\"@level\":\"info\",\"@message\":\"aws_vpc.main: Refreshing state... [id=vpc-1]\",\"@module\":\"terraform.ui\","
+                + "\"@timestamp\":\"2021-05-25T13:32:40.000000-04:00\",\"hook\":{\"resource\":{\"addr\":\"aws_vpc.main\"},"
+                + "\"id_key\":\"id\",\"id_value\":\"vpc-1\"},\"type\":\"refresh_start\"}",
+                "{\"@level\":\"info\",\"@message\":\"aws_vpc.main: Refresh complete [id=vpc-1]\",\"@module\":\"terraform.ui\","
+                + "\"@timestamp\":\"2021-05-25T13:32:40.500000-04:00\",\"hook\":{\"resource\":{\"addr\":\"aws_vpc.main\"},"
+                + "\"id_key\":\"id\",\"id_value\":\"vpc-1\"},\"type\":\"refresh_complete\"}");
+
+        TerraformTimingAction.ResourceTiming timing = timings.getTimeline().get(0);
+        assertEquals(TerraformTimingAction.REFRESH, timing.getPhase());
+        assertEquals(500L, timing.getDuration());
+    }
+
+
+    @Test
+    public void testDiagnosticDetailIsLogged() throws Exception {
+        write("{\"@level\":\"error\",\"@message\":\"Error: Invalid reference\",\"@module\":\"terraform.ui\","
+                + "\"@timestamp\":\"2021-05-25T13:32:40.000000-04:00\",\"diagnostic\":{\"severity\":\"error\","
+                + "\"summary\":\"Invalid reference\",\"detail\":\"A reference to a resource type must be followed by at least one attribute access.\","
+                + "\"range\":{\"filename\":\"main.tf\",\"start\":{\"line\":1,\"column\":1,\"byte\":0}}},\"type\":\"diagnostic\"}");
+
+        assertEquals("Error: Invalid reference\n"
+                + "A reference to a resource type must be followed by at least one attribute access.\n",
+                getConsole().replace(System.lineSeparator(), "\n"));
+        assertTrue(timings.getTimeline().isEmpty());
+    }
+
+
+    @Test
+    public void testOtherLinesAreLoggedVerbatim() throws Exception {
+        write("panic: runtime error: invalid memory address", "{\"truncated\":");
+
+        assertEquals("panic: runtime error: invalid memory address\n{\"truncated\":\n", getConsole());
+        assertTrue(timings.getTimeline().isEmpty());
+    }
+}
@@ -0,0 +1,178 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import java.io.File;
+
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+
+
+public class ModuleSourceCacheTest {
+
+    private static final String SHA1 = "2b3c4d5e6f708192a3b4c5d6e7f8091a2b3c4d5e";
+    private static final String SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private static ModuleSourceCache.ModuleCall call(String source, String version) {
+        return new ModuleSourceCache.ModuleCall("test", source, version);
+    }
+
+
+    private static List<String> getNames(List<ModuleSourceCache.ModuleCall> calls) {
+        List<String> result = new ArrayList<>();
+        for (ModuleSourceCache.ModuleCall call : calls) {
+            result.add(call.getName());
+        }
+        return result;
+    }
+
+
+    @Test
+    public void testExactVersionIsPinned() {
+        assertTrue(call("terraform-aws-modules/vpc/aws", "3.19.0").isPinned());
+        assertTrue(call("terraform-aws-modules/vpc/aws", "= 3.19.0").isPinned());
+        assertTrue(call("terraform-aws-modules/vpc/aws", "=3.19.0").isPinned());
+        assertTrue(call("terraform-aws-modules/vpc/aws", " v3.19.0 ").isPinned());
+        assertTrue(call("app.terraform.io/acme/network/aws", "1.0.0-beta.2").isPinned());
+    }
+
+
+    @Test
+    public void testVersionConstraintIsNotPinned() {
+        assertFalse(call("terraform-aws-modules/vpc/aws", "~> 3.19").isPinned());
+        assertFalse(call("terraform-aws-modules/vpc/aws", "~> 3.19.0").isPinned());
+        assertFalse(call("terraform-aws-modules/vpc/aws", ">= 3.0.0").isPinned());
+        assertFalse(call("terraform-aws-modules/vpc/aws", ">= 3.0.0, < 4.0.0").isPinned());
+        assertFalse(call("terraform-aws-modules/vpc/aws", "3.19").isPinned());
+        assertFalse(call("terraform-aws-modules/vpc/aws", "").isPinned());
+    }
+
+
+    @Test
+    public void testCommitRefIsPinned() {
+        assertTrue(call("git::https://github.com/acme/modules.git//vpc?ref=" + SHA1, "").isPinned());
+        assertTrue(call("git::ssh://git@github.com/acme/modules.git?depth=1&ref=" + SHA1.toUpperCase(), "").isPinned());
+        assertTrue(call("git::https://example.com/network.git?ref=" + SHA256 + "&depth=1", "").isPinned());
+        assertTrue(call("github.com/acme/modules//vpc?ref=" + SHA1, "").isPinned());
+    }
+
+
+    @Test
+    public void testBranchOrTagRefIsNotPinned() {
+        assertFalse(call("git::https://github.com/acme/modules.git//vpc?ref=main", "").isPinned());
+        assertFalse(call("git::https://github.com/acme/modules.git//vpc?ref=v1.2.0", "").isPinned());
+        // An abbreviated commit hash may also be a branch name.
+        assertFalse(call("git::https://github.com/acme/modules.git//vpc?ref=2b3c4d5", "").isPinned());
+        assertFalse(call("git::https://github.com/acme/modules.git//vpc?ref=" + SHA1 + "0", "").isPinned());
+        assertFalse(call("git::https://github.com/acme/modules.git//vpc", "").isPinned());
+        assertFalse(call("https://example.com/vpc-module.zip", "").isPinned());
+    }
+
+
+    @Test
+    public void testLocalSourceIsNotPinned() {
+        assertFalse(call("./modules/vpc", "").isRemote());
+        assertFalse(call("../shared/vpc", "").isRemote());
+        assertFalse(call("../shared/vpc", "1.0.0").isPinned());
+        assertTrue(call("terraform-aws-modules/vpc/aws", "").isRemote());
+    }
+
+
+    @Test
+    public void testKeyIncludesVersion() throws Exception {
+        assertEquals(call("terraform-aws-modules/vpc/aws", "3.19.0").getKey(), call("terraform-aws-modules/vpc/aws", "3.19.0").getKey());
+        assertFalse(call("terraform-aws-modules/vpc/aws", "3.19.0").getKey().equals(call("terraform-aws-modules/vpc/aws", "3.18.0").getKey()));
+    }
+
+
+    @Test
+    public void testParseCalls() {
+        String config = "terraform {\n"
+                + "  required_version = \">= 1.0\"\n"
+                + "}\n"
+                + "\n"
+                + "module \"vpc\" {\n"
+                + "  source  = \"terraform-aws-modules/vpc/aws\"\n"
+                + "  version = \"3.19.0\"\n"
+                + "\n"
+                + "  name = \"main\"\n"
+                + "  tags = {\n"
+                + "    Owner = \"team } { \\\"platform\\\"\"\n"
+                + "  }\n"
+                + "  providers = {\n"
+                + "    aws = aws.east\n"
+                + "  }\n"
+                + "}\n"
+                + "\n"
+                + "module \"network\" {\n"
+                + "  source = \"git::https://github.com/acme/modules.git//network?ref=" + SHA1 + "\"\n"
+                + "}\n"
+                + "\n"
+                + "module \"app\" {\n"
+                + "  source  = \"./modules/app\"\n"
+                + "  subnets = module.vpc.private_subnets\n"
+                + "}\n"
+                + "\n"
+                + "module \"noSource\" {\n"
+                + "  count = 0\n"
+                + "}\n"
+                + "\n"
+                + "  module \"eks\" {\n"
+                + "  source = \"terraform-aws-modules/eks/aws\"\n"
+                + "  version = \"~> 19.0\"\n"
+                + "}\n";
+
+        List<ModuleSourceCache.ModuleCall> calls = ModuleSourceCache.parseCalls(config);
+
+        assertEquals(Arrays.asList("vpc", "network", "app", "eks"), getNames(calls));
+        assertTrue(calls.get(0).isPinned());
+        assertTrue(calls.get(1).isPinned());
+        assertFalse(calls.get(2).isRemote());
+        assertFalse(calls.get(3).isPinned());
+    }
+
+
+    @Test
+    public void testVersionOfAnotherBlockIsNotUsed() {
+        // The second call has no version: the version of the first call must not be read as its own.
+        List<ModuleSourceCache.ModuleCall> calls = ModuleSourceCache.parseCalls(
+                "module \"a\" {\n  source = \"acme/a/aws\"\n  version = \"1.0.0\"\n}\n"
+                        + "module \"b\" {\n  source = \"acme/b/aws\"\n}\n");
+
+        assertEquals(Arrays.asList("a", "b"), getNames(calls));
+        assertTrue(calls.get(0).isPinned());
+        assertFalse(calls.get(1).isPinned());
+    }
+
+
+    @Test
+    public void testLocalModuleDirs() throws Exception {
+        File root = folder.newFolder("infra");
+        File manifest = new File(root, ".terraform/modules/modules.json");
+        manifest.getParentFile().mkdirs();
+        Files.write(manifest.toPath(), ("{\"Modules\":["
+                + "{\"Key\":\"\",\"Source\":\"\",\"Dir\":\".\"},"
+                + "{\"Key\":\"vpc\",\"Source\":\"terraform-aws-modules/vpc/aws\",\"Version\":\"3.19.0\",\"Dir\":\".terraform/modules/vpc\"},"
+                + "{\"Key\":\"app\",\"Source\":\"./modules/app\",\"Dir\":\"modules/app\"},"
+                + "{\"Key\":\"shared\",\"Source\":\"../shared\",\"Dir\":\"../shared\"}"
+                + "]}").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("modules/app", "../shared"), ModuleSourceCache.getLocalModuleDirs(root));
+        assertEquals(0, ModuleSourceCache.getLocalModuleDirs(folder.newFolder("empty")).size());
+    }
+}
@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class PlanSummaryTest {
+
+    private static String resourceChange(String address, String moduleAddress, String type, String actions) {
+        return "{\"address\":\"" + address + "\","
+                + (moduleAddress.isEmpty() ? "" : "\"module_address\":\"" + moduleAddress + "\",")
+                + "\"mode\":\"managed\",\"type\":\"" + type + "\",\"name\":\"this\",\"provider_name\":\"registry.terraform.io/hashicorp/aws\","
+                + "\"change\":{\"actions\":[" + actions + "],\"before\":null,\"after\":{\"tags\":{\"Name\":\"web\"}},"
+                + "\"after_unknown\":{\"id\":true},\"before_sensitive\":false,\"after_sensitive\":{}}}";
+    }
+
+
+    private static PlanSummary parse(int maxAddresses, String... resourceChanges) throws IOException {
+        String plan = "{\"format_version\":\"0.1\",\"terraform_version\":\"0.14.7\","
+                + "\"planned_values\":{\"root_module\":{\"resources\":[{\"address\":\"aws_instance.ignored\",\"type\":\"aws_instance\"}]}},"
+                + "\"resource_changes\":[" + String.join(",", resourceChanges) + "],"
+                + "\"configuration\":{\"root_module\":{}}}";
+        return PlanSummary.parse("network", new ByteArrayInputStream(plan.getBytes(StandardCharsets.UTF_8)), maxAddresses);
+    }
+
+
+    private static List<String> getAddresses(PlanSummary summary) {
+        List<String> result = new ArrayList<>();
+        for (PlanSummary.Change change : summary.getChanges()) {
+            result.add(change.getAddress());
+        }
+        return result;
+    }
+
+
+    @Test
+    public void testToAction() {
+        assertEquals(PlanSummary.Action.CREATE, PlanSummary.toAction(Arrays.asList("create")));
+        assertEquals(PlanSummary.Action.UPDATE, PlanSummary.toAction(Arrays.asList("update")));
+        assertEquals(PlanSummary.Action.DELETE, PlanSummary.toAction(Arrays.asList("delete")));
+        assertEquals(PlanSummary.Action.REPLACE, PlanSummary.toAction(Arrays.asList("delete", "create")));
+        assertEquals(PlanSummary.Action.REPLACE, PlanSummary.toAction(Arrays.asList("create", "delete")));
+        assertNull(PlanSummary.toAction(Arrays.asList("no-op")));
+        assertNull(PlanSummary.toAction(Arrays.asList("read")));
+        assertNull(PlanSummary.toAction(Arrays.<String>asList()));
+    }
+
+
+    @Test
+    public void testCountsPerModuleAndType() throws Exception {
+        PlanSummary summary = parse(10,
+                resourceChange("aws_instance.web", "", "aws_instance", "\"create\""),
+                resourceChange("aws_instance.db", "", "aws_instance", "\"update\""),
+                resourceChange("module.vpc.aws_subnet.a", "module.vpc", "aws_subnet", "\"delete\",\"create\""),
+                resourceChange("module.vpc.aws_subnet.b", "module.vpc", "aws_subnet", "\"create\",\"delete\""),
+                resourceChange("module.vpc.aws_route.old", "module.vpc", "aws_route", "\"delete\""));
+
+        assertEquals("network", summary.getModule());
+        assertEquals(1, summary.getTotal(PlanSummary.Action.CREATE));
+        assertEquals(1, summary.getTotal(PlanSummary.Action.UPDATE));
+        assertEquals(2, summary.getTotal(PlanSummary.Action.REPLACE));
+        assertEquals(1, summary.getTotal(PlanSummary.Action.DELETE));
+        assertEquals(5, summary.getTotal());
+
+        List<PlanSummary.ResourceCount> counts = summary.getCounts();
+        assertEquals(3, counts.size());
+        assertEquals("", counts.get(0).getModule());
+        assertEquals("aws_instance", counts.get(0).getType());
+        assertEquals(1, counts.get(0).getCount(PlanSummary.Action.CREATE));
+        assertEquals(1, counts.get(0).getCount(PlanSummary.Action.UPDATE));
+        assertEquals("module.vpc", counts.get(1).getModule());
+        assertEquals("aws_route", counts.get(1).getType());
+        assertEquals(1, counts.get(1).getCount(PlanSummary.Action.DELETE));
+        assertEquals("aws_subnet", counts.get(2).getType());
+        assertEquals(2, counts.get(2).getCount(PlanSummary.Action.REPLACE));
+    }
+
+
+    @Test
+    public void testNoOpAndReadAreIgnored() throws Exception {
+        PlanSummary summary = parse(10,
+                resourceChange("aws_vpc.main", "", "aws_vpc", "\"no-op\""),
+                resourceChange("data.aws_ami.ubuntu", "", "aws_ami", "\"read\""));
+
+        assertEquals(0, summary.getTotal());
+        assertEquals(0, summary.getCounts().size());
+        assertEquals(0, summary.getChanges().size());
+        assertEquals(0, summary.getOmitted());
+    }
+
+
+    @Test
+    public void testNestedChangeFieldsAreSkipped() throws Exception {
+        // Values of the change which look like its own fields must not be read as such.
+        String change = "{\"address\":\"aws_lambda_function.api\",\"type\":\"aws_lambda_function\","
+                + "\"change\":{\"before\":{\"actions\":[\"delete\"],\"address\":\"before\",\"environment\":[{\"variables\":{\"type\":\"x\"}}]},"
+                + "\"actions\":[\"update\"],"
+                + "\"after\":{\"actions\":[\"create\"],\"type\":\"after\",\"layers\":[\"a\",\"b\"],\"nested\":[[1,2],{\"actions\":[]}]},"
+                + "\"after_unknown\":{\"layers\":[false,true]}},"
+                + "\"action_reason\":\"replace_because_tainted\"}";
+        PlanSummary summary = parse(10, change, resourceChange("aws_instance.web", "", "aws_instance", "\"create\""));
+
+        assertEquals(1, summary.getTotal(PlanSummary.Action.UPDATE));
+        assertEquals(1, summary.getTotal(PlanSummary.Action.CREATE));
+        assertEquals(0, summary.getTotal(PlanSummary.Action.DELETE));
+        assertEquals("aws_instance", summary.getCounts().get(0).getType());
+        assertEquals("aws_lambda_function", summary.getCounts().get(1).getType());
+        assertEquals(Arrays.asList("aws_lambda_function.api", "aws_instance.web"), getAddresses(summary));
+    }
+
+
+    @Test
+    public void testMostDestructiveChangesAreKept() throws Exception {
+        PlanSummary summary = parse(3,
+                resourceChange("aws_instance.a", "", "aws_instance", "\"create\""),
+                resourceChange("aws_instance.b", "", "aws_instance", "\"delete\""),
+                resourceChange("aws_instance.c", "", "aws_instance", "\"update\""),
+                resourceChange("aws_instance.d", "", "aws_instance", "\"create\",\"delete\""),
+                resourceChange("aws_instance.e", "", "aws_instance", "\"create\""),
+                resourceChange("aws_instance.f", "", "aws_instance", "\"update\""));
+
+        assertEquals(6, summary.getTotal());
+        assertEquals(Arrays.asList("aws_instance.b", "aws_instance.d", "aws_instance.c"), getAddresses(summary));
+        assertEquals(PlanSummary.Action.DELETE, summary.getChanges().get(0).getAction());
+        assertEquals(PlanSummary.Action.REPLACE, summary.getChanges().get(1).getAction());
+        assertEquals(PlanSummary.Action.UPDATE, summary.getChanges().get(2).getAction());
+        assertEquals(3, summary.getOmitted());
+    }
+
+
+    @Test
+    public void testNoAddressesRetained() throws Exception {
+        PlanSummary summary = parse(0, resourceChange("aws_instance.web", "", "aws_instance", "\"create\""));
+
+        assertEquals(1, summary.getTotal());
+        assertEquals(0, summary.getChanges().size());
+        assertEquals(1, summary.getOmitted());
+    }
+
+
+    @Test(expected = IOException.class)
+    public void testInvalidOutput() throws Exception {
+        PlanSummary.parse("", new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)), 10);
+    }
+}
@@ -0,0 +1,209 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+
+public class ProviderApiStatsTest {
+
+    private static final String AWS = "provider.terraform-provider-aws_v4.58.0_x5";
+    private static final String GOOGLE = "provider.terraform-provider-google_v4.57.0_x5";
+
+
+    private static String awsRequest(String timestamp, String service, String operation) {
+        return timestamp + " [DEBUG] " + AWS + ": HTTP Request Sent: "
+                + "@caller=github.com/hashicorp/aws-sdk-go-base/v2@v2.0.0-beta.25/logging/tf_logger.go:109 "
+                + "@module=aws aws.region=us-east-1 http.method=POST http.url=https://" + service.toLowerCase() + ".us-east-1.amazonaws.com/ "
+                + "http.user_agent=\"APN/1.0 HashiCorp/1.0 Terraform/1.4.0 (+https://www.terraform.io)\" "
+                + "net.peer.name=" + service.toLowerCase() + ".us-east-1.amazonaws.com rpc.method=" + operation + " rpc.service=" + service
+                + " rpc.system=aws-api tf_aws.sdk=aws-sdk-go-v2 tf_provider_addr=registry.terraform.io/hashicorp/aws "
+                + "tf_req_id=4f3b2a1c-0000-0000-0000-000000000000 tf_rpc=ApplyResourceChange timestamp=" + timestamp;
+    }
+
+
+    private static String awsResponse(String timestamp, String service, String operation, long duration, int status) {
+        return timestamp + " [DEBUG] " + AWS + ": HTTP Response Received: "
+                + "@caller=github.com/hashicorp/aws-sdk-go-base/v2@v2.0.0-beta.25/logging/tf_logger.go:109 "
+                + "@module=aws aws.region=us-east-1 http.duration=" + duration + " http.response.header.content_type=text/xml "
+                + "http.status_code=" + status + " rpc.method=" + operation + " rpc.service=" + service
+                + " rpc.system=aws-api tf_aws.sdk=aws-sdk-go-v2 tf_provider_addr=registry.terraform.io/hashicorp/aws "
+                + "tf_req_id=4f3b2a1c-0000-0000-0000-000000000000 tf_rpc=ApplyResourceChange timestamp=" + timestamp;
+    }
+
+
+    private static String googleRequest(String timestamp, String transaction, String method, String uri) {
+        return timestamp + " [DEBUG] " + GOOGLE + ": HTTP Request Sent: "
+                + "@module=google Accept-Encoding=gzip Host=compute.googleapis.com tf_http_op_type=request "
+                + "tf_http_req_method=" + method + " tf_http_req_uri=" + uri + " tf_http_req_version=HTTP/1.1 "
+                + "tf_http_trans_id=" + transaction + " tf_provider_addr=registry.terraform.io/hashicorp/google "
+                + "User-Agent=\"Terraform/1.4.0 (+https://www.terraform.io) Terraform-Plugin-SDK/2.10.1\" timestamp=" + timestamp;
+    }
+
+
+    private static String googleResponse(String timestamp, String transaction, int status, String reason) {
+        return timestamp + " [DEBUG] " + GOOGLE + ": HTTP Response Received: "
+                + "@module=google Content-Type=\"application/json; charset=UTF-8\" tf_http_op_type=response "
+                + "tf_http_res_status_code=" + status + " tf_http_res_status_reason=\"" + reason + "\" tf_http_res_version=HTTP/1.1 "
+                + "tf_http_trans_id=" + transaction + " tf_provider_addr=registry.terraform.io/hashicorp/google timestamp=" + timestamp;
+    }
+
+
+    private static ProviderApiStats parse(String... lines) throws IOException {
+        return ProviderApiStats.parse(new StringReader(String.join("\n", lines) + "\n"));
+    }
+
+
+    @Test
+    public void testNormalize() {
+        assertEquals("ec2.us-east-1.amazonaws.com/",
+                ProviderApiStats.normalize("https://ec2.us-east-1.amazonaws.com/?Action=DescribeInstances&Version=2016-11-15"));
+        assertEquals("management.azure.com/subscriptions/{id}/resourceGroups/rg-web/providers/Microsoft.Network/virtualNetworks/{id}",
+                ProviderApiStats.normalize("https://management.azure.com/subscriptions/00000000-0000-0000-0000-000000000000"
+                        + "/resourceGroups/rg-web/providers/Microsoft.Network/virtualNetworks/vnet-prod01?api-version=2021-02-01"));
+        assertEquals("api.github.com/repos/acme/infra/issues/{id}",
+                ProviderApiStats.normalize("https://api.github.com/repos/acme/infra/issues/1234"));
+        // Names without digits, or short ones, are kept.
+        assertEquals("compute.googleapis.com/compute/v1/projects/my-project/zones/{id}/instances/web-1",
+                ProviderApiStats.normalize("compute.googleapis.com/compute/v1/projects/my-project/zones/us-central1-a/instances/web-1"));
+    }
+
+
+    @Test
+    public void testServiceAndOperationEndpoints() throws Exception {
+        ProviderApiStats stats = parse(
+                "2023-03-15T10:21:33.000Z [INFO]  Terraform version: 1.4.0",
+                awsRequest("2023-03-15T10:21:33.456Z", "STS", "GetCallerIdentity"),
+                awsResponse("2023-03-15T10:21:33.789Z", "STS", "GetCallerIdentity", 333, 200),
+                awsRequest("2023-03-15T10:21:34.000Z", "EC2", "RunInstances"),
+                awsResponse("2023-03-15T10:21:34.100Z", "EC2", "RunInstances", 100, 503),
+                awsRequest("2023-03-15T10:21:35.000Z", "EC2", "RunInstances"),
+                awsResponse("2023-03-15T10:21:35.200Z", "EC2", "RunInstances", 200, 200),
+                "2023-03-15T10:21:35.300Z [DEBUG] " + AWS + ": Waiting for state to become: [success]");
+
+        assertEquals(3, stats.getRequests());
+        List<ProviderApiStats.Endpoint> endpoints = stats.getEndpoints();
+        assertEquals(2, endpoints.size());
+
+        ProviderApiStats.Endpoint ec2 = endpoints.get(0);
+        assertEquals("aws", ec2.getProvider());
+        assertEquals("EC2.RunInstances", ec2.getName());
+        assertEquals(2, ec2.getRequests());
+        assertEquals(1, ec2.getRetried());
+        assertEquals(300, ec2.getTotal());
+        assertEquals(200, ec2.getMax());
+
+        ProviderApiStats.Endpoint sts = endpoints.get(1);
+        assertEquals("STS.GetCallerIdentity", sts.getName());
+        assertEquals(1, sts.getRequests());
+        assertEquals(0, sts.getRetried());
+        assertEquals(333, sts.getTotal());
+    }
+
+
+    @Test
+    public void testTransactionPairing() throws Exception {
+        // Responses carry no endpoint and no duration: they are matched to their request by
+        // transaction and timed from the timestamps, whatever the order they complete in.
+        ProviderApiStats stats = parse(
+                googleRequest("2023-03-15T10:21:34.000Z", "a1", "GET", "/compute/v1/projects/my-project/zones/us-central1-a/instances/web-1"),
+                googleRequest("2023-03-15T10:21:34.100Z", "b2", "POST", "/compute/v1/projects/my-project/zones/us-central1-a/instances"),
+                googleResponse("2023-03-15T10:21:34.900Z", "b2", 429, "429 Too Many Requests"),
+                googleResponse("2023-03-15T10:21:35.000Z", "a1", 200, "200 OK"),
+                googleResponse("2023-03-15T10:21:35.500Z", "c3", 200, "200 OK"),
+                googleRequest("2023-03-15T10:21:36.000Z", "d4", "GET", "/compute/v1/projects/my-project/global/networks/default"));
+
+        assertEquals(2, stats.getRequests());
+        List<ProviderApiStats.Endpoint> endpoints = stats.getEndpoints();
+        assertEquals(2, endpoints.size());
+
+        ProviderApiStats.Endpoint get = endpoints.get(0);
+        assertEquals("google", get.getProvider());
+        assertEquals("GET compute.googleapis.com/compute/v1/projects/my-project/zones/{id}/instances/web-1", get.getName());
+        assertEquals(1000, get.getTotal());
+        assertEquals(0, get.getRetried());
+
+        ProviderApiStats.Endpoint post = endpoints.get(1);
+        assertEquals("POST compute.googleapis.com/compute/v1/projects/my-project/zones/{id}/instances", post.getName());
+        assertEquals(800, post.getTotal());
+        assertEquals(1, post.getRetried());
+    }
+
+
+    @Test
+    public void testPercentiles() throws Exception {
+        String[] lines = new String[20];
+        for (int i = 0; i < 10; ++i) {
+            long duration = i < 9 ? 100 : 1000;
+            lines[2 * i] = awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject");
+            lines[2 * i + 1] = awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", duration, 200);
+        }
+        ProviderApiStats.Endpoint endpoint = parse(lines).getEndpoints().get(0);
+
+        // Bucket bounds are ten per decade: 100 and 1000 are bounds themselves.
+        assertEquals(100, endpoint.getPercentile(0.5));
+        assertEquals(100, endpoint.getPercentile(0.9));
+        assertEquals(1000, endpoint.getPercentile(0.95));
+        assertEquals(1000, endpoint.getPercentile(0.99));
+        assertEquals(1000, endpoint.getMax());
+    }
+
+
+    @Test
+    public void testPercentileIsBucketBound() throws Exception {
+        ProviderApiStats.Endpoint endpoint = parse(
+                awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject"),
+                awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", 110, 200),
+                awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject"),
+                awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", 120, 200),
+                awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject"),
+                awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", 2000, 200)).getEndpoints().get(0);
+
+        // 110 and 120 both fall in the bucket (100, 126].
+        assertEquals(126, endpoint.getPercentile(0.5));
+        assertEquals(2000, endpoint.getPercentile(0.99));
+    }
+
+
+    @Test
+    public void testPercentileIsAtMostMax() throws Exception {
+        ProviderApiStats.Endpoint endpoint = parse(
+                awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject"),
+                awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", 150, 200)).getEndpoints().get(0);
+
+        assertEquals(150, endpoint.getPercentile(0.5));
+        assertEquals(150, endpoint.getPercentile(1.0));
+    }
+
+
+    @Test
+    public void testPercentileAboveLastBound() throws Exception {
+        ProviderApiStats.Endpoint endpoint = parse(
+                awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject"),
+                awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", 150, 200),
+                awsRequest("2023-03-15T10:21:34.000Z", "S3", "GetObject"),
+                awsResponse("2023-03-15T10:21:35.000Z", "S3", "GetObject", 2000000, 200)).getEndpoints().get(0);
+
+        assertEquals(158, endpoint.getPercentile(0.5));
+        // Above the last bucket bound (1000 s), the maximum is returned.
+        assertEquals(2000000, endpoint.getPercentile(1.0));
+    }
+
+
+    @Test
+    public void testUntimedRequests() throws Exception {
+        ProviderApiStats.Endpoint endpoint = parse(
+                googleRequest("not-a-timestamp", "a1", "GET", "/compute/v1/projects/my-project/global/networks/default"),
+                googleResponse("2023-03-15T10:21:35.000Z", "a1", 200, "200 OK")).getEndpoints().get(0);
+
+        assertEquals(1, endpoint.getRequests());
+        assertEquals(-1, endpoint.getPercentile(0.5));
+        assertEquals("", endpoint.getPercentileString(0.5));
+    }
+}
@@ -0,0 +1,156 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Collections;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+
+
+public class ProviderMirrorStoreTest {
+
+    private static final String HOST = "registry.terraform.io";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private File addArchive(String type, String version, String platform, int size) throws IOException {
+        File directory = new File(folder.getRoot(), HOST + "/hashicorp/" + type);
+        directory.mkdirs();
+        File archive = new File(directory, ProviderMirrorStore.archiveName(type, version, platform));
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) version.hashCode());
+        Files.write(archive.toPath(), content);
+        return archive;
+    }
+
+
+    private ProviderMirrorStore getOfflineStore() {
+        return new ProviderMirrorStore(folder.getRoot(), Collections.<String>emptySet(), 0);
+    }
+
+
+    @Test
+    public void testIsValidName() {
+        assertTrue(ProviderMirrorStore.isValidName("registry.terraform.io"));
+        assertTrue(ProviderMirrorStore.isValidName("terraform-provider-aws_4.67.0_linux_amd64.zip"));
+        assertFalse(ProviderMirrorStore.isValidName(".."));
+        assertFalse(ProviderMirrorStore.isValidName("a..b"));
+        assertFalse(ProviderMirrorStore.isValidName(".hidden"));
+        assertFalse(ProviderMirrorStore.isValidName("a/b"));
+        assertFalse(ProviderMirrorStore.isValidName(""));
+    }
+
+
+    @Test
+    public void testIndex() throws Exception {
+        addArchive("aws", "4.67.0", "linux_amd64", 10);
+        addArchive("aws", "4.67.0", "darwin_arm64", 10);
+        addArchive("aws", "5.0.1", "linux_amd64", 10);
+        addArchive("random", "3.5.1", "linux_amd64", 10);
+
+        ObjectNode index = getOfflineStore().getIndex(HOST, "hashicorp", "aws");
+        assertEquals("{\"versions\":{\"4.67.0\":{},\"5.0.1\":{}}}", index.toString());
+        assertEquals("{\"versions\":{}}", getOfflineStore().getIndex(HOST, "hashicorp", "azurerm").toString());
+    }
+
+
+    @Test
+    public void testVersion() throws Exception {
+        File linux = addArchive("aws", "4.67.0", "linux_amd64", 10);
+        File darwin = addArchive("aws", "4.67.0", "darwin_arm64", 20);
+        addArchive("aws", "5.0.1", "linux_amd64", 10);
+
+        ObjectNode version = getOfflineStore().getVersion(HOST, "hashicorp", "aws", "4.67.0");
+        assertEquals(2, version.path("archives").size());
+        assertEquals(linux.getName(), version.path("archives").path("linux_amd64").path("url").asText());
+        assertEquals("zh:" + TerraformArchiveStore.sha256(linux),
+                version.path("archives").path("linux_amd64").path("hashes").path(0).asText());
+        assertEquals("zh:" + TerraformArchiveStore.sha256(darwin),
+                version.path("archives").path("darwin_arm64").path("hashes").path(0).asText());
+
+        assertNull(getOfflineStore().getVersion(HOST, "hashicorp", "aws", "4.66.0"));
+    }
+
+
+    @Test
+    public void testArchive() throws Exception {
+        File archive = addArchive("aws", "4.67.0", "linux_amd64", 10);
+        ProviderMirrorStore store = getOfflineStore();
+
+        assertEquals(archive, store.getArchive(HOST, "hashicorp", "aws", archive.getName()));
+        // Names of another provider, or which are not packages, are refused.
+        assertNull(store.getArchive(HOST, "hashicorp", "random", archive.getName()));
+        assertNull(store.getArchive(HOST, "hashicorp", "aws", "terraform-provider-aws_4.67.0_linux_amd64.tar.gz"));
+        assertNull(store.getArchive(HOST, "hashicorp", "aws", "index.json"));
+        // Packages which are not in the store are not fetched offline.
+        assertNull(store.getArchive(HOST, "hashicorp", "aws", ProviderMirrorStore.archiveName("aws", "4.67.0", "windows_amd64")));
+    }
+
+
+    @Test
+    public void testUnlistedArchiveIsRefused() throws Exception {
+        File directory = new File(folder.getRoot(), HOST + "/hashicorp/aws");
+        directory.mkdirs();
+        // A fresh list of the registry's versions, which is used without contacting it.
+        Files.write(new File(directory, ".upstream-versions.json").toPath(),
+                ("{\"versions\":[{\"version\":\"4.67.0\",\"platforms\":[{\"os\":\"linux\",\"arch\":\"amd64\"}]}]}")
+                        .getBytes(StandardCharsets.UTF_8));
+        ProviderMirrorStore store = new ProviderMirrorStore(folder.getRoot(), new HashSet<>(Arrays.asList(HOST)), 0);
+
+        assertEquals("{\"versions\":{\"4.67.0\":{}}}", store.getIndex(HOST, "hashicorp", "aws").toString());
+        assertEquals("terraform-provider-aws_4.67.0_linux_amd64.zip",
+                store.getVersion(HOST, "hashicorp", "aws", "4.67.0").path("archives").path("linux_amd64").path("url").asText());
+        assertNull(store.getArchive(HOST, "hashicorp", "aws", ProviderMirrorStore.archiveName("aws", "4.67.0", "windows_amd64")));
+        assertNull(store.getArchive(HOST, "hashicorp", "aws", ProviderMirrorStore.archiveName("aws", "9.9.9", "linux_amd64")));
+        assertEquals(1, directory.list().length);
+    }
+
+
+    @Test
+    public void testEviction() throws Exception {
+        File oldest = addArchive("aws", "4.66.0", "linux_amd64", 400 * 1024);
+        File older = addArchive("aws", "4.67.0", "linux_amd64", 400 * 1024);
+        File fetched = addArchive("random", "3.5.1", "linux_amd64", 400 * 1024);
+        long now = System.currentTimeMillis();
+        assertTrue(oldest.setLastModified(now - 3000));
+        assertTrue(older.setLastModified(now - 2000));
+        // Just fetched, but not the most recently modified: it must be kept anyway.
+        assertTrue(fetched.setLastModified(now - 4000));
+
+        new ProviderMirrorStore(folder.getRoot(), Collections.<String>emptySet(), 1).evict(fetched);
+
+        assertFalse(oldest.exists());
+        assertTrue(older.exists());
+        assertTrue(fetched.exists());
+    }
+
+
+    @Test
+    public void testNoEvictionWithoutQuota() throws Exception {
+        File oldest = addArchive("aws", "4.66.0", "linux_amd64", 800 * 1024);
+        File fetched = addArchive("aws", "4.67.0", "linux_amd64", 800 * 1024);
+
+        getOfflineStore().evict(fetched);
+
+        assertTrue(oldest.exists());
+        assertTrue(fetched.exists());
+    }
+}
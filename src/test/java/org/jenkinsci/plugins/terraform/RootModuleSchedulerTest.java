@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import hudson.FilePath;
+
+import java.io.File;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+
+public class RootModuleSchedulerTest {
+
+    private static RootModule module(String name, String... dependencies) {
+        FilePath path = new FilePath(new File(name));
+        return new RootModule(name, path, path, true, Arrays.asList(dependencies));
+    }
+
+
+    @Test
+    public void testDependenciesRunFirst() throws Exception {
+        RootModule network = module("network");
+        RootModule database = module("database", "network");
+        RootModule app = module("app", "network", "database");
+        final List<String> order = new CopyOnWriteArrayList<>();
+
+        Map<RootModule, RootModuleScheduler.Status> result = new RootModuleScheduler(Arrays.asList(app, database, network), 4, false)
+                .run(new RootModuleScheduler.Task() {
+                    public void run(RootModule module) {
+                        order.add(module.getName());
+                    }
+                });
+
+        assertEquals(Arrays.asList("network", "database", "app"), order);
+        assertEquals(RootModuleScheduler.Status.SUCCESS, result.get(app));
+    }
+
+
+    @Test
+    public void testReverseOrderForDestroy() throws Exception {
+        RootModule network = module("network");
+        RootModule app = module("app", "network");
+        final List<String> order = new CopyOnWriteArrayList<>();
+
+        new RootModuleScheduler(Arrays.asList(network, app), 4, true)
+                .run(new RootModuleScheduler.Task() {
+                    public void run(RootModule module) {
+                        order.add(module.getName());
+                    }
+                });
+
+        assertEquals(Arrays.asList("app", "network"), order);
+    }
+
+
+    @Test
+    public void testFailureSkipsDependents() throws Exception {
+        RootModule network = module("network");
+        RootModule app = module("app", "network");
+        RootModule other = module("other");
+
+        Map<RootModule, RootModuleScheduler.Status> result = new RootModuleScheduler(Arrays.asList(network, app, other), 1, false)
+                .run(new RootModuleScheduler.Task() {
+                    public void run(RootModule module) throws Exception {
+                        if (module.getName().equals("network")) {
+                            throw new Exception("failed");
+                        }
+                    }
+                });
+
+        assertEquals(RootModuleScheduler.Status.FAILURE, result.get(network));
+        assertEquals(RootModuleScheduler.Status.SKIPPED, result.get(app));
+        assertEquals(RootModuleScheduler.Status.SUCCESS, result.get(other));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDependencyCycle() throws Exception {
+        new RootModuleScheduler(Arrays.asList(module("a", "b"), module("b", "a")), 1, false);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependency() throws Exception {
+        new RootModuleScheduler(Collections.singletonList(module("a", "missing")), 1, false);
+    }
+}
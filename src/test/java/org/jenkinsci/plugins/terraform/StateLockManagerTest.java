@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.Before;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Set;
+import java.util.HashSet;
+
+
+public class StateLockManagerTest {
+
+    private static final String KEY = "s3://acme-state/network/terraform.tfstate";
+
+    private final Set<Long> queued = new HashSet<>();
+    private final Set<String> building = new HashSet<>();
+    private final Set<String> destroying = new HashSet<>();
+    private StateLockManager.Liveness previous;
+
+
+    @Before
+    public void setUp() {
+        previous = StateLockManager.liveness;
+        StateLockManager.liveness = new StateLockManager.Liveness() {
+            public boolean isQueued(long queueId) {
+                return queued.contains(queueId);
+            }
+
+
+            public boolean isBuilding(String run) {
+                return building.contains(run);
+            }
+
+
+            public boolean isDestroyPending(String run) {
+                return destroying.contains(run);
+            }
+        };
+    }
+
+
+    @After
+    public void tearDown() {
+        for (long queueId = 1; queueId <= 3; queueId++) {
+            StateLockManager.release(queueId, "");
+        }
+        StateLockManager.releaseDestroyLocks("network#1");
+        StateLockManager.liveness = previous;
+    }
+
+
+    @Test
+    public void testReservedByAnotherItem() {
+        queued.add(1L);
+        queued.add(2L);
+
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+        // The same item may ask again, another one must wait.
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+        StateLockManager.Holder holder = StateLockManager.tryReserve(KEY, 2, "network-copy");
+        assertNotNull(holder);
+        assertEquals("network", holder.getOwner());
+        // Other states are not locked.
+        assertNull(StateLockManager.tryReserve(KEY + ".other", 2, "network-copy"));
+    }
+
+
+    @Test
+    public void testStaleHolderIsReplaced() {
+        queued.add(1L);
+        queued.add(2L);
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+
+        // The item left the queue without starting a build.
+        queued.remove(1L);
+        assertNull(StateLockManager.tryReserve(KEY, 2, "network-copy"));
+        assertEquals("network-copy", StateLockManager.tryReserve(KEY, 1, "network").getOwner());
+    }
+
+
+    @Test
+    public void testHandoverToRun() {
+        queued.add(1L);
+        queued.add(2L);
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+
+        // Once started, the item has left the queue, the build holds the lock.
+        StateLockManager.started(1, "network#1", "network #1");
+        queued.remove(1L);
+        building.add("network#1");
+        assertEquals("network #1", StateLockManager.tryReserve(KEY, 2, "network-copy").getOwner());
+
+        // A build which ended without being completed, e.g. on a restart, does not hold it anymore.
+        building.remove("network#1");
+        assertNull(StateLockManager.tryReserve(KEY, 2, "network-copy"));
+    }
+
+
+    @Test
+    public void testRelease() {
+        queued.add(1L);
+        queued.add(2L);
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+        StateLockManager.started(1, "network#1", "network #1");
+        building.add("network#1");
+
+        assertTrue(StateLockManager.release(1, "network#1"));
+        assertFalse(StateLockManager.release(1, "network#1"));
+        assertNull(StateLockManager.tryReserve(KEY, 2, "network-copy"));
+    }
+
+
+    @Test
+    public void testReleaseDeferredWhileDestroyPending() {
+        queued.add(1L);
+        queued.add(2L);
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+        StateLockManager.started(1, "network#1", "network #1");
+        building.add("network#1");
+
+        StateLockManager.holdForDestroy("network#1", "network #1");
+        destroying.add("network#1");
+        building.remove("network#1");
+
+        // The build completed, but its destroy still needs the state.
+        assertFalse(StateLockManager.release(1, "network#1"));
+        assertEquals(Messages.StateLockDestroying("network #1"), StateLockManager.tryReserve(KEY, 2, "network-copy").getOwner());
+
+        assertTrue(StateLockManager.releaseDestroyLocks("network#1"));
+        assertNull(StateLockManager.tryReserve(KEY, 2, "network-copy"));
+    }
+
+
+    @Test
+    public void testDestroyNoLongerPendingIsStale() {
+        queued.add(2L);
+        assertNull(StateLockManager.tryReserve(KEY, 1, "network"));
+        StateLockManager.started(1, "network#1", "network #1");
+        StateLockManager.holdForDestroy("network#1", "network #1");
+
+        // The destroy was dropped, e.g. on a restart, without releasing its locks.
+        assertNull(StateLockManager.tryReserve(KEY, 2, "network-copy"));
+    }
+}
@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
+
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+
+
+public class TerraformArchiveStoreTest {
+
+    private static final String VERSION = "1.4.6";
+    private static final String PLATFORM = "linux_amd64";
+    // Source which cannot be reached: every file must come from the local directory.
+    private static final String SOURCE = "http://127.0.0.1:1/terraform";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File releases;
+    private TerraformArchiveStore store;
+    private final TaskListener log = new StreamTaskListener(new ByteArrayOutputStream());
+
+
+    @Before
+    public void setUp() throws Exception {
+        releases = folder.newFolder("releases");
+        store = new TerraformArchiveStore(folder.newFolder("store"));
+    }
+
+
+    private File writeRelease(String name, byte[] content) throws IOException {
+        File file = new File(releases, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+
+    private String writeChecksums(byte[] archive) throws IOException {
+        File tmp = writeRelease("checksummed", archive);
+        String checksum = TerraformArchiveStore.sha256(tmp);
+        writeRelease(TerraformArchiveStore.checksumsName(VERSION),
+                (checksum + "  " + TerraformArchiveStore.archiveName(VERSION, PLATFORM) + "\n"
+                        + "0000000000000000000000000000000000000000000000000000000000000000  "
+                        + TerraformArchiveStore.archiveName(VERSION, "darwin_arm64") + "\n").getBytes(StandardCharsets.UTF_8));
+        return checksum;
+    }
+
+
+    @Test
+    public void testParseChecksums() {
+        Map<String, String> checksums = TerraformArchiveStore.parseChecksums(
+                "5B1A2C00FFEE5B1A2C00FFEE5B1A2C00FFEE5B1A2C00FFEE5B1A2C00FFEE5B1A  terraform_1.4.6_linux_amd64.zip\r\n"
+                        + "c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00 *terraform_1.4.6_windows_amd64.zip\n"
+                        + "\n"
+                        + "not a checksum line\n"
+                        + "  deadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeef\tterraform_1.4.6_darwin_arm64.zip  \n");
+
+        assertEquals(3, checksums.size());
+        assertEquals("5b1a2c00ffee5b1a2c00ffee5b1a2c00ffee5b1a2c00ffee5b1a2c00ffee5b1a", checksums.get("terraform_1.4.6_linux_amd64.zip"));
+        assertEquals("c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00c0ffee00", checksums.get("terraform_1.4.6_windows_amd64.zip"));
+        assertEquals("deadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeef", checksums.get("terraform_1.4.6_darwin_arm64.zip"));
+    }
+
+
+    @Test
+    public void testVerifiedArchive() throws Exception {
+        byte[] content = "terraform release".getBytes(StandardCharsets.UTF_8);
+        String checksum = writeChecksums(content);
+        writeRelease(TerraformArchiveStore.archiveName(VERSION, PLATFORM), content);
+
+        assertEquals(checksum, store.getChecksum(VERSION, PLATFORM, SOURCE, releases.getPath(), log));
+        File archive = store.getArchive(VERSION, PLATFORM, checksum, SOURCE, releases.getPath(), log);
+        assertTrue(archive.isFile());
+        assertEquals(checksum, TerraformArchiveStore.sha256(archive));
+
+        // The verified archive is handed out again without importing it.
+        new File(releases, TerraformArchiveStore.archiveName(VERSION, PLATFORM)).delete();
+        assertEquals(archive, store.getArchive(VERSION, PLATFORM, checksum, SOURCE, releases.getPath(), log));
+    }
+
+
+    @Test
+    public void testMismatchedArchiveIsRejected() throws Exception {
+        String checksum = writeChecksums("terraform release".getBytes(StandardCharsets.UTF_8));
+        writeRelease(TerraformArchiveStore.archiveName(VERSION, PLATFORM), "tampered release".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            store.getArchive(VERSION, PLATFORM, checksum, SOURCE, releases.getPath(), log);
+            fail("A mismatched archive must be rejected");
+        } catch (IOException ex) {
+            assertEquals(Messages.ArchiveChecksumMismatch(TerraformArchiveStore.archiveName(VERSION, PLATFORM), checksum,
+                    TerraformArchiveStore.sha256(new File(releases, TerraformArchiveStore.archiveName(VERSION, PLATFORM)))),
+                    ex.getMessage());
+        }
+
+        // Neither the archive nor its partial download is kept.
+        File dir = new File(folder.getRoot(), "store/" + VERSION);
+        assertFalse(new File(dir, TerraformArchiveStore.archiveName(VERSION, PLATFORM)).exists());
+        assertFalse(new File(dir, TerraformArchiveStore.archiveName(VERSION, PLATFORM) + ".part").exists());
+    }
+
+
+    @Test(expected = FileNotFoundException.class)
+    public void testUnknownPlatform() throws Exception {
+        writeChecksums("terraform release".getBytes(StandardCharsets.UTF_8));
+
+        store.getChecksum(VERSION, "windows_arm64", SOURCE, releases.getPath(), log);
+    }
+}
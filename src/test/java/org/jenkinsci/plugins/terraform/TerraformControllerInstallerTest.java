@@ -0,0 +1,25 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TerraformControllerInstallerTest {
+
+    @Test
+    public void testPlatformOf() {
+        assertEquals("linux_amd64", TerraformControllerInstaller.platformOf("Linux", "amd64"));
+        assertEquals("linux_amd64", TerraformControllerInstaller.platformOf("Linux", "x86_64"));
+        assertEquals("linux_arm64", TerraformControllerInstaller.platformOf("Linux", "aarch64"));
+        assertEquals("linux_arm", TerraformControllerInstaller.platformOf("Linux", "arm"));
+        assertEquals("linux_386", TerraformControllerInstaller.platformOf("Linux", "i386"));
+        assertEquals("darwin_arm64", TerraformControllerInstaller.platformOf("Mac OS X", "aarch64"));
+        assertEquals("windows_amd64", TerraformControllerInstaller.platformOf("Windows Server 2019", "amd64"));
+        assertEquals("windows_386", TerraformControllerInstaller.platformOf("Windows 10", "x86"));
+        assertEquals("freebsd_amd64", TerraformControllerInstaller.platformOf("FreeBSD", "amd64"));
+        assertEquals("openbsd_amd64", TerraformControllerInstaller.platformOf("OpenBSD", "amd64"));
+        assertEquals("solaris_amd64", TerraformControllerInstaller.platformOf("SunOS", "amd64"));
+    }
+}
@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class TerraformOutputsTest {
+
+    private static Map<String, TerraformOutputs.Output> parse(String json, String prefix) throws IOException {
+        return TerraformOutputs.parse(json.getBytes(StandardCharsets.UTF_8), prefix);
+    }
+
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+
+    @Test
+    public void testValues() throws Exception {
+        Map<String, TerraformOutputs.Output> outputs = parse("{"
+                + "\"vpc_id\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"vpc-0a1b\"},"
+                + "\"port\":{\"sensitive\":false,\"type\":\"number\",\"value\":8080},"
+                + "\"subnets\":{\"sensitive\":false,\"type\":[\"list\",\"string\"],\"value\":[\"a\",\"b\"]},"
+                + "\"tags\":{\"sensitive\":false,\"type\":[\"map\",\"string\"],\"value\":{\"Owner\":\"platform\"}},"
+                + "\"quoted\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"say \\\"hi\\\"\"}"
+                + "}", "");
+
+        assertEquals(Arrays.asList("TF_OUTPUT_vpc_id", "TF_OUTPUT_port", "TF_OUTPUT_subnets", "TF_OUTPUT_tags", "TF_OUTPUT_quoted"),
+                new ArrayList<>(outputs.keySet()));
+        // Strings as is, other values as JSON.
+        assertEquals("vpc-0a1b", outputs.get("TF_OUTPUT_vpc_id").getText());
+        assertEquals("8080", outputs.get("TF_OUTPUT_port").getText());
+        assertEquals("[\"a\",\"b\"]", outputs.get("TF_OUTPUT_subnets").getText());
+        assertEquals("{\"Owner\":\"platform\"}", outputs.get("TF_OUTPUT_tags").getText());
+        assertEquals("say \"hi\"", outputs.get("TF_OUTPUT_quoted").getText());
+        assertFalse(outputs.get("TF_OUTPUT_vpc_id").isFile());
+    }
+
+
+    @Test
+    public void testSensitiveAndLongValuesInFiles() throws Exception {
+        String limit = repeat('x', TerraformOutputs.MAX_VARIABLE_LENGTH);
+        Map<String, TerraformOutputs.Output> outputs = parse("{"
+                + "\"password\":{\"sensitive\":true,\"type\":\"string\",\"value\":\"s3cret\"},"
+                + "\"limit\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"" + limit + "\"},"
+                + "\"long\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"" + limit + "x\"}"
+                + "}", "network_");
+
+        assertEquals(Arrays.asList("TF_OUTPUT_network_password_FILE", "TF_OUTPUT_network_limit", "TF_OUTPUT_network_long_FILE"),
+                new ArrayList<>(outputs.keySet()));
+        assertTrue(outputs.get("TF_OUTPUT_network_password_FILE").isFile());
+        assertEquals("s3cret", outputs.get("TF_OUTPUT_network_password_FILE").getText());
+        assertEquals("password", outputs.get("TF_OUTPUT_network_password_FILE").getFileName());
+        assertFalse(outputs.get("TF_OUTPUT_network_limit").isFile());
+        assertTrue(outputs.get("TF_OUTPUT_network_long_FILE").isFile());
+    }
+
+
+    @Test
+    public void testToVariableName() {
+        assertEquals("vpc_id", TerraformOutputs.toVariableName("vpc_id"));
+        assertEquals("db_endpoint", TerraformOutputs.toVariableName("db-endpoint"));
+        assertEquals("infra_network", TerraformOutputs.toVariableName("infra/network"));
+        assertEquals("caf_", TerraformOutputs.toVariableName("caf\u00e9"));
+    }
+
+
+    @Test
+    public void testSanitizedNameCollision() throws Exception {
+        try {
+            parse("{"
+                    + "\"a-b\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"1\"},"
+                    + "\"a_b\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"2\"}"
+                    + "}", "");
+            fail("Outputs with the same variable name must be refused");
+        } catch (IOException ex) {
+            assertEquals(Messages.OutputsNameCollision("a-b", "a_b", "TF_OUTPUT_a_b"), ex.getMessage());
+        }
+
+        // Only the variable names matter: a sensitive a-b does not collide with a_b, but with a_b_FILE.
+        assertEquals(2, parse("{"
+                + "\"a-b\":{\"sensitive\":true,\"type\":\"string\",\"value\":\"1\"},"
+                + "\"a_b\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"2\"}"
+                + "}", "").size());
+        try {
+            parse("{"
+                    + "\"a-b\":{\"sensitive\":true,\"type\":\"string\",\"value\":\"1\"},"
+                    + "\"a_b_FILE\":{\"sensitive\":false,\"type\":\"string\",\"value\":\"2\"}"
+                    + "}", "");
+            fail("Outputs with the same variable name must be refused");
+        } catch (IOException ex) {
+            assertEquals(Messages.OutputsNameCollision("a-b", "a_b_FILE", "TF_OUTPUT_a_b_FILE"), ex.getMessage());
+        }
+    }
+
+
+    @Test(expected = IOException.class)
+    public void testInvalidDocument() throws Exception {
+        parse("[]", "");
+    }
+}
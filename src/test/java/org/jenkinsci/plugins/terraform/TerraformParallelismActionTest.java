@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import hudson.model.Result;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TerraformParallelismActionTest {
+
+    private static TerraformParallelismAction previous(int parallelism, int throttled, boolean applied) {
+        TerraformParallelismAction action = new TerraformParallelismAction(parallelism);
+        action.addThrottled(throttled);
+        if (applied) {
+            action.setApplied();
+        }
+        return action;
+    }
+
+
+    @Test
+    public void testFirstBuild() {
+        assertEquals(10, TerraformParallelismAction.adapt(null, null, 10, 50));
+        assertEquals(5, TerraformParallelismAction.adapt(null, null, 10, 5));
+        assertEquals(1, TerraformParallelismAction.adapt(null, null, 0, 50));
+    }
+
+
+    @Test
+    public void testHalvedAfterThrottling() {
+        assertEquals(10, TerraformParallelismAction.adapt(previous(20, 3, true), Result.SUCCESS, 10, 50));
+        assertEquals(10, TerraformParallelismAction.adapt(previous(20, 1, false), Result.FAILURE, 10, 50));
+        assertEquals(1, TerraformParallelismAction.adapt(previous(1, 1, true), Result.SUCCESS, 10, 50));
+    }
+
+
+    @Test
+    public void testRaisedAfterSuccessfulApply() {
+        assertEquals(12, TerraformParallelismAction.adapt(previous(10, 0, true), Result.SUCCESS, 10, 50));
+        // Raised by at least one.
+        assertEquals(3, TerraformParallelismAction.adapt(previous(2, 0, true), Result.SUCCESS, 10, 50));
+        assertEquals(50, TerraformParallelismAction.adapt(previous(48, 0, true), Result.SUCCESS, 10, 50));
+    }
+
+
+    @Test
+    public void testUnchangedWithoutApply() {
+        assertEquals(10, TerraformParallelismAction.adapt(previous(10, 0, false), Result.SUCCESS, 10, 50));
+        assertEquals(10, TerraformParallelismAction.adapt(previous(10, 0, true), Result.FAILURE, 10, 50));
+        assertEquals(10, TerraformParallelismAction.adapt(previous(10, 0, true), Result.UNSTABLE, 10, 50));
+    }
+
+
+    @Test
+    public void testClampedToMax() {
+        // The maximum may have been lowered since the previous build.
+        assertEquals(8, TerraformParallelismAction.adapt(previous(20, 0, false), Result.SUCCESS, 10, 8));
+        assertEquals(8, TerraformParallelismAction.adapt(previous(20, 2, true), Result.SUCCESS, 10, 8));
+    }
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TerraformTimingActionTest {
+
+    private static TerraformTimingAction.ResourceTiming timing(String address, long start, long end) {
+        return new TerraformTimingAction.ResourceTiming("", address, TerraformTimingAction.APPLY, "create", start, end, false);
+    }
+
+
+    @Test
+    public void testPositions() {
+        TerraformTimingAction action = new TerraformTimingAction();
+        TerraformTimingAction.ResourceTiming vpc = timing("aws_vpc.main", 1000, 3000);
+        TerraformTimingAction.ResourceTiming subnet = timing("aws_subnet.a", 3000, 5000);
+        action.add(subnet);
+        action.add(vpc);
+
+        assertEquals(1000, action.getStart());
+        assertEquals(5000, action.getEnd());
+        assertEquals(0.0, action.getOffsetPercent(vpc), 0.001);
+        assertEquals(50.0, action.getOffsetPercent(subnet), 0.001);
+        assertEquals(50.0, action.getWidthPercent(subnet), 0.001);
+
+        // Adding a resource moves the bounds.
+        action.add(timing("aws_instance.web", 5000, 9000));
+        assertEquals(9000, action.getEnd());
+        assertEquals(25.0, action.getOffsetPercent(subnet), 0.001);
+    }
+
+
+    @Test
+    public void testEmpty() {
+        TerraformTimingAction action = new TerraformTimingAction();
+
+        assertEquals(0, action.getStart());
+        assertEquals(0, action.getEnd());
+    }
+
+
+    @Test
+    public void testMinimumWidth() {
+        TerraformTimingAction action = new TerraformTimingAction();
+        TerraformTimingAction.ResourceTiming instant = timing("null_resource.a", 1000, 1000);
+        action.add(instant);
+        action.add(timing("aws_vpc.main", 1000, 101000));
+
+        assertEquals(0.2, action.getWidthPercent(instant), 0.001);
+    }
+}
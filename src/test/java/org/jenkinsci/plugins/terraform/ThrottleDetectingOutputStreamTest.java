@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+
+public class ThrottleDetectingOutputStreamTest {
+
+    private static final String ESC = "\u001B";
+
+
+    @Test
+    public void testThrottledLines() {
+        assertTrue(ThrottleDetectingOutputStream.isThrottled(
+                "Error: creating EC2 Instance: operation error EC2: RunInstances, https response error StatusCode: 429, RequestID: 1a2b"));
+        assertTrue(ThrottleDetectingOutputStream.isThrottled(
+                "2023-03-15T10:21:34.100Z [DEBUG] provider.terraform-provider-google: HTTP/1.1 429 Too Many Requests"));
+        assertTrue(ThrottleDetectingOutputStream.isThrottled(
+                "Error: reading IAM Role (web): ThrottlingException: Rate exceeded"));
+        assertTrue(ThrottleDetectingOutputStream.isThrottled(
+                ESC + "[31m\u2502" + ESC + "[0m " + ESC + "[1m" + ESC + "[31mError: " + ESC + "[0m" + ESC
+                        + "[1mwaiting for Route 53: Throttling: Rate exceeded" + ESC + "[0m"));
+        assertTrue(ThrottleDetectingOutputStream.isThrottled(
+                "\u2502 googleapi: Error 403: Quota exceeded for quota metric 'Queries', rateLimitExceeded"));
+        assertTrue(ThrottleDetectingOutputStream.isThrottled(
+                "\u2502 S3 operation error: SlowDown: Please reduce your request rate."));
+    }
+
+
+    @Test
+    public void testNoiseIsNotThrottling() {
+        // Plan attributes and resource names mention throttling without being errors.
+        assertFalse(ThrottleDetectingOutputStream.isThrottled("      + throttling_burst_limit = 5000"));
+        assertFalse(ThrottleDetectingOutputStream.isThrottled("      + rate_limit             = 100"));
+        assertFalse(ThrottleDetectingOutputStream.isThrottled(
+                "aws_api_gateway_usage_plan.throttled: Creation complete after 1s [id=abc123]"));
+        assertFalse(ThrottleDetectingOutputStream.isThrottled("Apply complete! Resources: 429 added, 0 changed, 0 destroyed."));
+        assertFalse(ThrottleDetectingOutputStream.isThrottled("\u2502 Error: creating EC2 Instance: UnauthorizedOperation"));
+        assertFalse(ThrottleDetectingOutputStream.isThrottled(""));
+    }
+}
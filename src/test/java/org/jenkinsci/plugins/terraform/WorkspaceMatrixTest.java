@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.terraform;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import hudson.FilePath;
+
+import java.io.File;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+
+public class WorkspaceMatrixTest {
+
+    private static RootModule module(String name, String... dependencies) {
+        FilePath path = new FilePath(new File(name));
+        return new RootModule(name, path, new FilePath(new File("work", name)), true, Arrays.asList(dependencies));
+    }
+
+
+    private static List<String> getNames(List<RootModule> modules) {
+        String[] names = new String[modules.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = modules.get(i).getName();
+        }
+        return Arrays.asList(names);
+    }
+
+
+    @Test
+    public void testParse() {
+        assertEquals(Arrays.asList("tenant-a", "tenant-b", "tenant-c"), WorkspaceMatrix.parse("tenant-a, tenant-b\n\n  tenant-c\r\n"));
+        assertEquals(Arrays.asList("tenant-a", "tenant-b"), WorkspaceMatrix.parse("tenant-a,tenant-b,,tenant-a"));
+        assertEquals(Collections.emptyList(), WorkspaceMatrix.parse(" \n"));
+        assertEquals(Collections.emptyList(), WorkspaceMatrix.parse(null));
+    }
+
+
+    @Test
+    public void testDependenciesOfTheSameWorkspace() {
+        List<RootModule> runs = WorkspaceMatrix.expand(Arrays.asList(module("network"), module("app", "network")),
+                Arrays.asList("tenant-a", "tenant-b"), true);
+
+        assertEquals(Arrays.asList("network@tenant-a", "app@tenant-a", "network@tenant-b", "app@tenant-b"), getNames(runs));
+        assertEquals(Collections.emptyList(), runs.get(0).getDependencies());
+        assertEquals(Collections.singletonList("network@tenant-a"), runs.get(1).getDependencies());
+        assertEquals(Collections.singletonList("network@tenant-b"), runs.get(3).getDependencies());
+        assertEquals("tenant-b", runs.get(3).getTerraformWorkspace());
+    }
+
+
+    @Test
+    public void testSingleRootModuleIsNamedAfterTheWorkspace() {
+        List<RootModule> runs = WorkspaceMatrix.expand(Collections.singletonList(module("")), Arrays.asList("tenant-a"), true);
+
+        assertEquals(Collections.singletonList("tenant-a"), getNames(runs));
+        assertEquals("tenant-a", runs.get(0).getTerraformWorkspace());
+    }
+
+
+    @Test
+    public void testDirectoriesOfRuns() {
+        RootModule network = module("network");
+        List<RootModule> runs = WorkspaceMatrix.expand(Collections.singletonList(network), Arrays.asList("tenant-a", "eu/west 1"), false);
+
+        // Terraform still runs in the configuration directory.
+        assertEquals(network.getWorkspacePath(), runs.get(0).getWorkspacePath());
+        FilePath workingDirectory = new FilePath(network.getWorkingDirectory(), WorkspaceMatrix.MATRIX_DIR_NAME + "/tenant-a");
+        assertEquals(workingDirectory, runs.get(0).getWorkingDirectory());
+        assertEquals(new FilePath(workingDirectory, RootModule.DATA_DIR_NAME), runs.get(0).getDataDir());
+        assertEquals(new FilePath(workingDirectory, RootModule.STATE_FILE_NAME), runs.get(0).getStateFile());
+
+        // Workspace names are not trusted as directory names.
+        assertEquals(new FilePath(network.getWorkingDirectory(), WorkspaceMatrix.MATRIX_DIR_NAME + "/eu_west_1"),
+                runs.get(1).getWorkingDirectory());
+        assertEquals("network@eu/west 1", runs.get(1).getName());
+        assertFalse(runs.get(0).getDataDir().equals(runs.get(1).getDataDir()));
+    }
+
+
+    @Test
+    public void testRemoteStateHasNoStateFile() {
+        List<RootModule> runs = WorkspaceMatrix.expand(Collections.singletonList(module("network")), Arrays.asList("tenant-a"), true);
+
+        assertNull(runs.get(0).getStateFile());
+    }
+
+
+    @Test
+    public void testWithDataDir() {
+        String[] envs = { "TF_IN_AUTOMATION=1" };
+
+        assertSame(envs, WorkspaceMatrix.withDataDir(envs, null));
+        assertArrayEquals(new String[] { "TF_IN_AUTOMATION=1", "TF_DATA_DIR=/work/network/workspaces/tenant-a/.terraform" },
+                WorkspaceMatrix.withDataDir(envs, "/work/network/workspaces/tenant-a/.terraform"));
+    }
+}